@@ -9,14 +9,21 @@ import java.util.Locale;
 /**
  * A collection of products,
  * used to record the products that are to be wished to be purchased.
+ * An order may be express or booked for collection at a set time,
+ * these orders are packed ahead of standard orders.
  * @author  Mike Smith University of Brighton
- * @version 2.2
+ * @version 2.3
  *
  */
 public class Basket extends ArrayList<Product> implements Serializable
 {
   private static final long serialVersionUID = 1;
   private int    theOrderNum = 0;          // Order number
+  private int    thePriority = STANDARD;   // Priority class
+  private long   theCollectBy = 0;         // Collection time, 0 if none
+
+  public static final int STANDARD = 0;    // Priority classes
+  public static final int EXPRESS  = 1;
   
   /**
    * Constructor for a basket which is
@@ -46,6 +53,42 @@ public class Basket extends ArrayList<Product> implements Serializable
     return theOrderNum;
   }
   
+  /**
+   * Set the priority class of the order
+   * @param aPriority STANDARD or EXPRESS
+   */
+  public void setPriority( int aPriority )
+  {
+    thePriority = aPriority;
+  }
+
+  /**
+   * Returns the priority class of the order
+   * @return STANDARD or EXPRESS
+   */
+  public int getPriority()
+  {
+    return thePriority;
+  }
+
+  /**
+   * Book the order for collection at a set time
+   * @param aTime Collection time in milliseconds since the epoch, 0 if none
+   */
+  public void setCollectBy( long aTime )
+  {
+    theCollectBy = aTime;
+  }
+
+  /**
+   * Returns the time the order is booked for collection
+   * @return Collection time in milliseconds since the epoch, 0 if none
+   */
+  public long getCollectBy()
+  {
+    return theCollectBy;
+  }
+
   /**
    * Add a product to the Basket.
    * Product is appended to the end of the existing products
@@ -5,8 +5,11 @@ import java.io.Serializable;
 /**
  * Used to hold the following information about
  * a product: Product number, Description, Price, Stock level.
+ * The version is that of the stock list entry the details were read
+ * from, 0 if not known, and is used to change the entry only if no
+ * one else has changed it since.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  */
 
 public class Product implements Serializable
@@ -16,6 +19,7 @@ public class Product implements Serializable
   private String theDescription;      // Description of product
   private double thePrice;            // Price of product
   private int    theQuantity;         // Quantity involved
+  private int    theVersion = 0;      // Of stock list entry
 
   /**
    * Construct a product details
@@ -37,6 +41,7 @@ public class Product implements Serializable
   public String getDescription() { return theDescription; }
   public double getPrice()       { return thePrice; }
   public int    getQuantity()    { return theQuantity; }
+  public int    getVersion()     { return theVersion; }
   
   public void setProductNum( String aProductNum )
   { 
@@ -58,4 +63,9 @@ public class Product implements Serializable
     theQuantity = aQuantity;
   }
 
+  public void setVersion( int aVersion )
+  {
+    theVersion = aVersion;
+  }
+
 }
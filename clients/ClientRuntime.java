@@ -0,0 +1,94 @@
+package clients;
+
+import debug.DEBUG;
+
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Where a client's model does its work and tells its view.
+ * <PRE>
+ * execute()     Runs model work, such as calls to the middle tier,
+ *               one at a time on the client's own worker thread,
+ *               so the Swing event thread is never kept waiting.
+ * notifyView()  Asks for the view to be updated.  Updates are always
+ *               made on the Swing event thread, and however many are
+ *               asked for in a frame (FRAME_MS) only the latest is
+ *               made, so scanning quickly gives one repaint a frame.
+ * </PRE>
+ * As the work is done one at a time it is in the order asked for.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class ClientRuntime
+{
+  private static final int    FRAME_MS = 16;        // ~60 frames a second
+  private static final Object NONE     = new Object(); // No update pending
+  private static final Object NULL     = new Object(); // Update with null
+
+  private final String                  theName;
+  private final ExecutorService         theWorker;
+  private final Consumer<Object>        theView;    // Makes an update
+  private final AtomicReference<Object> thePending = new AtomicReference<>( NONE );
+  private final Timer                   theFrame;
+
+  /**
+   * A client runtime
+   * @param name Name of the client, used to name the worker thread
+   * @param view Called on the event thread to update the view,
+   *             typically setChanged(); notifyObservers( arg )
+   */
+  public ClientRuntime( String name, Consumer<Object> view )
+  {
+    theName   = name;
+    theView   = view;
+    theWorker = Executors.newSingleThreadExecutor(
+                  Thread.ofVirtual().name( name + "-model" ).factory() );
+    theFrame  = new Timer( FRAME_MS, e -> update() );
+    theFrame.setRepeats( false );                   // Once per request
+  }
+
+  /**
+   * Run model work on the worker, after any work already asked for
+   * @param work The work to do
+   */
+  public void execute( Runnable work )
+  {
+    theWorker.execute( () ->
+    {
+      try
+      {
+        work.run();
+      } catch ( Throwable e )
+      {
+        DEBUG.error( "%s model\n%s", theName, e.getMessage() );
+      }
+    } );
+  }
+
+  /**
+   * Ask for the view to be updated, may be called from any thread.
+   * If an update is already waiting for the next frame it is
+   * replaced by this one.
+   * @param arg Passed on to the observers of the model
+   */
+  public void notifyView( Object arg )
+  {
+    if ( thePending.getAndSet( arg == null ? NULL : arg ) == NONE )
+      theFrame.start();                             // First this frame
+  }
+
+  /**
+   * Make the latest update, called on the event thread
+   */
+  private void update()
+  {
+    Object arg = thePending.getAndSet( NONE );
+    if ( arg != NONE )
+      theView.accept( arg == NULL ? null : arg );
+  }
+}
@@ -12,16 +12,22 @@ import clients.customer.CustomerView;
 import clients.packing.PackingController;
 import clients.packing.PackingModel;
 import clients.packing.PackingView;
+import metrics.Metrics;
 import middle.LocalMiddleFactory;
 import middle.MiddleFactory;
 import javax.swing.*;
 import java.awt.*;
+import java.lang.management.ManagementFactory;
 
 /**
  * Starts all the clients (user interface)  as a single application.
  * Good for testing the system using a single application.
+ * The database is opened in the background while the windows are
+ * made, the time from the start of the JVM to each being ready is
+ * printed and kept as the gauges startup.windows.ms and
+ * startup.database.ms.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  * @author  Shine University of Brighton
  * @version year-2024
  */
@@ -39,11 +45,28 @@ class Main
   public void begin()
   {
     //DEBUG.set(true); /* Lots of debug info */
+    LocalMiddleFactory.warmUp()                    // Open DB meanwhile
+      .whenComplete( (v, e) -> started( "database", e == null ) );
     MiddleFactory mlf = new LocalMiddleFactory();  // Direct access
     startCustomerGUI_MVC( mlf );
     startCashierGUI_MVC( mlf );
     startPackingGUI_MVC( mlf );
     startBackDoorGUI_MVC( mlf );
+    started( "windows", true );
+  }
+
+  /**
+   * Report the time since the JVM started
+   * @param what What is ready
+   * @param ok false if it failed
+   */
+  private static void started( String what, boolean ok )
+  {
+    long ms = System.currentTimeMillis() -
+              ManagementFactory.getRuntimeMXBean().getStartTime();
+    System.out.printf( "Startup: %s %s after %d ms%n",
+                       what, ok ? "ready" : "failed", ms );
+    Metrics.gauge( "startup." + what + ".ms", () -> ms );
   }
   
   /**
@@ -106,6 +129,7 @@ class Main
     view.setController( cont );
 
     model.addObserver( view );       // Add observer to the model
+    model.start();                   // Look for orders to pack
     window.setVisible(true);         // Make window visible
   }
   
@@ -2,67 +2,40 @@ package clients;
 
 import dbAccess.DBAccess;
 import dbAccess.DBAccessFactory;
+import dbAccess.SampleStock;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Repopulate the database with test data
+ * The database is the one of the settings (see config.Config).
+ * With db.profile=memory nothing is written to disk, and the stock
+ * objects fill a database in memory with the same stock themselves
+ * when they open it.
  * @author  Mike Smith University of Brighton
- * @version 3.0 Derby
+ * @version 3.1 Derby
  */
 
 class Setup 
 {
-  private static String[] sqlStatements = {
-
-//  " SQL code to set up database tables",
-
-//  "drop table ProductList",
-//  "drop table StockList",
-
-
-  "drop table ProductTable",
-  "create table ProductTable ("+
-      "productNo      Char(4)," +
-      "description    Varchar(40)," +
-      "picture        Varchar(80)," +
-      "price          Float)",
-
-  "insert into ProductTable values " +
-     "('0001', '40 inch LED HD TV', 'images/pic0001.jpg', 269.00)",
-  "insert into ProductTable values " +
-     "('0002', 'DAB Radio',         'images/pic0002.jpg', 29.99)",
-  "insert into ProductTable values " +
-     "('0003', 'Toaster',           'images/pic0003.jpg', 19.99)",
-  "insert into ProductTable values " +
-     "('0004', 'Watch',             'images/pic0004.jpg', 29.99)",
-  "insert into ProductTable values " +
-     "('0005', 'Digital Camera',    'images/pic0005.jpg', 89.99)",
-  "insert into ProductTable values " +
-     "('0006', 'MP3 player',        'images/pic0006.jpg', 7.99)",
-  "insert into ProductTable values " +
-     "('0007', '32Gb USB2 drive',   'images/pic0007.jpg', 6.99)",
-//  "select * from ProductTable",
-
-
-  "drop table StockTable",
-  "create table StockTable ("+
-      "productNo      Char(4)," +
-      "stockLevel     Integer)",
-
-  "insert into StockTable values ( '0001',  90 )",
-  "insert into StockTable values ( '0002',  20 )",
-  "insert into StockTable values ( '0003',  33 )",
-  "insert into StockTable values ( '0004',  10 )",
-  "insert into StockTable values ( '0005',  17 )",
-  "insert into StockTable values ( '0006',  15 )",
-  "insert into StockTable values ( '0007',  01 )",
-
-  "select * from StockTable, ProductTable " +
-          " where StockTable.productNo = ProductTable.productNo"
-
- };
+  private static String[] sqlStatements = sqlStatements();
+
+  /**
+   * Drop the tables, make them again with the sample stock
+   *  (see SampleStock), then show what is there
+   */
+  private static String[] sqlStatements()
+  {
+    List<String> all = new ArrayList<>();
+    all.addAll( Arrays.asList( SampleStock.DROP ) );
+    all.addAll( Arrays.asList( SampleStock.SQL ) );
+    all.add( "select * from StockTable, ProductTable " +
+             " where StockTable.productNo = ProductTable.productNo" );
+    return all.toArray( new String[0] );
+  }
 
   public static void main(String[] args)
   {
@@ -3,26 +3,35 @@ package clients.backDoor;
 import catalogue.Basket;
 import catalogue.BetterBasket;
 import catalogue.Product;
+import clients.ClientRuntime;
 import debug.DEBUG;
 import middle.MiddleFactory;
 import middle.StockException;
 import middle.StockMonitorService;
 import middle.StockReadWriter;
 
+import java.util.List;
 import java.util.Observable;
 
 /**
- * Implements the Model of the back door client
+ * Implements the Model of the back door client.
+ * Each request is carried out on the client's worker thread, in the
+ * order asked for, so the Swing event thread never waits on the
+ * middle tier.
  */
 public class BackDoorModel extends Observable
 {
-  private Basket      theBasket  = null;            // Bought items
+  private volatile Basket theBasket = null;         // Bought items
   private String      pn = "";                      // Product being processed
 
+  private static final int SEARCH_MAX = 10;         // Matches shown
+
   private StockReadWriter theStock     = null;
 
   private StockMonitorService stockMonitor = null;
 
+  private ClientRuntime theRuntime = null;          // Made when first used
+
   /*
    * Construct the model of the back door client
    * @param mf The factory to create the connection objects
@@ -34,6 +43,7 @@ public class BackDoorModel extends Observable
     {
       theStock = mf.makeStockReadWriter();        // Database access
       stockMonitor = new StockMonitorService(theStock);
+      stockMonitor.start();                       // Follow the changes
     } catch ( Exception e )
     {
       DEBUG.error("CustomerModel.constructor\n%s", e.getMessage() );
@@ -42,6 +52,19 @@ public class BackDoorModel extends Observable
     theBasket = makeBasket();                     // Initial Basket
   }
 
+  /**
+   * Where the model does its work and tells its view, made when first
+   * used so the model is not handed to it before it is built
+   * @return the runtime of this client
+   */
+  private synchronized ClientRuntime runtime()
+  {
+    if ( theRuntime == null )
+      theRuntime = new ClientRuntime( "backDoor",
+                     arg -> { setChanged(); notifyObservers( arg ); } );
+    return theRuntime;
+  }
+
   /**
    * Get the Basket of products
    * @return basket
@@ -56,18 +79,30 @@ public class BackDoorModel extends Observable
    * @param productNum The product number
    */
   public void doCheck(String productNum )
+  {
+    runtime().execute( () -> check( productNum ) );
+  }
+
+  /** Check on the worker thread */
+  private void check(String productNum )
   {
     pn  = productNum.trim();                    // Product no.
     String status = stockMonitor.checkProduct(pn);
-    setChanged();
-    notifyObservers(status);
+    runtime().notifyView(status);
   }
 
   /**
-   * Query
+   * Query, if not a product number the products whose
+   *  description matches are shown
    * @param productNum The product number of the item
    */
   public void doQuery(String productNum )
+  {
+    runtime().execute( () -> query( productNum ) );
+  }
+
+  /** Query on the worker thread */
+  private void query(String productNum )
   {
     String theAction = "";
     pn  = productNum.trim();                    // Product no.
@@ -82,14 +117,25 @@ public class BackDoorModel extends Observable
                         pr.getPrice(),                        //    price
                         pr.getQuantity() );                   //    quantity
       } else {                                  //  F
-        theAction =                             //   Inform
+        List<Product> found =                   //   Try as words
+                theStock.search( pn, SEARCH_MAX );    //    of description
+        if ( found.isEmpty() )
+        {
+          theAction =                           //   Inform
                 "Unknown product number " + pn;       //  product number
+        } else {
+          Basket basket = makeBasket();         //   Show matches
+          for ( Product pr : found ) basket.add( pr );
+          theBasket = basket;
+          theAction = String.format( "%d products match \"%s\"",
+                                     found.size(), pn );
+        }
       }
     } catch( StockException e )
     {
       theAction = e.getMessage();
     }
-    setChanged(); notifyObservers(theAction);
+    runtime().notifyView(theAction);
   }
 
   /**
@@ -98,14 +144,18 @@ public class BackDoorModel extends Observable
    * @param quantity How many to be added
    */
   public void doRStock(String productNum, String quantity) {
+    runtime().execute( () -> restock( productNum, quantity ) );
+  }
+
+  /** Re stock on the worker thread */
+  private void restock(String productNum, String quantity) {
     String theAction = "";
     theBasket = makeBasket();
     pn = productNum.trim();
 
     if (pn.isEmpty()) {
       theAction = "Product number can't be empty.";
-      setChanged();
-      notifyObservers(theAction);
+      runtime().notifyView(theAction);
       return;
     }
 
@@ -113,8 +163,7 @@ public class BackDoorModel extends Observable
     int amount = 0;
     if (quantity == null || quantity.trim().isEmpty()) {
       theAction = "Quantity is required.";
-      setChanged();
-      notifyObservers(theAction);
+      runtime().notifyView(theAction);
       return;
     }
 
@@ -124,15 +173,16 @@ public class BackDoorModel extends Observable
 
       if (amount <= 0) {
         theAction = "Quantity should be greater than 0.";
-        setChanged();
-        notifyObservers(theAction);
+        runtime().notifyView(theAction);
         return;
       }
 
       if (theStock.exists(pn)) {              // Stock Exists?
         theStock.addStock(pn, amount);       // Re-stock the product
         Product pr = theStock.getDetails(pn); // Get product details
-        theBasket.add(pr);                   // Add to basket
+        Basket basket = makeBasket();
+        basket.add(pr);                      // Add to basket
+        theBasket = basket;                  //  shown whole
 
         // Record the restock only once and only if stockMonitor is initialized
         if (stockMonitor != null) {
@@ -149,25 +199,34 @@ public class BackDoorModel extends Observable
       theAction = e.getMessage();
     }
 
-    setChanged();
-    notifyObservers(theAction);
+    runtime().notifyView(theAction);
   }
 
   /**
    * Clear the product()
    */
   public void doClear()
+  {
+    runtime().execute( () -> clear() );
+  }
+
+  /** Clear on the worker thread */
+  private void clear()
   {
     String theAction = "";
-    theBasket.clear();                        // Clear s. list
+    theBasket = makeBasket();                 // Clear s. list
     theAction = "Enter Product Number";       // Set display
-    setChanged(); notifyObservers(theAction);  // inform the observer view that model changed
+    runtime().notifyView(theAction);          // inform the observer view that model changed
   }
 
   public void generateReport() {
+    runtime().execute( () -> report() );
+  }
+
+  /** Report on the worker thread */
+  private void report() {
     String report = stockMonitor.generateReport();
-    setChanged();
-    notifyObservers(report);
+    runtime().notifyView(report);
   }
 
   /**
@@ -2,13 +2,29 @@ package clients.cashier;
 
 import catalogue.Basket;
 import catalogue.Product;
+import clients.ClientRuntime;
 import debug.DEBUG;
 import middle.*;
 
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * Implements the Model of the cashier client
+ * Implements the Model of the cashier client.
+ * Calls to the middle tier are made without waiting, the answer is
+ * dealt with on the Swing event thread when it arrives, so the
+ * view stays responsive however slow the network or database.
+ * The model's state is only changed on the event thread, the view
+ * is told of changes at most once a frame.
+ * Stock is held for the customer when it is checked, so another till
+ * can not sell it, and only bought when the customer pays.  Holds
+ * not wanted are given back, holds forgotten run out after HOLD_MS.
+ * An answer to a buy that arrives after the basket has been paid for
+ * or cleared is not added to the next basket, its stock is given back.
  */
 public class CashierModel extends Observable
 {
@@ -16,12 +32,21 @@ public class CashierModel extends Observable
 
   private State       theState   = State.process;   // Current state
   private Product     theProduct = null;            // Current product
+  private String      theHold    = null;            //  stock held for it
   private Basket      theBasket  = null;            // Bought items
+  private List<String> theHolds  = new ArrayList<>(); //  stock held for them
 
   private String      pn = "";                      // Product being processed
+  private int         checkNo = 0;                  // Latest check asked
+  private int         basketNo = 0;                 // Current basket
 
-  private StockReadWriter theStock     = null;
-  private OrderProcessing theOrder     = null;
+  private AsyncStockReadWriter theStock = null;
+  private AsyncOrderProcessing theOrder = null;
+
+  private ClientRuntime theRuntime = null;          // Made when first used
+
+  private static final int  SAME_BASKET = 0;       // No new order number
+  private static final long HOLD_MS     = 15 * 60 * 1000; // Stock held
 
   /**
    * Construct the model of the Cashier
@@ -32,8 +57,8 @@ public class CashierModel extends Observable
   {
     try                                           // 
     {
-      theStock = mf.makeStockReadWriter();        // Database access
-      theOrder = mf.makeOrderProcessing();        // Process order
+      theStock = AsyncStockReadWriter.of( mf.makeStockReadWriter() ); // Database access
+      theOrder = AsyncOrderProcessing.of( mf.makeOrderProcessing() ); // Process order
     } catch ( Exception e )
     {
       DEBUG.error("CashierModel.constructor\n%s", e.getMessage() );
@@ -41,6 +66,19 @@ public class CashierModel extends Observable
     theState   = State.process;                  // Current state
   }
 
+  /**
+   * Where the model does its work and tells its view, made when first
+   * used so the model is not handed to it before it is built
+   * @return the runtime of this client
+   */
+  private synchronized ClientRuntime runtime()
+  {
+    if ( theRuntime == null )
+      theRuntime = new ClientRuntime( "cashier",
+                     arg -> { setChanged(); notifyObservers( arg ); } );
+    return theRuntime;
+  }
+
   /**
    * Get the Basket of products
    * @return basket
@@ -66,101 +104,276 @@ public class CashierModel extends Observable
     } catch (NumberFormatException e) {
       // Handle invalid quantity input
       theAction = "Invalid quantity entered!";
-      setChanged();
-      notifyObservers(theAction);
+      runtime().notifyView(theAction);
       return;
     }
 
-    try {
-      if (theStock.exists(pn)) { // Stock exists?
-        Product pr = theStock.getDetails(pn); // Get details
-        if (pr.getQuantity() >= amount) { // In stock?
-          theAction = String.format("%s : %7.2f (%2d) ",
-                  pr.getDescription(),  // description
-                  pr.getPrice(),        // price
-                  pr.getQuantity());    // quantity
-          theProduct = pr;         // Remember product
-          theProduct.setQuantity(amount);  // Set quantity
-          theState = State.checked; // OK, await BUY
-        } else { // Not enough in stock
-          theAction = "Not enough in stock. " + pr.getQuantity() + " " + pr.getDescription() +" left!";
-        }
-      } else { // Unknown product number
-        theAction = "Unknown product number " + pn;
+    release( theHold );                         // Not bought
+    theHold = null;
+
+    // Ask if it exists and for its details at the same time,
+    // then hold the stock wanted
+    final int    check = ++checkNo;
+    final String pNum  = pn;
+    final int    want  = amount;
+    CompletableFuture<Boolean> exists  = theStock.existsAsync(pNum);
+    CompletableFuture<Product> details = theStock.getDetailsAsync(pNum);
+    exists.thenCombine(details, (found, pr) -> found ? pr : null)
+          .thenCompose(pr -> pr == null || pr.getQuantity() < want
+                ? CompletableFuture.completedFuture(new Check(pr, null))
+                : theStock.reserveStockAsync(pNum, want, HOLD_MS)
+                          .thenApply(hold -> new Check(pr, hold)))
+          .whenComplete((c, e) -> SwingUtilities.invokeLater(
+                  () -> checked(check, pNum, want, c, e)));
+  }
+
+  /**
+   * The answer to a check, the product (null if unknown)
+   * and the stock held (null if none)
+   */
+  private static final class Check
+  {
+    final Product product;
+    final String  hold;
+
+    Check( Product product, String hold )
+    {
+      this.product = product;
+      this.hold    = hold;
+    }
+  }
+
+  /**
+   * The answer to a check has arrived, called on the event thread
+   * @param check Which check this answers
+   * @param pNum Product number
+   * @param amount Quantity wanted
+   * @param c The answer
+   * @param e Error if the check failed, otherwise null
+   */
+  private void checked(int check, String pNum, int amount, Check c, Throwable e) {
+    if (check != checkNo) {                   // A later check was asked
+      if (c != null) release(c.hold);
+      return;
+    }
+    String theAction = "";
+    Product pr = c == null ? null : c.product;
+    if (e != null) {
+      DEBUG.error("%s\n%s", "CashierModel.doCheck", cause(e).getMessage());
+      theAction = cause(e).getMessage();
+    } else if (pr != null) { // Stock exists?
+      if (c.hold != null) { // Held for customer?
+        theAction = String.format("%s : %7.2f (%2d) ",
+                pr.getDescription(),  // description
+                pr.getPrice(),        // price
+                pr.getQuantity());    // quantity
+        theProduct = pr;         // Remember product
+        theProduct.setQuantity(amount);  // Set quantity
+        theHold = c.hold;        //  and stock held
+        theState = State.checked; // OK, await BUY
+      } else { // Not enough free stock
+        theAction = "Not enough in stock. " + pr.getQuantity() + " " + pr.getDescription() +" left!";
       }
-    } catch (StockException e) {
-      DEBUG.error("%s\n%s", "CashierModel.doCheck", e.getMessage());
-      theAction = e.getMessage();
+    } else { // Unknown product number
+      theAction = "Unknown product number " + pNum;
     }
 
-    setChanged();
-    notifyObservers(theAction);
+    runtime().notifyView(theAction);
+  }
+
+  /**
+   * Give back stock held, if any
+   * @param hold Token for the stock held or null
+   */
+  private void release( String hold )
+  {
+    if ( hold == null ) return;
+    theStock.releaseReservationAsync( hold )
+            .whenComplete( (v, e) ->
+            {
+              if ( e != null )                      // Runs out anyway
+                DEBUG.error( "CashierModel.release\n%s", cause( e ).getMessage() );
+            } );
   }
 
+  /**
+   * The exception a middle tier call failed with
+   */
+  private static Throwable cause(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null
+           ? e.getCause() : e;
+  }
 
   /**
-   * Buy the product
+   * Buy the product, the stock is already held for the customer
    */
   public void doBuy()
   {
-    String theAction = "";
-    int    amount  = 1;                         //  & quantity
-    try
-    {
-      if ( theState != State.checked )          // Not checked
-      {                                         //  with customer
-        theAction = "please check item availablity";
-      } else {
-        boolean stockBought =                   // Buy
-                theStock.buyStock(                    //  however
-                        theProduct.getProductNum(),         //  may fail
-                        theProduct.getQuantity() );         //
-        if ( stockBought )                      // Stock bought
-        {                                       // T
-          makeBasketIfReq();                    //  new Basket ?
-          theBasket.add( theProduct );          //  Add to bought
-          theAction = "Added " +            //    details
-                  theProduct.getDescription() + " to basket";  //
-        } else {                                // F
-          theAction = "!!! Not in stock";       //  Now no stock
-        }
-      }
-    } catch( StockException e )
-    {
-      DEBUG.error( "%s\n%s",
-              "CashierModel.doBuy", e.getMessage() );
-      theAction = e.getMessage();
+    if ( theState != State.checked )            // Not checked
+    {                                           //  with customer
+      runtime().notifyView("please check item availablity");
+      return;
     }
+    final Product product   = theProduct;
+    final String  hold      = theHold;
+    final boolean newBasket = theBasket == null;
+    final int     basket    = basketNo;
     theState = State.process;                   // All Done
-    setChanged(); notifyObservers(theAction);
+    theHold  = null;
+    ( newBasket ? theOrder.uniqueNumberAsync()  // Unique order num.
+                : CompletableFuture.completedFuture( SAME_BASKET ) )
+            .whenComplete( (num, e) -> SwingUtilities.invokeLater(
+              () -> bought( basket, product, hold, num, e ) ) );
   }
 
   /**
-   * Customer pays for the contents of the basket
+   * The order number for buying a product has arrived, called on the event thread
+   * @param basket Which basket the product was bought for
+   * @param product Product bought
+   * @param hold Stock held for it
+   * @param num Order number for a new basket or SAME_BASKET
+   * @param e Error if buying failed, otherwise null
    */
-  public void doBought()
+  private void bought( int basket, Product product, String hold,
+                       Integer num, Throwable e )
   {
-    String theAction = "";
-    int    amount  = 1;                       //  & quantity
-    try
-    {
-      if ( theBasket != null &&
-              theBasket.size() >= 1 )            // items > 1
-      {                                       // T
-        theOrder.newOrder( theBasket );       //  Process order
-        theBasket = null;                     //  reset
-      }                                       //
-      theAction = "Start New Order";            // New order
-      theState = State.process;               // All Done
-      theBasket = null;
-    } catch( OrderException e )
+    if ( basket != basketNo )                   // Paid for or cleared
+    {                                           //  since
+      release( hold );
+      runtime().notifyView( product.getDescription() +
+                             " not added, basket already closed" );
+      return;
+    }
+    String theAction;
+    if ( e != null )
     {
       DEBUG.error( "%s\n%s",
-              "CashierModel.doCancel", e.getMessage() );
-      theAction = e.getMessage();
+              "CashierModel.doBuy", cause( e ).getMessage() );
+      theAction = cause( e ).getMessage();
+      release( hold );
+    } else {
+      if ( theBasket == null )                  //  new Basket ?
+      {
+        theBasket = makeBasket();               //  basket list
+        theBasket.setOrderNum( num );           // Add an order number
+      }
+      theBasket.add( product );                 //  Add to bought
+      theHolds.add( hold );                     //   stock held
+      theAction = "Added " +                    //    details
+              product.getDescription() + " to basket";  //
     }
-    theBasket = null;
-    setChanged(); notifyObservers(theAction); // Notify
+    runtime().notifyView(theAction);
+  }
+
+  /**
+   * What became of the stock held for one item when it was paid for
+   */
+  private enum Paid { bought, soldOut, failed }
+
+  /**
+   * Customer pays for the contents of the basket, the stock held
+   * is bought and the order placed.  An item whose hold has run out,
+   * and whose stock has since been sold, is left out of the order.
+   * Each item is bought on its own: one that can not be bought
+   * (the stock system did not answer) is left out and its hold
+   * given back.  If the order can not be placed the stock bought
+   * for it is put back.  The cashier is told of any item left out.
+   */
+  public void doBought()
+  {
+    if ( theBasket != null &&
+            theBasket.size() >= 1 )            // items > 1
+    {                                       // T
+      final Basket       basket = theBasket;
+      final List<String> holds  = theHolds;
+      List<CompletableFuture<Paid>> commits = new ArrayList<>();
+      for ( String hold : holds )
+        commits.add( theStock.commitReservationAsync( hold )
+                             .handle( (ok, e) -> commitAnswer( hold, ok, e ) ) );
+      CompletableFuture.allOf( commits.toArray( new CompletableFuture<?>[0] ) )
+              .thenCompose( v ->
+              {
+                Basket       paid   = makeBasket(); // Items bought
+                List<String> lost   = new ArrayList<>();
+                List<String> failed = new ArrayList<>();
+                paid.setOrderNum( basket.getOrderNum() );
+                for ( int i = 0; i < basket.size(); i++ )
+                {
+                  Product pr = basket.get( i );
+                  Paid    was = commits.get( i ).join();
+                  if ( was == Paid.bought )       paid.add( pr );
+                  else if ( was == Paid.soldOut ) lost.add( pr.getDescription() );
+                  else                            failed.add( pr.getDescription() );
+                }
+                String left = leftOut( lost, failed );
+                if ( paid.isEmpty() )
+                  return CompletableFuture.completedFuture( left );
+                return theOrder.newOrderAsync( paid )   //  Process order
+                               .handle( (x, e) -> e == null ? left
+                                                            : notPlaced( paid, e ) );
+              } )
+              .whenComplete( (left, e) ->
+              {
+                if ( e != null )
+                {
+                  DEBUG.trace( "CashierModel.doBought\n%s", cause( e ).getMessage() );
+                  runtime().notifyView( cause( e ).getMessage() );
+                } else if ( !left.isEmpty() )
+                {
+                  runtime().notifyView( left );
+                }
+              } );
+    }                                       //
+    theState = State.process;               // All Done
+    release( theHold );                     //  checked not bought
+    theHold  = null;
+    theBasket = null;                       //  reset
+    theHolds  = new ArrayList<>();
+    basketNo++;                             //  buys asked are late
+    runtime().notifyView("Start New Order");  // Notify
+  }
+
+  /**
+   * The answer to buying the stock held for one item
+   * @param hold Stock held
+   * @param ok True if bought, false if the hold had run out and was sold
+   * @param e Error if the stock system did not answer, otherwise null
+   * @return what became of the item
+   */
+  private Paid commitAnswer( String hold, Boolean ok, Throwable e )
+  {
+    if ( e == null ) return ok ? Paid.bought : Paid.soldOut;
+    DEBUG.trace( "CashierModel.doBought %s\n%s", hold, cause( e ).getMessage() );
+    release( hold );                        // If not bought
+    return Paid.failed;
+  }
+
+  /**
+   * The order could not be placed, put back the stock bought for it
+   * @param paid Items bought
+   * @param e Why the order was not placed
+   * @return message for the cashier
+   */
+  private String notPlaced( Basket paid, Throwable e )
+  {
+    DEBUG.trace( "CashierModel.doBought order %d\n%s",
+                 paid.getOrderNum(), cause( e ).getMessage() );
+    for ( Product pr : paid )
+      theStock.addStockAsync( pr.getProductNum(), pr.getQuantity() );
+    return "Order not placed, stock put back: " + cause( e ).getMessage();
+  }
+
+  /**
+   * The message for items left out of an order, empty if none
+   */
+  private static String leftOut( List<String> lost, List<String> failed )
+  {
+    List<String> why = new ArrayList<>();
+    if ( !lost.isEmpty() )
+      why.add( "Sold out, not bought: " + String.join( ", ", lost ) );
+    if ( !failed.isEmpty() )
+      why.add( "Not bought, try again: " + String.join( ", ", failed ) );
+    return String.join( ". ", why );
   }
 
   public void clearBasket()
@@ -172,6 +385,12 @@ public class CashierModel extends Observable
         theBasket.clear(); // Clear the items in the basket if needed.
       }
       theBasket = null; // Set the basket to null, effectively clearing it.
+      for (String hold : theHolds) release(hold); // Give back the stock held
+      theHolds = new ArrayList<>();
+      basketNo++; // Buys still to be answered are not added
+      release(theHold);
+      theHold = null;
+      theState = State.process;
       theAction = "Basket cleared."; // Action message
     }
     catch (Exception e) {
@@ -179,8 +398,7 @@ public class CashierModel extends Observable
       theAction = "Failed to clear basket: " + e.getMessage();
     }
 
-    setChanged();  // Mark as changed
-    notifyObservers(theAction); // Notify observers (view)
+    runtime().notifyView(theAction); // Notify observers (view)
   }
   /**
    * ask for update of view callled at start of day
@@ -188,27 +406,7 @@ public class CashierModel extends Observable
    */
   public void askForUpdate()
   {
-    setChanged(); notifyObservers("Welcome");
-  }
-
-  /**
-   * make a Basket when required
-   */
-  private void makeBasketIfReq()
-  {
-    if ( theBasket == null )
-    {
-      try
-      {
-        int uon   = theOrder.uniqueNumber();     // Unique order num.
-        theBasket = makeBasket();                //  basket list
-        theBasket.setOrderNum( uon );            // Add an order number
-      } catch ( OrderException e )
-      {
-        DEBUG.error( "Comms failure\n" +
-                "CashierModel.makeBasket()\n%s", e.getMessage() );
-      }
-    }
+    runtime().notifyView("Welcome");
   }
 
   /**
@@ -2,6 +2,7 @@ package clients.customer;
 
 import catalogue.Basket;
 import catalogue.Product;
+import clients.ClientRuntime;
 import debug.DEBUG;
 import middle.MiddleFactory;
 import middle.OrderProcessing;
@@ -12,18 +13,23 @@ import javax.swing.*;
 import java.util.Observable;
 
 /**
- * Implements the Model of the customer client
+ * Implements the Model of the customer client.
+ * Checks are made on the client's worker thread, not the Swing
+ * event thread, the basket and picture are replaced as a whole
+ * when a check is done so the view never sees one half made.
  */
 public class CustomerModel extends Observable
 {
   private Product     theProduct = null;          // Current product
-  private Basket      theBasket  = null;          // Bought items
+  private volatile Basket theBasket = null;       // Bought items
 
   private String      pn = "";                    // Product being processed
 
   private StockReader     theStock     = null;
   private OrderProcessing theOrder     = null;
-  private ImageIcon       thePic       = null;
+  private volatile ImageIcon thePic    = null;
+
+  private ClientRuntime theRuntime = null;          // Made when first used
 
   /*
    * Construct the model of the Customer
@@ -41,6 +47,19 @@ public class CustomerModel extends Observable
     }
     theBasket = makeBasket();                    // Initial Basket
   }
+
+  /**
+   * Where the model does its work and tells its view, made when first
+   * used so the model is not handed to it before it is built
+   * @return the runtime of this client
+   */
+  private synchronized ClientRuntime runtime()
+  {
+    if ( theRuntime == null )
+      theRuntime = new ClientRuntime( "customer",
+                     arg -> { setChanged(); notifyObservers( arg ); } );
+    return theRuntime;
+  }
   
   /**
    * return the Basket of products
@@ -57,7 +76,17 @@ public class CustomerModel extends Observable
    */
   public void doCheck(String productNum )
   {
-    theBasket.clear();                          // Clear s. list
+    runtime().execute( () -> check( productNum ) );
+  }
+
+  /**
+   * Check on the worker thread
+   * @param productNum The product number
+   */
+  private void check(String productNum )
+  {
+    Basket    basket = makeBasket();              // New s. list
+    ImageIcon pic    = null;
     String theAction = "";
     pn  = productNum.trim();                    // Product no.
     int    amount  = 1;                         //  & quantity
@@ -74,8 +103,8 @@ public class CustomerModel extends Observable
               pr.getPrice(),                    //    price
               pr.getQuantity() );               //    quantity
           pr.setQuantity( amount );             //   Require 1
-          theBasket.add( pr );                  //   Add to basket
-          thePic = theStock.getImage( pn );     //    product
+          basket.add( pr );                     //   Add to basket
+          pic = theStock.getImage( pn );        //    product
         } else {                                //  F
           theAction =                           //   Inform
             pr.getDescription() +               //    product not
@@ -90,7 +119,9 @@ public class CustomerModel extends Observable
       DEBUG.error("CustomerClient.doCheck()\n%s",
       e.getMessage() );
     }
-    setChanged(); notifyObservers(theAction);
+    theBasket = basket;                         // Show result
+    thePic    = pic;
+    runtime().notifyView(theAction);
   }
 
   /**
@@ -98,11 +129,12 @@ public class CustomerModel extends Observable
    */
   public void doClear()
   {
-    String theAction = "";
-    theBasket.clear();                        // Clear s. list
-    theAction = "Enter Product Number";       // Set display
-    thePic = null;                            // No picture
-    setChanged(); notifyObservers(theAction);
+    runtime().execute( () ->                  // After any check
+    {
+      theBasket = makeBasket();               // Clear s. list
+      thePic = null;                          // No picture
+      runtime().notifyView("Enter Product Number");  // Set display
+    } );
   }
   
   /**
@@ -119,7 +151,7 @@ public class CustomerModel extends Observable
    */
   private void askForUpdate()
   {
-    setChanged(); notifyObservers("START only"); // Notify
+    runtime().notifyView("START only");      // Notify
   }
 
   /**
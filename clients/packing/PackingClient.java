@@ -44,6 +44,7 @@ public class PackingClient
     view.setController( cont );
 
     model.addObserver( view );       // Add observer to the model
+    model.start();                   // Look for orders to pack
     window.setVisible(true);         // Display Screen
   }
 }
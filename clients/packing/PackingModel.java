@@ -2,30 +2,59 @@ package clients.packing;
 
 
 import catalogue.Basket;
+import clients.ClientRuntime;
 import debug.DEBUG;
 import middle.MiddleFactory;
 import middle.OrderException;
 import middle.OrderProcessing;
+import middle.OrderReportPage;
 import middle.StockReadWriter;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Observable;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Implements the Model of the warehouse packing client
+ * Implements the Model of the warehouse packing client.
+ * Orders are leased to this packer, the leases are renewed while
+ * the client runs so an order held by a packer that has died is
+ * given to another packer once its lease runs out.  An order whose
+ * lease has been lost is dropped, only the packer holding the lease
+ * can say an order is packed.
+ * Up to PREFETCH orders are held so the next order is ready as
+ * soon as one is packed.
+ * Packing and the report are done on the client's worker thread, the
+ * view is only ever updated on the Swing event thread.
+ * While there is no order to pack the number of orders in each state
+ * is shown, asking the order system for the counts only.
  */
 public class PackingModel extends Observable
 {
   private AtomicReference<Basket> theBasket = new AtomicReference<>(); 
+  private Queue<Basket>           thePrefetched = new ConcurrentLinkedQueue<>();
 
   private StockReadWriter theStock   = null;
   private OrderProcessing theOrder   = null;
-  private String          theAction  = "";
-  
-  private StateOf         worker   = new StateOf();
+  private volatile String theAction  = "";
+
+  private final String    packerId = "packer-" + UUID.randomUUID();
+
+  private static final int  PREFETCH = 2;           // Orders held at once
+  private static final long LEASE_MS = 60000;       // Lease on an order
+  private static final long CHECK_MS = 2000;        // Between checks
+
+  private static final int REPORT_PAGE_SIZE = 50;   // Orders per page
 
-  private String currentReport = null;  // Add this field
-  private boolean isShowingReport = false;  // Add this field
+  private volatile String currentReport = null;
+  private volatile boolean isShowingReport = false;
+
+  private ClientRuntime theRuntime = null;          // Made when first used
 
   /*
    * Construct the model of the warehouse Packing client
@@ -43,42 +72,35 @@ public class PackingModel extends Observable
     }
 
     theBasket.set( null );                  // Initial Basket
-    // Start a background check to see when a new order can be packed
-    new Thread( () -> checkForNewOrder() ).start();
   }
-  
-  
+
   /**
-   * Semaphore used to only allow 1 order
-   * to be packed at once by this person
+   * Start the background check to see when a new order can be packed,
+   * on a virtual thread, which does not keep the client running
    */
-  class StateOf
+  public void start()
   {
-    private boolean held = false;
-    
-    /**
-     * Claim exclusive access
-     * @return true if claimed else false
-     */
-    public synchronized boolean claim()   // Semaphore
-    {
-      return held ? false : (held = true);
-    }
-    
-    /**
-     * Free the lock
-     */
-    public synchronized void free()     //
-    {
-      assert held;
-      held = false;
-    }
+    Thread.ofVirtual().name( "packing-orders" ).start( this::checkForNewOrder );
+  }
 
+  /**
+   * Where the model does its work and tells its view, made when first
+   * used so the model is not handed to it before it is built
+   * @return the runtime of this client
+   */
+  private synchronized ClientRuntime runtime()
+  {
+    if ( theRuntime == null )
+      theRuntime = new ClientRuntime( "packing",
+                     arg -> { setChanged(); notifyObservers( arg ); } );
+    return theRuntime;
   }
   
+  
   /**
-   * Method run in a separate thread to check if there
-   * is a new order waiting to be packed and we have
+   * Method run in a separate thread to keep the leases on
+   * the orders held alive, fetch more orders when fewer than
+   * PREFETCH are held and start packing one if we have
    * nothing to do.
    */
   private void checkForNewOrder()
@@ -87,22 +109,20 @@ public class PackingModel extends Observable
     {
       try
       {
-        boolean isFree = worker.claim();     // Are we free
-        if ( isFree && !isShowingReport )    // Only check for new orders if not showing report
+        int held = thePrefetched.size() + (theBasket.get() == null ? 0 : 1);
+        if ( held > 0 )
+          keepLeases();
+        if ( held < PREFETCH && !isShowingReport ) // Not while showing report
         {
-          Basket sb =
-                  theOrder.getOrderToPack();       //  Order
-          if ( sb != null )                  //  Order to pack
-          {                                  //  T
-            theBasket.set(sb);               //   Working on
-            theAction = "Bought Receipt";     //   what to do
-          } else {                           //  F
-            worker.free();                   //  Free
-            theAction = "";                  //
-          }
-          setChanged(); notifyObservers(theAction);
+          List<Basket> got =
+            theOrder.getOrdersToPack( packerId, PREFETCH - held, LEASE_MS );
+          thePrefetched.addAll( got );
         }
-        Thread.sleep(2000);                  // idle
+        if ( nextOrder() )                   // Started on one
+          runtime().notifyView(theAction);
+        else if ( theBasket.get() == null && !isShowingReport )
+          showCounts();                      // Nothing to pack
+        Thread.sleep( CHECK_MS );            // idle
       } catch ( Exception e )
       {
         DEBUG.error("%s\n%s",                // Eek!
@@ -112,7 +132,59 @@ public class PackingModel extends Observable
     }
   }
 
+  /**
+   * Renew the leases on the orders held, dropping each order
+   * whose lease has been lost
+   */
+  private void keepLeases() throws OrderException
+  {
+    Set<Integer> kept = new HashSet<>();
+    List<Integer> mine = new ArrayList<>();          // Orders still held
+    for ( Basket b : thePrefetched ) mine.add( b.getOrderNum() );
+    Basket packing = theBasket.get();
+    if ( packing != null ) mine.add( packing.getOrderNum() );
+    int[] nums = mine.stream().mapToInt( Integer::intValue ).toArray();
+    for ( int no : theOrder.renewLeases( packerId, nums, LEASE_MS ) ) kept.add( no );
+    thePrefetched.removeIf( b -> !kept.contains( b.getOrderNum() ) );
+    packing = theBasket.get();
+    if ( packing != null && !kept.contains( packing.getOrderNum() ) &&
+         theBasket.compareAndSet( packing, null ) )
+    {
+      theAction = "Lease lost on order " + packing.getOrderNum();
+      runtime().notifyView(theAction);
+    }
+  }
 
+  /**
+   * If not packing an order start on the next one held
+   * @return true if a new order is now being packed
+   */
+  private boolean nextOrder()
+  {
+    Basket next = thePrefetched.peek();
+    if ( next == null || isShowingReport ) return false;
+    if ( !theBasket.compareAndSet( null, next ) ) return false;
+    thePrefetched.remove( next );
+    theAction = "Bought Receipt";
+    return true;
+  }
+
+
+
+  /**
+   * Show how many orders are in each state, if that has changed
+   */
+  private void showCounts() throws OrderException
+  {
+    int[]  counts = theOrder.getOrderStateCounts();
+    String action = String.format( "Waiting %d, packing %d, to collect %d",
+                                   counts[0], counts[1], counts[2] );
+    if ( !action.equals( theAction ) )
+    {
+      theAction = action;
+      runtime().notifyView(theAction);
+    }
+  }
 
   /**
    * Return the Basket of products that are to be picked
@@ -127,58 +199,78 @@ public class PackingModel extends Observable
    * Process a packed Order
    */
   public void doPacked()
+  {
+    runtime().execute( () -> packed() );
+  }
+
+  /**
+   * Process a packed Order on the worker thread.
+   * If the order system can not be told the order is kept to be
+   * packed again; if the lease on it has been lost it is dropped.
+   */
+  private void packed()
   {
     String theAction = "";
-    try
+    Basket basket =  theBasket.getAndSet( null ); // Basket packed
+    if ( basket != null )                     // T
     {
-      Basket basket =  theBasket.get();       // Basket being packed
-      if ( basket != null )                   // T
+      int no = basket.getOrderNum();          //  Order no
+      try
       {
-        theBasket.set( null );                //  packed
-        int no = basket.getOrderNum();        //  Order no
-        theOrder.informOrderPacked( no );     //  Tell system
-        theAction = "";                       //  Inform picker
-        worker.free();                        //  Can pack some more
-      } else {                                // F 
-        theAction = "No order";       //   Not packed order
+        if ( theOrder.informOrderPacked( no, packerId ) ) // Tell system
+          theAction = "";                     //  Inform picker
+        else                                  //  Not ours now
+          theAction = "Lease lost on order " + no;
+        nextOrder();                          //  Pack the next one
       }
-      setChanged(); notifyObservers(theAction);
-    }
-    catch ( OrderException e )                // Error
-    {                                         //  Of course
-      DEBUG.error( "ReceiptModel.doOk()\n%s\n",//  should not
-                            e.getMessage() ); //  happen
+      catch ( OrderException e )              // Error
+      {
+        DEBUG.trace( "PackingModel.packed()\n%s", e.getMessage() );
+        theBasket.compareAndSet( null, basket ); //  Keep it
+        theAction = "Not packed, try again";
+      }
+    } else {                                  // F
+      theAction = "No order";                 //   Not packed order
     }
-    setChanged(); notifyObservers(theAction);
+    runtime().notifyView(theAction);
   }
 
+  /**
+   * Fetch the orders report a page at a time on the worker thread,
+   * showing each page as it arrives
+   */
   public void doReport()
   {
-    try {
-      // Get the report from OrderProcessing
-      String report = theOrder.generateOrderReport();
-      setReport(report);
-      setChanged();
-      notifyObservers(report);
-    } catch (Exception e) {
-      DEBUG.error("PackingController.doReport(): %s", e.getMessage());
-    }
+    setReport("");
+    runtime().execute( () -> {
+      try {
+        StringBuilder report = new StringBuilder();
+        OrderReportPage page = null;
+        do {
+          page = theOrder.getOrderReportPage(page, REPORT_PAGE_SIZE);
+          report.append(page.getText());
+          if (!isShowingReport) return;       // Report cleared
+          currentReport = report.toString();
+          runtime().notifyView(currentReport);
+        } while (!page.isLast());
+      } catch (Exception e) {
+        DEBUG.error("PackingController.doReport(): %s", e.getMessage());
+      }
+    } );
   }
 
   public void setReport(String report) {
     currentReport = report;
     isShowingReport = true;
     theAction = "Showing Report";
-    setChanged();
-    notifyObservers(theAction);
+    runtime().notifyView(theAction);
   }
 
   public void clearReport() {
     currentReport = null;
     isShowingReport = false;
     theAction = "";
-    setChanged();
-    notifyObservers(theAction);
+    runtime().notifyView(theAction);
   }
 
   public String getCurrentReport() {
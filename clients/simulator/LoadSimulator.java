@@ -0,0 +1,407 @@
+package clients.simulator;
+
+import catalogue.Basket;
+import catalogue.Product;
+import debug.DEBUG;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import metrics.Timer;
+import middle.LocalMiddleFactory;
+import middle.MiddleFactory;
+import middle.Names;
+import middle.OrderProcessing;
+import middle.RemoteMiddleFactory;
+import middle.StockReadWriter;
+import middle.StockReader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator for the middle tier.
+ * Follows the same calls as the clients, without the Swing views:
+ * <PRE>
+ * Customer  looks up a product (exists, getDetails)
+ * Cashier   takes an order number, checks each item of a basket and
+ *           holds its stock (reserveStock), then buys the stock held
+ *           (commitReservation) and places the order (newOrder)
+ * Packer    takes orders to pack, packs them and has them collected
+ * </PRE>
+ * Customers and cashiers arrive at random (a Poisson process) at the
+ * rates given, each arrival runs on its own virtual thread.
+ * Latency is measured from when the arrival was due, not from when
+ * it started, so a slow middle tier is not hidden by arrivals waiting
+ * to start.  Basket sizes are geometric with the mean given.
+ * With -tills n the cashiers are instead n tills, each on its own
+ * virtual thread serving one basket after another with a random
+ * think time of up to -think ms between, so the load is as much as
+ * the middle tier can take from that many tills.
+ * If a product has sold out the cashier restocks it.
+ * <PRE>
+ *  LoadSimulator [-remote] [-seconds n] [-cashiers per-second]
+ *                [-customers per-second] [-packers n]
+ *                [-basket mean] [-maxBasket n]
+ *                [-tills n] [-think ms]
+ * </PRE>
+ * Run locally with -Dcatshop.db.profile=memory to use the sample
+ * stock in memory, leaving catshop.db as it was.  The number of
+ * database connections is set by -Dcatshop.db.pool=n.
+ * Run locally it also shows the waits for the product locks, which
+ * are shared by every stock object in the JVM, and for connections.
+ * @author  Mike Smith University of Brighton
+ * @version 1.3
+ */
+
+public class LoadSimulator
+{
+  private static final String[] PRODUCTS =
+    { "0001", "0002", "0003", "0004", "0005", "0006", "0007" };
+  private static final long LEASE_MS = 60000;
+  private static final long HOLD_MS  = 15 * 60 * 1000;  // As the cashier
+
+  private final StockReader     theBrowse;
+  private final StockReadWriter theStock;
+  private final OrderProcessing theOrder;
+
+  private final double basketMean;
+  private final int    maxBasket;
+
+  private final Map<String,LatencyHistogram> latency = new LinkedHashMap<>();
+  private final LongAdder     errors = new LongAdder();
+  private final AtomicBoolean stop   = new AtomicBoolean( false );
+
+  public LoadSimulator( MiddleFactory mf, double basketMean, int maxBasket )
+         throws Exception
+  {
+    theBrowse = mf.makeStockReader();
+    theStock  = mf.makeStockReadWriter();
+    theOrder  = mf.makeOrderProcessing();
+    this.basketMean = basketMean;
+    this.maxBasket  = maxBasket;
+    for ( String name : new String[] { "customer", "cashier", "pack",
+                                       "uniqueNumber", "exists", "getDetails",
+                                       "reserveStock", "commitReservation",
+                                       "newOrder", "getOrdersToPack",
+                                       "informOrderPacked" } )
+      latency.put( name, new LatencyHistogram() );
+  }
+
+  public static void main( String[] args ) throws Exception
+  {
+    boolean remote    = false;
+    int     seconds   = 30;
+    double  cashiers  = 50;                        // Arrivals per second
+    double  customers = 200;
+    int     packers   = 4;
+    double  basket    = 3;
+    int     maxBasket = 20;
+    int     tills     = 0;                         // Else arrivals
+    int     think     = 100;
+    for ( int i = 0; i < args.length; i++ )
+    {
+      switch ( args[i] )
+      {
+        case "-remote"    : remote    = true; break;
+        case "-seconds"   : seconds   = Integer.parseInt( args[++i] ); break;
+        case "-cashiers"  : cashiers  = Double.parseDouble( args[++i] ); break;
+        case "-customers" : customers = Double.parseDouble( args[++i] ); break;
+        case "-packers"   : packers   = Integer.parseInt( args[++i] ); break;
+        case "-basket"    : basket    = Double.parseDouble( args[++i] ); break;
+        case "-maxBasket" : maxBasket = Integer.parseInt( args[++i] ); break;
+        case "-tills"     : tills     = Integer.parseInt( args[++i] ); break;
+        case "-think"     : think     = Integer.parseInt( args[++i] ); break;
+        default :
+          System.out.println( "Unknown option " + args[i] );
+          return;
+      }
+    }
+
+    MiddleFactory mf;
+    if ( remote )
+    {
+      RemoteMiddleFactory rmf = new RemoteMiddleFactory();
+      rmf.setStockRInfo( Names.STOCK_R );
+      rmf.setStockRWInfo( Names.STOCK_RW );
+      rmf.setOrderInfo( Names.ORDER );
+      mf = rmf;
+    } else {
+      mf = new LocalMiddleFactory();
+    }
+
+    System.out.printf( "LoadSimulator %s: %ds, %s, %.0f customers/s, " +
+                       "%d packers, basket mean %.1f%n",
+                       remote ? "remote" : "local", seconds,
+                       tills > 0 ? String.format( "%d tills think %dms", tills, think )
+                                 : String.format( "%.0f cashiers/s", cashiers ),
+                       customers, packers, basket );
+    LoadSimulator sim = new LoadSimulator( mf, basket, maxBasket );
+    sim.run( seconds, tills > 0 ? 0 : cashiers, customers, packers,
+             tills, think );
+    sim.report( seconds );
+    if ( !remote )
+    {
+      waits( "stock.lock.wait" );
+      waits( "db.pool.wait" );
+    }
+    System.exit( 0 );
+  }
+
+  /**
+   * Print the waits recorded by a timer of this JVM
+   */
+  private static void waits( String name )
+  {
+    Timer t = Metrics.timer( name );
+    System.out.printf( "%-16s waits %d  p50 %.2f  p99 %.2f  max %.2f ms%n",
+                       name, t.getCount(), t.getP50Ms(), t.getP99Ms(),
+                       t.getMaxMs() );
+  }
+
+  /**
+   * Run the simulation
+   * @param cashiers Cashier arrivals per second
+   * @param tills    Tills each serving baskets one after another
+   * @param think    Most time a till waits between baskets, ms
+   */
+  public void run( int seconds, double cashiers, double customers,
+                   int packers, int tills, int think )
+         throws InterruptedException
+  {
+    try ( ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor() )
+    {
+      threads.submit( () -> arrivals( threads, customers, this::customer ) );
+      threads.submit( () -> arrivals( threads, cashiers,  this::cashier ) );
+      for ( int t = 0; t < tills; t++ )
+        threads.submit( () -> till( think ) );
+      for ( int p = 0; p < packers; p++ )
+      {
+        String packerId = "sim-packer-" + p;
+        threads.submit( () -> packer( packerId ) );
+      }
+      TimeUnit.SECONDS.sleep( seconds );
+      stop.set( true );
+    }                                              // Waits for all
+  }
+
+  /**
+   * Work started at a due time, the time is passed to the work
+   */
+  private interface Arrival
+  {
+    void run( long due ) throws Exception;
+  }
+
+  /**
+   * Start work at random times, rate per second on average
+   */
+  private void arrivals( ExecutorService threads, double rate, Arrival work )
+  {
+    if ( rate <= 0 ) return;
+    long due = System.nanoTime();
+    while ( !stop.get() )
+    {
+      double gap = -Math.log( 1 - ThreadLocalRandom.current().nextDouble() ) / rate;
+      due += (long) (gap * 1e9);
+      long wait = due - System.nanoTime();
+      if ( wait > 0 ) pause( wait );
+      final long at = due;
+      threads.submit( () ->
+      {
+        try
+        {
+          work.run( at );
+        } catch ( Exception e )
+        {
+          errors.increment();
+          DEBUG.trace( "LoadSimulator: %s", e.getMessage() );
+        }
+      } );
+    }
+  }
+
+  private static void pause( long nanos )
+  {
+    try
+    {
+      TimeUnit.NANOSECONDS.sleep( nanos );
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void customer( long due ) throws Exception
+  {
+    String pNum = product();
+    if ( theBrowse.exists( pNum ) )
+      theBrowse.getDetails( pNum );
+    time( "customer", due );
+  }
+
+  /**
+   * A till serving one basket after another until stopped
+   */
+  private void till( int think )
+  {
+    while ( !stop.get() )
+    {
+      try
+      {
+        Thread.sleep( ThreadLocalRandom.current().nextInt( think + 1 ) );
+        cashier( System.nanoTime() );
+      } catch ( InterruptedException e )
+      {
+        return;
+      } catch ( Exception e )
+      {
+        errors.increment();
+        DEBUG.trace( "LoadSimulator: till %s", e.getMessage() );
+      }
+    }
+  }
+
+  /**
+   * One basket through the till, as CashierModel does it
+   */
+  private void cashier( long due ) throws Exception
+  {
+    long t = System.nanoTime();
+    int  orderNum = theOrder.uniqueNumber();
+    time( "uniqueNumber", t );
+    List<Product> items = new ArrayList<>();
+    List<String>  holds = new ArrayList<>();
+    try
+    {
+      int n = basketSize();
+      for ( int i = 0; i < n; i++ )
+      {
+        String pNum = product();
+        t = System.nanoTime();
+        if ( !theStock.exists( pNum ) ) continue;
+        t = time( "exists", t );
+        Product pr = theStock.getDetails( pNum );
+        t = time( "getDetails", t );
+        String hold = null;
+        if ( pr.getQuantity() >= 1 )
+        {
+          hold = theStock.reserveStock( pNum, 1, HOLD_MS );
+          time( "reserveStock", t );
+        }
+        if ( hold == null )
+        {
+          theStock.addStock( pNum, 100 );          // Sold out, restock
+          continue;
+        }
+        pr.setQuantity( 1 );
+        items.add( pr );
+        holds.add( hold );
+      }
+
+      Basket paid = new Basket();                  // Customer pays
+      paid.setOrderNum( orderNum );
+      while ( !holds.isEmpty() )
+      {
+        t = System.nanoTime();
+        boolean bought = theStock.commitReservation( holds.get( 0 ) );
+        time( "commitReservation", t );
+        holds.remove( 0 );
+        Product pr = items.remove( 0 );
+        if ( bought ) paid.add( pr );
+      }
+      if ( !paid.isEmpty() )
+      {
+        t = System.nanoTime();
+        theOrder.newOrder( paid );
+        time( "newOrder", t );
+      }
+    } finally
+    {
+      for ( String hold : holds )                  // Not bought
+        theStock.releaseReservation( hold );
+    }
+    time( "cashier", due );
+  }
+
+  private void packer( String packerId )
+  {
+    while ( !stop.get() )
+    {
+      try
+      {
+        long t = System.nanoTime();
+        List<Basket> orders = theOrder.getOrdersToPack( packerId, 2, LEASE_MS );
+        time( "getOrdersToPack", t );
+        if ( orders.isEmpty() )
+        {
+          TimeUnit.MILLISECONDS.sleep( 50 );
+          continue;
+        }
+        for ( Basket b : orders )
+        {
+          long start = System.nanoTime();
+          theOrder.informOrderPacked( b.getOrderNum(), packerId );
+          time( "informOrderPacked", start );
+          theOrder.informOrderCollected( b.getOrderNum() );
+          time( "pack", start );
+        }
+      } catch ( InterruptedException e )
+      {
+        return;
+      } catch ( Exception e )
+      {
+        errors.increment();
+        DEBUG.trace( "LoadSimulator: packer %s", e.getMessage() );
+      }
+    }
+  }
+
+  /**
+   * Record the time since start
+   * @return the time now
+   */
+  private long time( String name, long start )
+  {
+    long now = System.nanoTime();
+    latency.get( name ).record( now - start );
+    return now;
+  }
+
+  private static String product()
+  {
+    return PRODUCTS[ ThreadLocalRandom.current().nextInt( PRODUCTS.length ) ];
+  }
+
+  /**
+   * A basket size, geometric with mean basketMean, 1 .. maxBasket
+   */
+  private int basketSize()
+  {
+    double p = 1.0 / Math.max( 1.0, basketMean );
+    double u = 1 - ThreadLocalRandom.current().nextDouble();
+    int    n = 1 + (int) Math.floor( Math.log( u ) / Math.log( 1 - p ) );
+    return p >= 1.0 ? 1 : Math.min( n, maxBasket );
+  }
+
+  /**
+   * Print the throughput and latency of each flow and call
+   */
+  public void report( int seconds )
+  {
+    System.out.printf( "%-18s %9s  %s%n", "", "per sec", "latency" );
+    for ( Map.Entry<String,LatencyHistogram> e : latency.entrySet() )
+    {
+      LatencyHistogram h = e.getValue();
+      System.out.printf( "%-18s %9.1f  %s%n", e.getKey(),
+                         (double) h.getCount() / seconds, h.summary() );
+    }
+    System.out.printf( "errors %d%n", errors.sum() );
+  }
+}
@@ -0,0 +1,266 @@
+package config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The settings of the Catshop, read once when first asked for.
+ * A setting has a key such as db.pool, and is looked for in turn
+ * <PRE>
+ * system property    -Dcatshop.db.pool=16
+ * environment        CATSHOP_DB_POOL=16
+ * settings file      db.pool=16         (catshop.properties)
+ * DataBase.txt       the database type only, as before
+ * </PRE>
+ * then the default of the profile (db.profile), then the default.
+ * <PRE>
+ * disk         catshop.db with Derby's own settings (the default)
+ * production   catshop.db, more pages cached, a larger log buffer
+ *               and more compiled statements kept
+ * memory       a database held in memory, filled with the sample
+ *               stock when opened and dropped when closed, commits
+ *               not synced to disk, the change log held in memory
+ *               too: for tests and benchmarks
+ * </PRE>
+ * The settings file is catshop.properties in the working directory,
+ * or the file named by the system property catshop.config.
+ * The Derby settings (derby.*) are passed to Derby as system
+ * properties before it starts, unless already set.
+ * A setting that is not a number where one is wanted is reported
+ * and the default used.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+public class Config
+{
+  private static final String PREFIX = "catshop.";
+  private static final String FILE   = "catshop.properties";
+  private static final String LEGACY = "DataBase.txt";   // Database type
+
+  /** Derby settings passed on to Derby */
+  public static final String[] DERBY_KEYS =
+    { "derby.storage.pageCacheSize",                     // Pages cached
+      "derby.storage.logBufferSize",                     // Bytes of log
+      "derby.storage.pageSize",                          // Of new tables
+      "derby.system.durability",                         // test: no sync
+      "derby.language.statementCacheSize" };             // Per database
+
+  private static final Map<String,Properties> PROFILES = new HashMap<>();
+  static
+  {
+    profile( "disk" );
+    profile( "production",
+             "derby.storage.pageCacheSize",       "4000",  // 16Mb of 4K pages
+             "derby.storage.logBufferSize",       "65536",
+             "derby.language.statementCacheSize", "200" );
+    profile( "memory",
+             "db.url",                  "jdbc:derby:memory:catshop;create=true",
+             "derby.system.durability", "test",
+             "db.changeLog",            "memory" );
+  }
+
+  private static Config theConfig = null;
+
+  private final Properties file;                         // Settings file
+  private final String     source;                       // Where from
+  private final String     profile;                      // db.profile
+  private final Properties defaults;                     //  its settings
+
+  /**
+   * The settings of this JVM
+   * @return the settings
+   */
+  public static synchronized Config get()
+  {
+    if ( theConfig == null )
+    {
+      String name = System.getProperty( PREFIX + "config", FILE );
+      theConfig = new Config( Paths.get( name ) );
+    }
+    return theConfig;
+  }
+
+  private Config( Path path )
+  {
+    file = new Properties();
+    if ( Files.isReadable( path ) )
+    {
+      try ( Reader in = Files.newBufferedReader( path, StandardCharsets.UTF_8 ) )
+      {
+        file.load( in );
+      } catch ( IOException e )
+      {
+        System.out.println( "Config: can not read " + path + " " + e.getMessage() );
+      }
+      source = path.toString();
+    } else {
+      source = "defaults";
+    }
+    if ( file.getProperty( "db.type" ) == null )
+    {
+      String type = legacy( Paths.get( LEGACY ) );
+      if ( type != null ) file.setProperty( "db.type", type );
+    }
+    String name = getString( "db.profile", "disk" );
+    if ( !PROFILES.containsKey( name ) )
+    {
+      System.out.println( "Config: db.profile " + name + " not known, using disk" );
+      name = "disk";
+    }
+    profile  = name;
+    defaults = PROFILES.get( name );
+  }
+
+  private static void profile( String name, String... settings )
+  {
+    Properties p = new Properties();
+    for ( int i = 0; i + 1 < settings.length; i += 2 )
+      p.setProperty( settings[i], settings[i+1] );
+    PROFILES.put( name, p );
+  }
+
+  /**
+   * The database type of DataBase.txt, if there is one
+   */
+  private static String legacy( Path path )
+  {
+    try
+    {
+      if ( !Files.isReadable( path ) ) return null;
+      String type = Files.readString( path ).trim();
+      return type.isEmpty() ? null : type;
+    } catch ( IOException e )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Where the settings file was read from
+   * @return file name or "defaults"
+   */
+  public String getSource()
+  {
+    return source;
+  }
+
+  /**
+   * A setting as text
+   * @param key Key of the setting, for example db.pool
+   * @param def Default if not set
+   * @return the setting
+   */
+  public String getString( String key, String def )
+  {
+    String v = System.getProperty( PREFIX + key );
+    if ( v == null )
+      v = System.getenv( ( PREFIX + key ).toUpperCase( Locale.ROOT )
+                                         .replace( '.', '_' ) );
+    if ( v == null ) v = file.getProperty( key );
+    if ( v == null && defaults != null ) v = defaults.getProperty( key );
+    return v == null ? def : v.trim();
+  }
+
+  /**
+   * A setting as a whole number
+   * @param key Key of the setting
+   * @param def Default if not set or not a number
+   * @return the setting
+   */
+  public int getInt( String key, int def )
+  {
+    return (int) getLong( key, def );
+  }
+
+  /**
+   * A setting as a whole number
+   * @param key Key of the setting
+   * @param def Default if not set or not a number
+   * @return the setting
+   */
+  public long getLong( String key, long def )
+  {
+    String v = getString( key, null );
+    if ( v == null || v.isEmpty() ) return def;
+    try
+    {
+      return Long.parseLong( v );
+    } catch ( NumberFormatException e )
+    {
+      System.out.println( "Config: " + key + "=" + v + " not a number, using " + def );
+      return def;
+    }
+  }
+
+  /**
+   * A setting as true or false
+   * @param key Key of the setting
+   * @param def Default if not set
+   * @return the setting
+   */
+  public boolean getBoolean( String key, boolean def )
+  {
+    String v = getString( key, null );
+    return v == null || v.isEmpty() ? def : Boolean.parseBoolean( v );
+  }
+
+  // The settings used, with their defaults
+
+  /** @return Profile of the database settings: disk, production or memory */
+  public String dbProfile()       { return profile; }
+
+  /** @return Database type: Derby, DerbyCreate, Access or mySQL */
+  public String dbType()          { return getString( "db.type",       "Derby" ); }
+  /** @return JDBC URL of the Derby database */
+  public String dbUrl()           { return getString( "db.url",        "jdbc:derby:catshop.db" ); }
+  /** @return Connections in the pool */
+  public int    dbPoolSize()      { return getInt(    "db.pool",       8 ); }
+  /** @return Longest wait for a free connection in ms */
+  public long   dbPoolWaitMs()    { return getLong(   "db.pool.waitMs", 30000 ); }
+  /** @return File of the stock change log, memory, or null for next to the database */
+  public String dbChangeLog()     { return getString( "db.changeLog",  null ); }
+
+  /** @return Order processing system: Order, OrderX or OrderXC */
+  public String orders()          { return getString( "orders",        "Order" ); }
+
+  /** @return Replies kept by a server for requests sent again */
+  public int    replyCacheSize()  { return getInt(    "reply.cache.size",   100000 ); }
+  /** @return How long a reply is kept in ms */
+  public long   replyCacheKeepMs(){ return getLong(   "reply.cache.keepMs", 10 * 60 * 1000 ); }
+
+  /** @return Whether metrics are recorded */
+  public boolean metrics()        { return getBoolean( "metrics",      true ); }
+  /** @return Port metrics are served on, 0 for none */
+  public int    metricsPort()     { return getInt(    "metrics.port",  0 ); }
+
+  /** @return Host of the RMI registry of the servers */
+  public String rmiHost()         { return getString( "rmi.host",      "localhost" ); }
+  /** @return Port of the RMI registry of the servers, 0 for the default */
+  public int    rmiPort()         { return getInt(    "rmi.port",      0 ); }
+  /** @return Port of the RMI registry of the stock replica */
+  public int    rmiReplicaPort()  { return getInt(    "rmi.replica.port", 1098 ); }
+
+  /**
+   * The Derby settings given, to be set as system properties
+   * @return derby.* settings
+   */
+  public Properties derby()
+  {
+    Properties p = new Properties();
+    for ( String key : DERBY_KEYS )
+    {
+      String v = getString( key, null );
+      if ( v != null ) p.setProperty( key, v );
+    }
+    return p;
+  }
+}
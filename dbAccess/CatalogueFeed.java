@@ -0,0 +1,390 @@
+package dbAccess;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes catalogue feeds a record at a time, so a feed of
+ * any size can be streamed.  A record is a map of field name to value.
+ * <PRE>
+ * CSV          first line the field names, values may be quoted "..."
+ *              with "" for a quote, a quoted value may hold new lines
+ * JSON         an array of flat objects  [ {"productNo":"0001",...}, ...]
+ * JSON lines   one flat object a line    {"productNo":"0001",...}
+ * </PRE>
+ * The format is chosen by the file name, .csv, .json or .jsonl
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class CatalogueFeed
+{
+  /** Field names, as the columns of the database */
+  static final String[] FIELDS =
+    { "productNo", "description", "picture", "price", "stockLevel" };
+
+  private CatalogueFeed() {}
+
+  /**
+   * Reads the records of a feed in turn
+   */
+  interface RecordReader extends Closeable
+  {
+    /**
+     * @return the next record, null at the end of the feed
+     * @throws IOException if the feed can not be read or is not well formed
+     */
+    Map<String,String> next() throws IOException;
+  }
+
+  /**
+   * Writes records to a feed in turn
+   */
+  interface RecordWriter extends Closeable
+  {
+    void write( Map<String,String> record ) throws IOException;
+  }
+
+  static boolean isJson( Path file )
+  {
+    String name = file.getFileName().toString().toLowerCase();
+    return name.endsWith( ".json" ) || name.endsWith( ".jsonl" );
+  }
+
+  static RecordReader reader( Path file, BufferedReader in )
+  {
+    return isJson( file ) ? new JsonReader( in ) : new CsvReader( in );
+  }
+
+  static RecordWriter writer( Path file, Writer out )
+  {
+    String name = file.getFileName().toString().toLowerCase();
+    if ( name.endsWith( ".jsonl" ) ) return new JsonWriter( out, false );
+    if ( name.endsWith( ".json" ) )  return new JsonWriter( out, true );
+    return new CsvWriter( out );
+  }
+
+  /**
+   * CSV, the first line names the fields
+   */
+  private static final class CsvReader implements RecordReader
+  {
+    private final BufferedReader in;
+    private List<String>         names = null;
+
+    CsvReader( BufferedReader in )
+    {
+      this.in = in;
+    }
+
+    public Map<String,String> next() throws IOException
+    {
+      if ( names == null )
+      {
+        names = fields();
+        if ( names == null ) return null;           // Empty feed
+        for ( int i = 0; i < names.size(); i++ )
+          names.set( i, names.get( i ).trim() );
+      }
+      List<String> values;
+      do
+      {
+        values = fields();
+        if ( values == null ) return null;
+      } while ( values.size() == 1 && values.get( 0 ).isEmpty() ); // Blank
+      Map<String,String> res = new LinkedHashMap<>();
+      for ( int i = 0; i < names.size() && i < values.size(); i++ )
+        res.put( names.get( i ), values.get( i ) );
+      return res;
+    }
+
+    /**
+     * The fields of the next line, a quoted field may run on
+     * over several lines
+     */
+    private List<String> fields() throws IOException
+    {
+      String line = in.readLine();
+      if ( line == null ) return null;
+      List<String>  res    = new ArrayList<>();
+      StringBuilder field  = new StringBuilder();
+      boolean       quoted = false;
+      int           i      = 0;
+      while ( true )
+      {
+        if ( i == line.length() )
+        {
+          if ( !quoted ) break;
+          line = in.readLine();                     // Runs on
+          if ( line == null ) throw new IOException( "CSV: quote not closed" );
+          field.append( '\n' );
+          i = 0;
+          continue;
+        }
+        char c = line.charAt( i++ );
+        if ( quoted )
+        {
+          if ( c != '"' )                    field.append( c );
+          else if ( i < line.length() && line.charAt( i ) == '"' )
+          {
+            field.append( '"' ); i++;
+          }
+          else                               quoted = false;
+        } else if ( c == '"' )  quoted = true;
+        else if ( c == ',' )
+        {
+          res.add( field.toString() );
+          field.setLength( 0 );
+        }
+        else                    field.append( c );
+      }
+      res.add( field.toString() );
+      return res;
+    }
+
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * JSON, an array of flat objects or one object a line.
+   * Values may be strings, numbers, true, false or null.
+   */
+  private static final class JsonReader implements RecordReader
+  {
+    private final BufferedReader in;
+    private int                  ahead = -2;        // -2 none read
+
+    JsonReader( BufferedReader in )
+    {
+      this.in = in;
+    }
+
+    public Map<String,String> next() throws IOException
+    {
+      int c = skip();
+      while ( c == '[' || c == ',' )                // Between objects
+      {
+        read();
+        c = skip();
+      }
+      if ( c == ']' )
+      {
+        read();
+        c = skip();
+      }
+      if ( c == -1 ) return null;
+      expect( '{' );
+      Map<String,String> res = new LinkedHashMap<>();
+      if ( skip() == '}' ) { read(); return res; }
+      while ( true )
+      {
+        skip();
+        String name = string();
+        skip();
+        expect( ':' );
+        res.put( name, value() );
+        c = skip();
+        read();
+        if ( c == '}' ) return res;
+        if ( c != ',' ) throw new IOException( "JSON: , or } expected" );
+      }
+    }
+
+    private String value() throws IOException
+    {
+      int c = skip();
+      if ( c == '"' ) return string();
+      if ( c == '{' || c == '[' )
+        throw new IOException( "JSON: values must be simple" );
+      StringBuilder sb = new StringBuilder();
+      while ( c != -1 && c != ',' && c != '}' && !Character.isWhitespace( c ) )
+      {
+        sb.append( (char) read() );
+        c = peek();
+      }
+      String v = sb.toString();
+      return v.equals( "null" ) ? null : v;
+    }
+
+    private String string() throws IOException
+    {
+      expect( '"' );
+      StringBuilder sb = new StringBuilder();
+      while ( true )
+      {
+        int c = read();
+        if ( c == -1 ) throw new IOException( "JSON: string not closed" );
+        if ( c == '"' ) return sb.toString();
+        if ( c != '\\' ) { sb.append( (char) c ); continue; }
+        c = read();
+        switch ( c )
+        {
+          case 'n' : sb.append( '\n' ); break;
+          case 't' : sb.append( '\t' ); break;
+          case 'r' : sb.append( '\r' ); break;
+          case 'b' : sb.append( '\b' ); break;
+          case 'f' : sb.append( '\f' ); break;
+          case 'u' :
+            char[] hex = new char[4];
+            for ( int i = 0; i < 4; i++ ) hex[i] = (char) read();
+            sb.append( (char) Integer.parseInt( new String( hex ), 16 ) );
+            break;
+          default  : sb.append( (char) c );          // " \ /
+        }
+      }
+    }
+
+    private void expect( char want ) throws IOException
+    {
+      int c = read();
+      if ( c != want )
+        throw new IOException( "JSON: " + want + " expected" );
+    }
+
+    /** Skip white space, return the next character without reading it */
+    private int skip() throws IOException
+    {
+      int c = peek();
+      while ( c != -1 && Character.isWhitespace( c ) )
+      {
+        read();
+        c = peek();
+      }
+      return c;
+    }
+
+    private int peek() throws IOException
+    {
+      if ( ahead == -2 ) ahead = in.read();
+      return ahead;
+    }
+
+    private int read() throws IOException
+    {
+      int c = peek();
+      ahead = -2;
+      return c;
+    }
+
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * CSV, the field names then one line a record
+   */
+  private static final class CsvWriter implements RecordWriter
+  {
+    private final Writer out;
+    private boolean      first = true;
+
+    CsvWriter( Writer out )
+    {
+      this.out = out;
+    }
+
+    public void write( Map<String,String> record ) throws IOException
+    {
+      if ( first )
+      {
+        line( new ArrayList<>( record.keySet() ) );
+        first = false;
+      }
+      line( new ArrayList<>( record.values() ) );
+    }
+
+    private void line( List<String> values ) throws IOException
+    {
+      for ( int i = 0; i < values.size(); i++ )
+      {
+        if ( i > 0 ) out.write( ',' );
+        String v = values.get( i ) == null ? "" : values.get( i );
+        if ( v.indexOf( ',' ) >= 0 || v.indexOf( '"' ) >= 0 ||
+             v.indexOf( '\n' ) >= 0 )
+          v = '"' + v.replace( "\"", "\"\"" ) + '"';
+        out.write( v );
+      }
+      out.write( '\n' );
+    }
+
+    public void close() throws IOException
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * JSON, as an array or one object a line
+   */
+  private static final class JsonWriter implements RecordWriter
+  {
+    private final Writer  out;
+    private final boolean array;
+    private boolean       first = true;
+
+    JsonWriter( Writer out, boolean array )
+    {
+      this.out   = out;
+      this.array = array;
+    }
+
+    public void write( Map<String,String> record ) throws IOException
+    {
+      if ( array ) out.write( first ? "[\n" : ",\n" );
+      first = false;
+      out.write( '{' );
+      boolean firstField = true;
+      for ( Map.Entry<String,String> e : record.entrySet() )
+      {
+        if ( !firstField ) out.write( ',' );
+        firstField = false;
+        out.write( quote( e.getKey() ) );
+        out.write( ':' );
+        String v = e.getValue();
+        boolean number = e.getKey().equals( "price" ) ||
+                         e.getKey().equals( "stockLevel" );
+        out.write( v == null ? "null" : number ? v : quote( v ) );
+      }
+      out.write( '}' );
+      if ( !array ) out.write( '\n' );
+    }
+
+    private static String quote( String s )
+    {
+      StringBuilder sb = new StringBuilder( "\"" );
+      for ( char c : s.toCharArray() )
+      {
+        switch ( c )
+        {
+          case '"'  : sb.append( "\\\"" ); break;
+          case '\\' : sb.append( "\\\\" ); break;
+          case '\n' : sb.append( "\\n" );  break;
+          case '\r' : sb.append( "\\r" );  break;
+          case '\t' : sb.append( "\\t" );  break;
+          default   :
+            if ( c < ' ' ) sb.append( String.format( "\\u%04x", (int) c ) );
+            else           sb.append( c );
+        }
+      }
+      return sb.append( '"' ).toString();
+    }
+
+    public void close() throws IOException
+    {
+      if ( array ) out.write( first ? "[]\n" : "\n]\n" );
+      out.close();
+    }
+  }
+}
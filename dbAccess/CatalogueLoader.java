@@ -0,0 +1,432 @@
+package dbAccess;
+
+import catalogue.Product;
+import debug.DEBUG;
+import middle.StockChange;
+import middle.StockException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Loads a catalogue feed into the stock list in bulk, and writes
+ * the stock list out as a feed.
+ * The feed is read a chunk of CHUNK records at a time, the records
+ * of a chunk are checked in parallel, then added or updated with
+ * batched statements and one commit for the chunk.
+ * After each commit the number of records done is written to a
+ * checkpoint file, feed.ckpt, so a load that stops part way can be
+ * started again and carry on from the last chunk committed.
+ * Each product loaded is recorded in the stock change log and the
+ * description index, so replicas and caches pick up the new stock
+ * list (a replica that falls too far behind reloads a snapshot).
+ * The products of a chunk are locked (see StockRW) while it is written
+ * and logged, so no sale of them comes between the two.
+ * Records that fail the checks are reported and skipped.
+ * <PRE>
+ *  CatalogueLoader import feed [-restart]
+ *  CatalogueLoader export feed
+ * </PRE>
+ * The feed is CSV, JSON or JSON lines, chosen by its name (.csv,
+ * .json, .jsonl), the fields are productNo, description, picture
+ * (may be left out), price and stockLevel.
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+public class CatalogueLoader
+{
+  private static final int CHUNK    = 1000;         // Records a commit
+  private static final int PNUM_MAX = 4;            // Column sizes
+  private static final int DESC_MAX = 40;
+  private static final int PIC_MAX  = 80;
+
+  private final ConnectionPool thePool;
+  private final StockChangeLog theLog = StockChangeLog.getInstance();
+
+  private long loaded   = 0;                        // This run
+  private long rejected = 0;
+
+  /**
+   * A record of the feed once checked
+   */
+  private static final class Row
+  {
+    final long    number;                           // In the feed
+    final Product product;
+    final String  picture;                          // null keep as is
+    final String  error;                            // null if OK
+
+    Row( long number, Product product, String picture, String error )
+    {
+      this.number  = number;
+      this.product = product;
+      this.picture = picture;
+      this.error   = error;
+    }
+  }
+
+  public CatalogueLoader() throws StockException
+  {
+    thePool = ConnectionPool.getInstance();
+  }
+
+  public static void main( String[] args ) throws Exception
+  {
+    if ( args.length < 2 )
+    {
+      System.out.println( "CatalogueLoader import|export feed [-restart]" );
+      return;
+    }
+    Path            feed   = Paths.get( args[1] );
+    CatalogueLoader loader = new CatalogueLoader();
+    long t = System.nanoTime();
+    switch ( args[0] )
+    {
+      case "import" :
+        boolean restart = args.length > 2 && args[2].equals( "-restart" );
+        loader.load( feed, restart );
+        System.out.printf( "Loaded %d, rejected %d",
+                           loader.getLoaded(), loader.getRejected() );
+        break;
+      case "export" :
+        System.out.printf( "Exported %d", loader.export( feed ) );
+        break;
+      default :
+        System.out.println( "Unknown " + args[0] );
+        return;
+    }
+    System.out.printf( " in %.1fs%n", (System.nanoTime() - t) / 1e9 );
+  }
+
+  public long getLoaded()   { return loaded; }
+  public long getRejected() { return rejected; }
+
+  /**
+   * Load a feed into the stock list
+   * @param feed The feed
+   * @param restart Start from the beginning, not the checkpoint
+   * @throws StockException if the feed can not be read or the
+   *         database can not be updated; the load may be run again
+   *         and carries on from the last chunk committed
+   */
+  public void load( Path feed, boolean restart ) throws StockException
+  {
+    Path ckpt = checkpointFor( feed );
+    long done = restart ? 0 : checkpoint( ckpt );
+    if ( done > 0 )
+      DEBUG.trace( "CatalogueLoader: %s carry on after record %d", feed, done );
+    try ( BufferedReader in = Files.newBufferedReader( feed, StandardCharsets.UTF_8 );
+          CatalogueFeed.RecordReader records = CatalogueFeed.reader( feed, in ) )
+    {
+      long number = 0;
+      List<Map<String,String>> chunk = new ArrayList<>( CHUNK );
+      Map<String,String> record;
+      while ( ( record = records.next() ) != null )
+      {
+        if ( ++number <= done ) continue;           // Already loaded
+        chunk.add( record );
+        if ( chunk.size() == CHUNK )
+        {
+          loadChunk( number - chunk.size() + 1, chunk );
+          chunk.clear();
+          checkpoint( ckpt, number );
+        }
+      }
+      if ( !chunk.isEmpty() )
+        loadChunk( number - chunk.size() + 1, chunk );
+      Files.deleteIfExists( ckpt );                 // All done
+    } catch ( IOException e )
+    {
+      throw new StockException( "Load " + feed + ": " + e.getMessage() );
+    }
+    DEBUG.trace( "CatalogueLoader: %s loaded %d rejected %d",
+                 feed, loaded, rejected );
+  }
+
+  /**
+   * Check the records of a chunk in parallel and write the good ones
+   * @param first Number in the feed of the first record
+   * @param chunk The records
+   */
+  private void loadChunk( long first, List<Map<String,String>> chunk )
+          throws StockException
+  {
+    List<Row> rows = IntStream.range( 0, chunk.size() ).parallel()
+                              .mapToObj( i -> check( first + i, chunk.get( i ) ) )
+                              .collect( Collectors.toList() );
+
+    Map<String,Row> good = new LinkedHashMap<>();   // Last one wins
+    for ( Row r : rows )
+    {
+      if ( r.error == null )
+      {
+        good.remove( r.product.getProductNum() );
+        good.put( r.product.getProductNum(), r );
+      } else {
+        rejected++;
+        DEBUG.error( "CatalogueLoader: record %d %s", r.number, r.error );
+      }
+    }
+    if ( good.isEmpty() ) return;
+    List<ReentrantLock> taken = StockRW.lockAll( good.keySet() );
+    try                                             // No sale between
+    {                                               //  write and log
+      try
+      {
+        thePool.call( con ->
+        {
+          con.setAutoCommit( false );
+          try
+          {
+            upsert( con, good.values() );
+            con.commit();
+            return null;
+          } catch ( SQLException e )
+          {
+            con.rollback();
+            throw e;
+          } finally
+          {
+            con.setAutoCommit( true );
+          }
+        } );
+      } catch ( SQLException e )
+      {
+        throw new StockException( "SQL load at record " + first + ": " +
+                                  e.getMessage() );
+      }
+      for ( Row r : good.values() )                 // Tell the consumers
+      {
+        Product pr  = r.product;
+        long    seq = theLog.append( StockChange.Kind.MODIFY, pr.getProductNum(),
+                                     pr.getDescription(), pr.getPrice(),
+                                     pr.getQuantity(), 0 );
+        StockR.indexChange( new StockChange( seq, StockChange.Kind.MODIFY,
+                                             pr.getProductNum(), pr.getDescription(),
+                                             pr.getPrice(), pr.getQuantity(), 0 ) );
+      }
+    } finally
+    {
+      StockRW.unlockAll( taken );
+    }
+    loaded += good.size();
+  }
+
+  /**
+   * Update the products that exist, then add the rest,
+   *  each as one batch of statements
+   */
+  private static void upsert( Connection con, Collection<Row> rows )
+          throws SQLException
+  {
+    List<Row> all = new ArrayList<>( rows );
+    int[] products, stock;
+    try ( PreparedStatement up = con.prepareStatement(
+            "update ProductTable set description = ?, " +
+            "  picture = coalesce( ?, picture ), price = ? " +
+            "  where productNo = ?" );
+          PreparedStatement upStock = con.prepareStatement(
+            "update StockTable set stockLevel = ?, version = version + 1" +
+            "  where productNo = ?" ) )
+    {
+      for ( Row r : all )
+      {
+        Product pr = r.product;
+        up.setString( 1, pr.getDescription() );
+        if ( r.picture == null ) up.setNull( 2, Types.VARCHAR );
+        else                     up.setString( 2, r.picture );
+        up.setDouble( 3, pr.getPrice() );
+        up.setString( 4, pr.getProductNum() );
+        up.addBatch();
+        upStock.setInt( 1, pr.getQuantity() );
+        upStock.setString( 2, pr.getProductNum() );
+        upStock.addBatch();
+      }
+      products = up.executeBatch();
+      stock    = upStock.executeBatch();
+    }
+    try ( PreparedStatement add = con.prepareStatement(
+            "insert into ProductTable ( productNo, description, picture, price )" +
+            "  values ( ?, ?, ?, ? )" );
+          PreparedStatement addStock = con.prepareStatement(
+            "insert into StockTable ( productNo, stockLevel, version )" +
+            "  values ( ?, ?, 1 )" ) )
+    {
+      boolean adds = false, addsStock = false;
+      for ( int i = 0; i < all.size(); i++ )
+      {
+        Product pr = all.get( i ).product;
+        if ( products[i] == 0 )                     // Not there
+        {
+          String pic = all.get( i ).picture;
+          add.setString( 1, pr.getProductNum() );
+          add.setString( 2, pr.getDescription() );
+          add.setString( 3, pic != null ? pic
+                                        : "images/Pic" + pr.getProductNum() + ".jpg" );
+          add.setDouble( 4, pr.getPrice() );
+          add.addBatch();
+          adds = true;
+        }
+        if ( stock[i] == 0 )
+        {
+          addStock.setString( 1, pr.getProductNum() );
+          addStock.setInt( 2, pr.getQuantity() );
+          addStock.addBatch();
+          addsStock = true;
+        }
+      }
+      if ( adds )      add.executeBatch();
+      if ( addsStock ) addStock.executeBatch();
+    }
+  }
+
+  /**
+   * Check a record of the feed
+   * @param number Number of the record in the feed
+   * @param record The record
+   * @return the row, with the reason if it is not fit to load
+   */
+  private static Row check( long number, Map<String,String> record )
+  {
+    String pNum  = field( record, "productNo" );
+    String desc  = field( record, "description" );
+    String pic   = field( record, "picture" );
+    String price = field( record, "price" );
+    String level = field( record, "stockLevel" );
+    if ( pNum == null || pNum.length() > PNUM_MAX )
+      return new Row( number, null, null, "productNo must be 1 to " + PNUM_MAX + " characters" );
+    if ( desc == null || desc.length() > DESC_MAX )
+      return new Row( number, null, null, pNum + " description must be 1 to " + DESC_MAX + " characters" );
+    if ( pic != null && pic.length() > PIC_MAX )
+      return new Row( number, null, null, pNum + " picture longer than " + PIC_MAX + " characters" );
+    double pr;
+    int    qty;
+    try
+    {
+      pr  = Double.parseDouble( price == null ? "" : price );
+      qty = Integer.parseInt( level == null ? "" : level );
+    } catch ( NumberFormatException e )
+    {
+      return new Row( number, null, null, pNum + " price or stockLevel not a number" );
+    }
+    if ( !( pr >= 0 ) || Double.isInfinite( pr ) )
+      return new Row( number, null, null, pNum + " price must be 0 or more" );
+    if ( qty < 0 )
+      return new Row( number, null, null, pNum + " stockLevel must be 0 or more" );
+    return new Row( number, new Product( pNum, desc, pr, qty ), pic, null );
+  }
+
+  /** A field trimmed, null if missing or empty */
+  private static String field( Map<String,String> record, String name )
+  {
+    String v = record.get( name );
+    if ( v == null ) return null;
+    v = v.trim();
+    return v.isEmpty() ? null : v;
+  }
+
+  /**
+   * Write the stock list to a feed, a row at a time as it is read
+   * @param feed The feed to write
+   * @return number of products written
+   * @throws StockException if the stock list can not be read or written
+   */
+  public long export( Path feed ) throws StockException
+  {
+    try ( Writer out = Files.newBufferedWriter( feed, StandardCharsets.UTF_8 );
+          CatalogueFeed.RecordWriter records = CatalogueFeed.writer( feed, out ) )
+    {
+      return thePool.call( con ->
+      {
+        long n = 0;
+        try ( Statement stmt = con.createStatement() )
+        {
+          stmt.setFetchSize( CHUNK );
+          try ( ResultSet rs = stmt.executeQuery(
+                  "select ProductTable.productNo, description, picture, " +
+                  "       price, stockLevel " +
+                  "  from ProductTable, StockTable " +
+                  "  where ProductTable.productNo = StockTable.productNo " +
+                  "  order by ProductTable.productNo" ) )
+          {
+            while ( rs.next() )
+            {
+              Map<String,String> record = new LinkedHashMap<>();
+              for ( String f : CatalogueFeed.FIELDS )
+              {
+                String v = rs.getString( f );
+                record.put( f, v == null ? null : v.trim() );
+              }
+              try
+              {
+                records.write( record );
+              } catch ( IOException e )
+              {
+                throw new SQLException( "Write: " + e.getMessage(), e );
+              }
+              n++;
+            }
+          }
+        }
+        return n;
+      } );
+    } catch ( IOException | SQLException e )
+    {
+      throw new StockException( "Export " + feed + ": " + e.getMessage() );
+    }
+  }
+
+  private static Path checkpointFor( Path feed )
+  {
+    return feed.resolveSibling( feed.getFileName() + ".ckpt" );
+  }
+
+  /**
+   * @return number of records done in an earlier run, 0 if none
+   */
+  private static long checkpoint( Path ckpt )
+  {
+    try
+    {
+      if ( Files.exists( ckpt ) )
+        return Long.parseLong( Files.readString( ckpt ).trim() );
+    } catch ( IOException | NumberFormatException e )
+    {
+      DEBUG.error( "CatalogueLoader: checkpoint %s\n%s", ckpt, e.getMessage() );
+    }
+    return 0;
+  }
+
+  /**
+   * Record the number of records done, replacing the file
+   *  in one step so it is never seen half written
+   */
+  private static void checkpoint( Path ckpt, long done ) throws IOException
+  {
+    Path tmp = ckpt.resolveSibling( ckpt.getFileName() + ".tmp" );
+    Files.writeString( tmp, Long.toString( done ) );
+    Files.move( tmp, ckpt, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+  }
+}
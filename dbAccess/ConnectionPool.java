@@ -0,0 +1,250 @@
+package dbAccess;
+
+import config.Config;
+import debug.DEBUG;
+import metrics.Gauge;
+import metrics.Metrics;
+import metrics.Timer;
+import middle.StockException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of connections to the database shared by all the
+ * stock objects in this JVM.
+ * However many clients there are, no more than the pool size of
+ * database calls are made at once, the rest wait for a connection.
+ * Waiting uses a semaphore rather than synchronized, so a virtual
+ * thread waiting for a connection does not hold on to its carrier.
+ * The size is the setting db.pool and the longest wait for a
+ * connection db.pool.waitMs (see config.Config).
+ * The time waiting for a connection (db.pool.wait, only when none is
+ * free) and the time the work holds it (db.sql) are timed.
+ * The connections can be opened ahead of use, see warm, and are
+ * closed by shutdown, after which getInstance makes a new pool.
+ * The gauges db.pool.size, db.pool.inUse and db.pool.waiting read the
+ * pool shared now, and are removed when it is shut down.
+ * @author  Mike Smith University of Brighton
+ * @version 1.6
+ */
+
+public class ConnectionPool
+{
+
+  private static ConnectionPool thePool = null;
+
+  private static final Timer T_WAIT = Metrics.timer( "db.pool.wait" );
+  private static final Timer T_SQL  = Metrics.timer( "db.sql" );
+
+  private final DBAccess              dbDriver;
+  private final Queue<Connection>     idle    = new ConcurrentLinkedQueue<>();
+  private final Semaphore             permits;
+  private final int                   size;
+  private final long                  waitMs;      // For a connection
+  private volatile boolean            closed  = false;
+  private final Gauge[]               gauges;
+
+  /**
+   * Work done with a connection
+   */
+  public interface Work<T>
+  {
+    T run( Connection con ) throws SQLException;
+  }
+
+  /**
+   * The pool shared by all the stock objects in this JVM
+   * @return the pool
+   * @throws StockException if the database driver can not be loaded
+   */
+  public static synchronized ConnectionPool getInstance()
+         throws StockException
+  {
+    if ( thePool == null )
+      thePool = new ConnectionPool( Config.get().dbPoolSize(),
+                                    Config.get().dbPoolWaitMs() );
+    return thePool;
+  }
+
+  /**
+   * Close the connections of the pool shared by all the stock objects
+   *  and stop the database engine.  Connections in use are closed when
+   *  given back.  Does nothing if there is no pool.
+   */
+  public static synchronized void shutdown()
+  {
+    ConnectionPool pool = thePool;
+    if ( pool == null ) return;
+    thePool     = null;
+    pool.closed = true;
+    Connection con;
+    while ( ( con = pool.idle.poll() ) != null ) close( con );
+    Metrics.remove( "db.pool.size",    pool.gauges[0] );
+    Metrics.remove( "db.pool.inUse",   pool.gauges[1] );
+    Metrics.remove( "db.pool.waiting", pool.gauges[2] );
+    pool.dbDriver.shutdown();
+    DEBUG.trace( "ConnectionPool: shut down" );
+  }
+
+  private ConnectionPool( int size, long waitMs ) throws StockException
+  {
+    try
+    {
+      dbDriver = (new DBAccessFactory()).getNewDBAccess();
+      dbDriver.loadDriver();
+    }
+    catch ( Exception e )
+    {
+      throw new StockException("Can not load database driver.");
+    }
+    this.size   = size;
+    this.waitMs = waitMs;
+    permits   = new Semaphore( size, true );
+    gauges    = new Gauge[] {
+      Metrics.gauge( "db.pool.size",    () -> size ),
+      Metrics.gauge( "db.pool.inUse",   () -> size - permits.availablePermits() ),
+      Metrics.gauge( "db.pool.waiting", permits::getQueueLength ) };
+    DEBUG.trace( "ConnectionPool: %d connections", size );
+  }
+
+  /**
+   * Is the database held in memory
+   * @return true if in memory
+   */
+  public boolean inMemory()
+  {
+    return dbDriver.inMemory();
+  }
+
+  /**
+   * Run work with a connection from the pool,
+   *  waiting for one to be free if need be
+   * @param work What to do with the connection
+   * @return the result of the work
+   * @throws SQLException if no connection or the work fails
+   */
+  public <T> T call( Work<T> work ) throws SQLException
+  {
+    Connection con   = take();
+    long       start = T_SQL.start();
+    try
+    {
+      return work.run( con );
+    } catch ( SQLException | RuntimeException e )
+    {
+      T_SQL.error();
+      throw e;
+    } finally
+    {
+      T_SQL.stop( start );
+      give( con );
+    }
+  }
+
+  private Connection take() throws SQLException
+  {
+    if ( closed ) throw new SQLException( "Database shut down" );
+    try
+    {
+      if ( !permits.tryAcquire( 0, TimeUnit.MILLISECONDS ) ) // None free
+      {
+        long    start = T_WAIT.start();
+        boolean got   = permits.tryAcquire( waitMs, TimeUnit.MILLISECONDS );
+        T_WAIT.stop( start );
+        if ( !got )
+        {
+          T_WAIT.error();
+          throw new SQLException( "No database connection free" );
+        }
+      }
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new SQLException( "Interrupted waiting for a database connection" );
+    }
+    try
+    {
+      Connection con = idle.poll();
+      if ( con == null || con.isClosed() ) con = open();
+      return con;
+    } catch ( SQLException e )
+    {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private Connection open() throws SQLException
+  {
+    Connection con = DriverManager.getConnection( dbDriver.urlOfDatabase(),
+                                                  dbDriver.username(),
+                                                  dbDriver.password() );
+    con.setAutoCommit( true );
+    return con;
+  }
+
+  /**
+   * Open the connections of the pool ahead of use, all at the same
+   *  time, and prepare the statements used most on each, so that
+   *  they are compiled before the first customer asks.
+   *  A connection that fails to open is left to be opened when used.
+   * @param sql Statements to prepare
+   * @return number of connections opened
+   */
+  public int warm( String... sql )
+  {
+    AtomicInteger opened = new AtomicInteger();
+    try ( ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor() )
+    {
+      for ( int i = idle.size(); i < size; i++ )
+        ex.submit( () ->
+        {
+          try
+          {
+            Connection con = open();
+            for ( String q : sql ) con.prepareStatement( q ).close();
+            idle.offer( con );
+            opened.incrementAndGet();
+          } catch ( SQLException e )
+          {
+            DEBUG.trace( "ConnectionPool: warm\n%s", e.getMessage() );
+          }
+        } );
+    }
+    DEBUG.trace( "ConnectionPool: %d connections opened", opened.get() );
+    return opened.get();
+  }
+
+  private void give( Connection con )
+  {
+    try
+    {
+      if ( closed )               close( con );
+      else if ( !con.isClosed() ) idle.offer( con );
+    } catch ( SQLException e )
+    {
+      DEBUG.trace( "ConnectionPool: dropped connection\n%s", e.getMessage() );
+    }
+    permits.release();
+  }
+
+  private static void close( Connection con )
+  {
+    try
+    {
+      con.close();
+    } catch ( SQLException e )
+    {
+      DEBUG.trace( "ConnectionPool: close\n%s", e.getMessage() );
+    }
+  }
+}
@@ -3,7 +3,7 @@ package dbAccess;
 /**
   * Implements generic management of a database.
   * @author  Mike Smith University of Brighton
-  * @version 2.0
+  * @version 2.2
   */
  
 /**
@@ -30,4 +30,21 @@ public class DBAccess
   {
     return "";
   }
+
+  /**
+   * Is the database held in memory, so gone when shut down
+   * @return true if in memory
+   */
+  public boolean inMemory()
+  {
+    return false;
+  }
+
+  /**
+   * Stop the database engine, if it runs in this JVM,
+   *  once all its connections are closed
+   */
+  public void shutdown()
+  {
+  }
 }
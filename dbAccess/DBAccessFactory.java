@@ -1,20 +1,18 @@
 /**
  * @author  Mike Smith University of Brighton
- * @version 3.0
+ * @version 3.2
  */
 
 package dbAccess;
 
+import config.Config;
 import debug.DEBUG;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-
 /**
   * Manages the starting up of the database.
   * The database may be Access, mySQL etc.
+  * The type of database is the setting db.type (see config.Config),
+  * which is still read from DataBase.txt if set nowhere else.
   */
 
 // Pattern: Abstract Factory
@@ -25,15 +23,19 @@ public class DBAccessFactory
   private static String theAction   = "";
   private static String theDataBase = "";
   private static String theOS       = "";
+  private static String theType     = null;          // db.type
 
-  public static void setAction( String name )
+  public static synchronized void setAction( String name )
   {
     theAction = name;
+    if ( theType != null ) theDataBase = theType + theAction;
   }
 
-  private static String setEnvironment()
+  private static synchronized String setEnvironment()
   {
-    theDataBase  = fileToString( "DataBase.txt" ) + theAction;
+    if ( theType != null ) return theOS;            // Already read
+    theType      = Config.get().dbType();
+    theDataBase  = theType + theAction;
     String os    = System.getProperties().getProperty( "os.name" );
     String arch  = System.getProperties().getProperty( "os.arch" );
     String osVer = System.getProperties().getProperty( "os.version" );
@@ -49,8 +51,13 @@ public class DBAccessFactory
   public DBAccess getNewDBAccess()
   {
     setEnvironment();
-    DEBUG.traceA("Using [%s] as database type\n", theDataBase );
-    switch ( theDataBase )
+    String dataBase;
+    synchronized ( DBAccessFactory.class )
+    {
+      dataBase = theDataBase;
+    }
+    DEBUG.traceA("Using [%s] as database type\n", dataBase );
+    switch ( dataBase )
     {
        case "Derby" :
          return new DerbyAccess();       // Derby
@@ -67,79 +74,9 @@ public class DBAccessFactory
          return new LinuxAccess();       // MySQL Linux
          
        default:
-         DEBUG.error("DataBase [%s] not known\n", theDataBase );
+         DEBUG.error("DataBase [%s] not known\n", dataBase );
          System.exit(0);
     }
     return new DBAccess();               // Unknown
   }
-  
-  /**
-   * return as a string the contents of a file
-   * stripping out newline and carriage returns from contents
-   * @param file File name
-   * @return contents of a file as a string
-   */
-  private static String fileToString( String file )
-  {
-    byte[] vec = fileToBytes( file );
-    return new String( vec ).replaceAll("\n","").replaceAll("\r","");
-  }
-
-  /**
-   * Return contents of file as a byte vector
-   * @param file File name
-   * @return contents as byte array
-   */
-  private static byte[] fileToBytes( String file )
-  {
-    byte[] vec = new byte[0];
-    try
-    {
-      final int len = (int) length( file );
-      if ( len < 1000 )
-      {
-        vec = new byte[ len ];
-        FileInputStream istream = new FileInputStream( file );
-          final int read = istream.read(vec, 0, len);
-          istream.close();
-        return vec;
-      } else {
-        DEBUG.error("File %s length %d bytes too long",
-                     file, len );
-      }
-    }
-    catch ( FileNotFoundException  err )
-    {
-      DEBUG.error("File does not exist: fileToBytes [%s]\n", file );
-      System.exit(0);
-    }
-    catch ( IOException err )
-    {
-      DEBUG.error("IO error: fileToBytes [%s]\n", file );
-      System.exit(0);
-    }
-    return vec;
-  }
-
-  /**
-   * return number of characters in file
-   * @param path File name
-   * @return Number of characters in file
-   */
-  private static long length( String path )
-  {
-    try
-    {
-      File in = new File( path );
-      return in.length();
-    }
-    catch (SecurityException err )
-    {
-      DEBUG.error("Security error: length of file [%s]\n", path);
-      System.exit(0);
-    }
-    return -1;
-  }
-
 }
-
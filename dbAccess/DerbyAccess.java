@@ -1,23 +1,37 @@
 package dbAccess;
 
+import config.Config;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
 /**
   * Apache Derby database access
+  * The URL of the database (db.url) and Derby's own settings
+  * (derby.*) are taken from the Catshop settings, see config.Config,
+  * by default those of the profile chosen (db.profile).
   * @author  Mike Smith University of Brighton
-  * @version 2.0
+  * @version 2.3
   */
  
 class DerbyAccess extends DBAccess
 {
-  private static final String URLdb =
-                 "jdbc:derby:catshop.db";
   private static final String DRIVER =
                  "org.apache.derby.jdbc.EmbeddedDriver";
 
+  private final String URLdb = Config.get().dbUrl();
+
   /**
-   * Load the Apache Derby database driver
+   * Load the Apache Derby database driver,
+   *  passing on the Derby settings before Derby starts
    */
   public void loadDriver() throws Exception
   {
+    Properties derby = Config.get().derby();
+    for ( String key : derby.stringPropertyNames() )
+      if ( System.getProperty( key ) == null )     // -D given wins
+        System.setProperty( key, derby.getProperty( key ) );
     Class.forName(DRIVER).newInstance();
   }
 
@@ -29,5 +43,32 @@ class DerbyAccess extends DBAccess
   {
     return URLdb;
   }
-}
 
+  /**
+   * Is the database held in memory
+   * @return true if a jdbc:derby:memory: database
+   */
+  public boolean inMemory()
+  {
+    return URLdb.startsWith( "jdbc:derby:memory:" );
+  }
+
+  /**
+   * Shut down the embedded database, so it is closed cleanly and
+   *  need not be recovered the next time it is opened.
+   *  A database in memory is dropped, so the next test starts afresh.
+   */
+  public void shutdown()
+  {
+    String db = URLdb.split( ";" )[0];         // Without attributes
+    try
+    {
+      DriverManager.getConnection( db + ( inMemory() ? ";drop=true"
+                                                     : ";shutdown=true" ) );
+    } catch ( SQLException e )                 // Always, 08006 if shut down
+    {
+      if ( !"08006".equals( e.getSQLState() ) )
+        System.out.println( "Derby shutdown: " + e.getMessage() );
+    }
+  }
+}
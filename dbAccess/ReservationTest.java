@@ -0,0 +1,83 @@
+package dbAccess;
+
+import config.Config;
+import middle.StockException;
+
+/**
+ * Checks of buying stock held for a customer, run against the sample
+ * stock held in memory so catshop.db is left as it was.
+ * <PRE>
+ *  java -Dcatshop.db.profile=memory dbAccess.ReservationTest
+ * </PRE>
+ * Holds are taken for TTL_MS so they run out while the test runs,
+ * both before and after the ledger has given their stock back.
+ * Exits with 1 if a check fails.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class ReservationTest
+{
+  private static final long TTL_MS  = 200;          // Hold, runs out
+  private static final long REAP_MS = 1500;         // Ledger has reaped
+
+  private static int failed = 0;
+
+  public static void main( String args[] ) throws Exception
+  {
+    if ( !"memory".equals( Config.get().dbProfile() ) )
+    {
+      System.out.println( "ReservationTest: run with -Dcatshop.db.profile=memory" );
+      System.exit( 1 );
+    }
+    StockRW stock = new StockRW();
+
+    int    level = level( stock, "0001" );
+    String hold  = stock.reserveStock( "0001", 1, TTL_MS );
+    check( "commit in time", stock.commitReservation( hold ) );
+    check( " bought one", level( stock, "0001" ) == level - 1 );
+    check( " commit again", !stock.commitReservation( hold ) );
+    check( " bought only once", level( stock, "0001" ) == level - 1 );
+
+    hold = stock.reserveStock( "0001", 1, TTL_MS );
+    Thread.sleep( TTL_MS * 2 );
+    check( "commit run out, stock free", stock.commitReservation( hold ) );
+    check( " bought one", level( stock, "0001" ) == level - 2 );
+
+    hold = stock.reserveStock( "0001", 1, TTL_MS );
+    Thread.sleep( REAP_MS );
+    stock.reserveStock( "0002", 1, TTL_MS );        // Ledger reaps
+    check( "commit run out and given back", stock.commitReservation( hold ) );
+    check( " bought one", level( stock, "0001" ) == level - 3 );
+
+    hold = stock.reserveStock( "0001", 1, TTL_MS );
+    Thread.sleep( TTL_MS * 2 );
+    stock.releaseReservation( hold );
+    check( "commit run out and released", !stock.commitReservation( hold ) );
+    check( " bought none", level( stock, "0001" ) == level - 3 );
+
+    int last = level( stock, "0007" );              // Only one left
+    hold = stock.reserveStock( "0007", last, TTL_MS );
+    Thread.sleep( REAP_MS );
+    String other = stock.reserveStock( "0007", last, TTL_MS * 100 );
+    check( "held by another after running out", other != null );
+    check( "commit run out, stock held", !stock.commitReservation( hold ) );
+    check( "other customer buys", stock.commitReservation( other ) );
+    check( " bought once", level( stock, "0007" ) == 0 );
+
+    System.out.printf( "ReservationTest: %s%n", failed == 0 ? "passed" : failed + " failed" );
+    StockR.close();
+    System.exit( failed == 0 ? 0 : 1 );
+  }
+
+  private static int level( StockRW stock, String pNum ) throws StockException
+  {
+    return stock.getDetails( pNum ).getQuantity();
+  }
+
+  private static void check( String what, boolean ok )
+  {
+    System.out.printf( "%-36s %s%n", what, ok ? "ok" : "FAILED" );
+    if ( !ok ) failed++;
+  }
+}
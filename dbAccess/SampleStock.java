@@ -0,0 +1,100 @@
+package dbAccess;
+
+import debug.DEBUG;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The tables of the stock list and the sample products put in them,
+ * used by clients.Setup to fill a database and to fill a database
+ * held in memory (profile memory, see config.Config) when it is
+ * first opened, so a test or benchmark starts from the same stock
+ * each time without touching catshop.db.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class SampleStock
+{
+  /** Tables dropped before they are made again */
+  public static final String[] DROP = {
+    "drop table ProductTable",
+    "drop table StockTable"
+  };
+
+  /** Make the tables and put in the sample products */
+  public static final String[] SQL = {
+    "create table ProductTable ("+
+        "productNo      Char(4)," +
+        "description    Varchar(40)," +
+        "picture        Varchar(80)," +
+        "price          Float)",
+
+    "insert into ProductTable values " +
+       "('0001', '40 inch LED HD TV', 'images/pic0001.jpg', 269.00)",
+    "insert into ProductTable values " +
+       "('0002', 'DAB Radio',         'images/pic0002.jpg', 29.99)",
+    "insert into ProductTable values " +
+       "('0003', 'Toaster',           'images/pic0003.jpg', 19.99)",
+    "insert into ProductTable values " +
+       "('0004', 'Watch',             'images/pic0004.jpg', 29.99)",
+    "insert into ProductTable values " +
+       "('0005', 'Digital Camera',    'images/pic0005.jpg', 89.99)",
+    "insert into ProductTable values " +
+       "('0006', 'MP3 player',        'images/pic0006.jpg', 7.99)",
+    "insert into ProductTable values " +
+       "('0007', '32Gb USB2 drive',   'images/pic0007.jpg', 6.99)",
+
+    "create table StockTable ("+
+        "productNo      Char(4)," +
+        "stockLevel     Integer," +
+        "version        Integer not null default 1)",
+    "create unique index StockTableNo on StockTable ( productNo )",
+
+    "insert into StockTable values ( '0001',  90, 1 )",
+    "insert into StockTable values ( '0002',  20, 1 )",
+    "insert into StockTable values ( '0003',  33, 1 )",
+    "insert into StockTable values ( '0004',  10, 1 )",
+    "insert into StockTable values ( '0005',  17, 1 )",
+    "insert into StockTable values ( '0006',  15, 1 )",
+    "insert into StockTable values ( '0007',  01, 1 )"
+  };
+
+  private SampleStock() {}
+
+  /**
+   * Fill the database with the sample stock if it has no stock list,
+   *  in one transaction
+   * @param pool Connections to the database
+   * @return true if filled, false if there was a stock list already
+   * @throws SQLException if it could not be filled
+   */
+  static boolean load( ConnectionPool pool ) throws SQLException
+  {
+    return pool.call( con ->
+    {
+      try ( Statement stmt = con.createStatement() )
+      {
+        if ( con.getMetaData()
+                .getTables( null, null, "PRODUCTTABLE", null ).next() )
+          return false;                             // Already there
+        con.setAutoCommit( false );
+        try
+        {
+          for ( String sql : SQL ) stmt.execute( sql );
+          con.commit();
+          DEBUG.trace( "SampleStock: loaded" );
+          return true;
+        } catch ( SQLException e )
+        {
+          con.rollback();
+          throw e;
+        } finally
+        {
+          con.setAutoCommit( true );
+        }
+      }
+    } );
+  }
+}
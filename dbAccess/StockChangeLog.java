@@ -0,0 +1,289 @@
+package dbAccess;
+
+import config.Config;
+import debug.DEBUG;
+import middle.StockChange;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A log of the changes made to the stock list, held in a
+ * memory-mapped file so that it survives a restart of the server.
+ * The file is used as a circular buffer of fixed size records,
+ * once full the oldest changes are overwritten and a consumer that
+ * has fallen that far behind must take a new snapshot.
+ * <PRE>
+ * Header  magic, capacity, last sequence number
+ * Record  seq, kind, quantity, amount, price, product number, description
+ * </PRE>
+ * The file is the setting db.changeLog (see config.Config), by default
+ * <database>.changes next to the Derby database, so each database has
+ * its own log; db.changeLog=memory (the memory profile) keeps the log
+ * in memory only.  The file is locked while in use, if it can not be
+ * mapped or another JVM has it the log is held in memory only.
+ * A lock and condition are used rather than synchronized and wait,
+ * so a virtual thread waiting for changes does not pin its carrier.
+ * @author  Mike Smith University of Brighton
+ * @version 2.2
+ */
+
+public class StockChangeLog
+{
+  private static final String FILE     = "stock_changes.log"; // Not Derby
+  private static final int    MAGIC    = 0x43534c31;  // "CSL1"
+  private static final int    CAPACITY = 65536;       // Records held
+  private static final int    HEADER   = 64;          // Bytes
+  private static final int    RECORD   = 128;         // Bytes
+  private static final int    PNUM_MAX = 8;           // Characters
+  private static final int    DESC_MAX = 40;          // Characters
+  private static final int    NO_DESC  = 255;         // Description null
+
+  private static final StockChange.Kind[] KINDS = StockChange.Kind.values();
+
+  private static StockChangeLog theLog = null;
+
+  private final ByteBuffer    buf;
+  private FileChannel         channel = null;     // Open, holds the lock
+  private final ReentrantLock lock    = new ReentrantLock();
+  private final Condition     changed = lock.newCondition();
+  private long lastSeq;                           // Last change numbered
+
+  /**
+   * The log shared by all the stock objects in this JVM
+   * @return the change log
+   */
+  public static synchronized StockChangeLog getInstance()
+  {
+    if ( theLog == null )
+      theLog = new StockChangeLog( file() );
+    return theLog;
+  }
+
+  /**
+   * The file of the log, from the settings or next to the database
+   * @return file name, null for in memory
+   */
+  static String file()
+  {
+    Config c = Config.get();
+    String f = c.dbChangeLog();
+    if ( f != null ) return f.isEmpty() || f.equals( "memory" ) ? null : f;
+    String url = c.dbUrl();
+    if ( url.startsWith( "jdbc:derby:memory:" ) ) return null;
+    if ( !url.startsWith( "jdbc:derby:" ) )       return FILE;
+    String db   = url.substring( "jdbc:derby:".length() ).split( ";" )[0];
+    String home = System.getProperty( "derby.system.home" );
+    return Paths.get( home == null ? "" : home, db + ".changes" ).toString();
+  }
+
+  /**
+   * Open (or create) the log held in a file
+   * @param file Name of file, null for in memory
+   */
+  StockChangeLog( String file )
+  {
+    buf     = file == null ? memory() : map( file );
+    lastSeq = 0;
+    if ( buf.getInt( 0 ) == MAGIC && buf.getInt( 4 ) == CAPACITY )
+    {
+      lastSeq = buf.getLong( 8 );                 // Carry on numbering
+    } else {
+      buf.putInt( 0, MAGIC );
+      buf.putInt( 4, CAPACITY );
+      buf.putLong( 8, 0 );
+    }
+    DEBUG.trace( "StockChangeLog: %s last change #%d",
+                 file == null ? "memory" : file, lastSeq );
+  }
+
+  private ByteBuffer map( String file )
+  {
+    long size = HEADER + (long) CAPACITY * RECORD;
+    FileChannel ch = null;
+    try
+    {
+      Path parent = Paths.get( file ).toAbsolutePath().getParent();
+      if ( parent != null ) Files.createDirectories( parent );
+      ch = new RandomAccessFile( file, "rw" ).getChannel();
+      FileLock lock;
+      try
+      {
+        lock = ch.tryLock();
+      } catch ( OverlappingFileLockException e )  // Already open here
+      {
+        lock = null;
+      }
+      if ( lock == null )
+      {
+        ch.close();
+        DEBUG.trace( "StockChangeLog: %s in use by another program, " +
+                     "held in memory", file );
+        return memory();
+      }
+      ByteBuffer res = ch.map( FileChannel.MapMode.READ_WRITE, 0, size );
+      channel = ch;                               // Keep the lock
+      return res;
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "StockChangeLog: can not map %s, held in memory\n%s",
+                   file, e.getMessage() );
+      try
+      {
+        if ( ch != null ) ch.close();
+      } catch ( IOException ignore ) {}
+      return memory();
+    }
+  }
+
+  private static ByteBuffer memory()
+  {
+    return ByteBuffer.allocateDirect( HEADER + CAPACITY * RECORD );
+  }
+
+  /**
+   * Record a change, consumers waiting for changes are woken up
+   * @return the sequence number given to the change
+   */
+  public long append( StockChange.Kind kind, String pNum,
+                      String description, double price,
+                      int quantity, int amount )
+  {
+    lock.lock();
+    try
+    {
+      long seq = lastSeq + 1;
+      int  at  = offset( seq );
+      buf.put     ( at +  8, (byte) kind.ordinal() );
+      buf.putInt  ( at +  9, quantity );
+      buf.putInt  ( at + 13, amount );
+      buf.putDouble( at + 17, price );
+      putString( at + 25, pNum, PNUM_MAX );
+      putString( at + 25 + 1 + 2 * PNUM_MAX, description, DESC_MAX );
+      buf.putLong ( at, seq );                    // Record complete
+      buf.putLong ( 8, seq );                     // Header
+      lastSeq = seq;
+      changed.signalAll();
+      return seq;
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return sequence number of the last change recorded, 0 if none
+   */
+  public long lastSeq()
+  {
+    lock.lock();
+    try
+    {
+      return lastSeq;
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return changes made after the change numbered seq
+   * @param seq Last change seen
+   * @param max Maximum number to return
+   * @return changes in order or null if they are no longer held
+   *  (or the log has been started afresh since seq)
+   */
+  public List<StockChange> read( long seq, int max )
+  {
+    lock.lock();
+    try
+    {
+      if ( seq < lastSeq - CAPACITY ) return null;   // Overwritten
+      if ( seq > lastSeq )            return null;   // A new log
+      long to = Math.min( lastSeq, seq + max );
+      List<StockChange> res = new ArrayList<>( (int) Math.max( 0, to - seq ) );
+      for ( long s = seq + 1; s <= to; s++ )
+        res.add( get( s ) );
+      return res;
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * As read, but if there are no changes after seq wait
+   * up to timeout milliseconds for one to be made
+   * @param seq Last change seen
+   * @param max Maximum number to return
+   * @param timeout Longest time to wait in milliseconds
+   * @return changes in order (empty if none) or null if no longer held
+   */
+  public List<StockChange> await( long seq, int max, long timeout )
+         throws InterruptedException
+  {
+    lock.lock();
+    try
+    {
+      long left = TimeUnit.MILLISECONDS.toNanos( timeout );
+      while ( lastSeq <= seq && left > 0 )
+        left = changed.awaitNanos( left );
+      return read( seq, max );
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private StockChange get( long seq )
+  {
+    int at = offset( seq );
+    return new StockChange( buf.getLong( at ),
+                            KINDS[ buf.get( at + 8 ) ],
+                            getString( at + 25 ),
+                            getString( at + 25 + 1 + 2 * PNUM_MAX ),
+                            buf.getDouble( at + 17 ),
+                            buf.getInt( at + 9 ),
+                            buf.getInt( at + 13 ) );
+  }
+
+  private static int offset( long seq )
+  {
+    return HEADER + (int) (seq % CAPACITY) * RECORD;
+  }
+
+  private void putString( int at, String s, int max )
+  {
+    if ( s == null )
+    {
+      buf.put( at, (byte) NO_DESC );
+      return;
+    }
+    int len = Math.min( s.length(), max );
+    buf.put( at, (byte) len );
+    for ( int i = 0; i < len; i++ )
+      buf.putChar( at + 1 + 2 * i, s.charAt( i ) );
+  }
+
+  private String getString( int at )
+  {
+    int len = buf.get( at ) & 0xff;
+    if ( len == NO_DESC ) return null;
+    char[] cs = new char[ len ];
+    for ( int i = 0; i < len; i++ )
+      cs[ i ] = buf.getChar( at + 1 + 2 * i );
+    return new String( cs );
+  }
+}
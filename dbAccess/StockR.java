@@ -4,20 +4,51 @@ package dbAccess;
  * Implements Read access to the stock list
  * The stock list is held in a relational DataBase
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.8
  */
 
 import catalogue.Product;
 import debug.DEBUG;
+import metrics.ImageLoadEvent;
+import metrics.Metrics;
+import metrics.StockQueryEvent;
+import metrics.Timer;
+import middle.AsyncStockReader;
+import middle.ProductIndex;
+import middle.StockChange;
 import middle.StockException;
-import middle.StockReader;
 
 import javax.swing.*;
+import java.awt.MediaTracker;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Each call takes a connection from the pool for its own statement,
+// so calls run at the same time without locking this object
+
+// The database is opened in the background when the first stock
+// object is made, so a client's windows can be shown while Derby
+// starts.  The connections of the pool are opened at the same time,
+// the statements used most are prepared on each (so Derby has compiled
+// them) and the search index is built.  A call made before then waits
+// for the database to be open.  If opening fails the next call tries
+// again.  close shuts the database down; it is opened again if used.
+// A database held in memory (db.profile=memory) is filled with the
+// sample stock when opened, see SampleStock.
+
+// search is answered from an index of the descriptions held in
+// memory, shared by all the stock objects in this JVM.  It is built
+// from the database when first used and then kept up to date by
+// StockRW as each change is made
+
+// Each call is timed (metrics stock.*), the time spent waiting for
+// and using a database connection is timed by ConnectionPool.
+// Each call is also a JFR event (catshop.StockQuery, catshop.ImageLoad)
+// recorded when turned on by metrics/catshop.jfc
 
 // mySQL
 //    no spaces after SQL statement ;
@@ -25,62 +56,161 @@ import java.sql.*;
 /**
   * Implements read only access to the stock database.
   */
-public class StockR implements StockReader
+public class StockR implements AsyncStockReader
 {
-  private Connection theCon    = null;      // Connection to database
-  private Statement  theStmt   = null;      // Statement object
+  private static volatile ConnectionPool thePool    = null; // Once open
+  private static CompletableFuture<ConnectionPool> theOpening = null;
+  private static final ReentrantLock     indexLock  = new ReentrantLock();
+  private static volatile ProductIndex   theIndex   = null;
+
+  private static final Timer T_EXISTS  = Metrics.timer( "stock.exists" );
+  private static final Timer T_DETAILS = Metrics.timer( "stock.getDetails" );
+  private static final Timer T_ALL     = Metrics.timer( "stock.getAllProducts" );
+  private static final Timer T_IMAGE   = Metrics.timer( "stock.getImage" );
+  private static final Timer T_SEARCH  = Metrics.timer( "stock.search" );
+  private static final Timer T_OPEN    = Metrics.timer( "stock.open" );
+
+  private static final String ALREADY = "X0Y32";   // SQL state, exists
+
+  // Queries made most, prepared on each connection when it is opened
+  private static final String EXISTS_SQL =
+    "select price from ProductTable where productNo = ?";
+  private static final String DETAILS_SQL =
+    "select description, price, stockLevel, version " +
+    "  from ProductTable, StockTable " +
+    "  where  ProductTable.productNo = ? " +
+    "  and    StockTable.productNo   = ProductTable.productNo";
+  private static final String PICTURE_SQL =
+    "select picture from ProductTable where productNo = ?";
+  protected static final String LEVEL_SQL =
+    "select stockLevel from StockTable where productNo = ?";
 
   /**
-   * Connects to database
+   * Connects to database, in the background
    * Uses a factory method to help setup the connection
    * @throws StockException if problem
    */
   public StockR()
          throws StockException
   {
-    try
-    {
-      DBAccess dbDriver = (new DBAccessFactory()).getNewDBAccess();
-      dbDriver.loadDriver();
-    
-      theCon  = DriverManager.getConnection
-                  ( dbDriver.urlOfDatabase(), 
-                    dbDriver.username(), 
-                    dbDriver.password() );
+    open();
+  }
 
-      theStmt = theCon.createStatement();
-      theCon.setAutoCommit( true );
-    }
-    catch ( SQLException e )
-    {
-      throw new StockException( "SQL problem:" + e.getMessage() );
-    }
-    catch ( Exception e )
+  /**
+   * Start opening the database, if not open or being opened
+   * @return completes when the database is open and warmed up
+   */
+  public static CompletableFuture<Void> opened()
+  {
+    return open().thenApply( pool -> null );
+  }
+
+  /**
+   * Close the connections to the database and shut it down,
+   *  waiting for it to finish opening if need be
+   */
+  public static synchronized void close()
+  {
+    if ( theOpening == null ) return;
+    theOpening.exceptionally( e -> null ).join();
+    theOpening = null;
+    thePool    = null;
+    theIndex   = null;                            // Rebuilt when opened
+    ConnectionPool.shutdown();
+  }
+
+  private static synchronized CompletableFuture<ConnectionPool> open()
+  {
+    if ( theOpening == null || theOpening.isCompletedExceptionally() )
     {
-      throw new StockException("Can not load database driver.");
+      theOpening = new CompletableFuture<>();
+      CompletableFuture<ConnectionPool> opening = theOpening;
+      Thread.ofVirtual().name( "stock-open" ).start( () ->
+      {
+        long start = T_OPEN.start();
+        try
+        {
+          ConnectionPool pool = ConnectionPool.getInstance();
+          if ( pool.inMemory() ) SampleStock.load( pool );
+          migrate( pool );
+          pool.warm( EXISTS_SQL, DETAILS_SQL, PICTURE_SQL, LEVEL_SQL );
+          thePool = pool;                           // Open
+          T_OPEN.stop( start );
+          DEBUG.trace( "DB StockR: open after %d ms",
+                       ( System.nanoTime() - start ) / 1000000 );
+          try
+          {
+            index();                                // Warm
+          } catch ( StockException e )
+          {
+            DEBUG.trace( "DB StockR: index on first use\n%s", e.getMessage() );
+          }
+          opening.complete( pool );
+        } catch ( Throwable e )
+        {
+          T_OPEN.error();
+          DEBUG.trace( "DB StockR: can not open database\n%s", e.getMessage() );
+          opening.completeExceptionally( e );
+        }
+      } );
     }
+    return theOpening;
   }
 
-
   /**
-   * Returns a statement object that is used to process SQL statements
-   * @return A statement object used to access the database
+   * The connections to the database, waiting for it to be opened
+   * @return the pool
+   * @throws SQLException if the database could not be opened
    */
-  
-  protected Statement getStatementObject()
+  protected static ConnectionPool pool() throws SQLException
   {
-    return theStmt;
+    ConnectionPool pool = thePool;
+    if ( pool != null ) return pool;
+    try
+    {
+      return open().join();
+    } catch ( CompletionException e )
+    {
+      throw new SQLException( "Database not open: " +
+                              e.getCause().getMessage(), e.getCause() );
+    }
   }
 
   /**
-   * Returns a connection object that is used to process
-   * requests to the DataBase
-   * @return a connection object
+   * Bring a database made by an older version up to date, once a JVM.
+   * A change already made fails as the column or index already exists
+   * (SQL state X0Y32) and is ignored, Derby only warns (01504) of an
+   * index the same as one there.  Any other failure is reported.
+   * <PRE>
+   * StockTable.version   Counts the changes made to a product
+   * StockTable index     One row a product
+   * </PRE>
    */
-
-  protected Connection getConnectionObject()
+  private static void migrate( ConnectionPool pool )
   {
-    return theCon;
+    for ( String sql : new String[] {
+            "alter table StockTable add column version Integer not null default 1",
+            "create unique index StockTableNo on StockTable ( productNo )" } )
+    {
+      try
+      {
+        pool.call( con ->
+        {
+          try ( Statement stmt = con.createStatement() )
+          {
+            return stmt.executeUpdate( sql );
+          }
+        } );
+        DEBUG.trace( "DB StockR: %s", sql );
+      } catch ( SQLException e )
+      {
+        if ( ALREADY.equals( e.getSQLState() ) )
+          DEBUG.trace( "DB StockR: already done %s", sql );
+        else
+          System.out.printf( "DB StockR: can not %s%n%s %s%n",
+                             sql, e.getSQLState(), e.getMessage() );
+      }
+    }
   }
 
   /**
@@ -88,23 +218,47 @@ public class StockR implements StockReader
    * @param pNum The product number
    * @return true if exists otherwise false
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws StockException
   {
-    
+    long            start = T_EXISTS.start();
+    StockQueryEvent ev    = StockQueryEvent.begin( "exists", pNum );
     try
     {
-      ResultSet rs   = getStatementObject().executeQuery(
-        "select price from ProductTable " +
-        "  where  ProductTable.productNo = '" + pNum + "'"
-      );
-      boolean res = rs.next();
-      DEBUG.trace( "DB StockR: exists(%s) -> %s", 
-                    pNum, ( res ? "T" : "F" ) );
-      return res;
-    } catch ( SQLException e )
+      try
+      {
+        boolean res = pool().call( con -> exists( con, pNum ) );
+        DEBUG.trace( "DB StockR: exists(%s) -> %s", 
+                      pNum, ( res ? "T" : "F" ) );
+        ev.ok( res ? 1 : 0 );
+        return res;
+      } catch ( SQLException e )
+      {
+        throw new StockException( "SQL exists: " + e.getMessage() );
+      }
+    } finally
     {
-      throw new StockException( "SQL exists: " + e.getMessage() );
+      T_EXISTS.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Checks if the product exits, using a connection already held
+   * @param con Connection to use
+   * @param pNum The product number
+   * @return true if exists otherwise false
+   */
+  protected static boolean exists( Connection con, String pNum )
+            throws SQLException
+  {
+    try ( PreparedStatement stmt = con.prepareStatement( EXISTS_SQL ) )
+    {
+      stmt.setString( 1, pNum );
+      try ( ResultSet rs = stmt.executeQuery() )
+      {
+        return rs.next();
+      }
     }
   }
 
@@ -114,30 +268,96 @@ public class StockR implements StockReader
    * @param pNum The product number
    * @return Details in an instance of a Product
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws StockException
   {
+    long            start = T_DETAILS.start();
+    StockQueryEvent ev    = StockQueryEvent.begin( "getDetails", pNum );
     try
     {
-      Product   dt = new Product( "0", "", 0.00, 0 );
-      ResultSet rs = getStatementObject().executeQuery(
-        "select description, price, stockLevel " +
-        "  from ProductTable, StockTable " +
-        "  where  ProductTable.productNo = '" + pNum + "' " +
-        "  and    StockTable.productNo   = '" + pNum + "'"
-      );
-      if ( rs.next() )
+      try
       {
-        dt.setProductNum( pNum );
-        dt.setDescription(rs.getString( "description" ) );
-        dt.setPrice( rs.getDouble( "price" ) );
-        dt.setQuantity( rs.getInt( "stockLevel" ) );
+        Product res = pool().call( con ->
+        {
+          Product dt = new Product( "0", "", 0.00, 0 );
+          try ( PreparedStatement stmt = con.prepareStatement( DETAILS_SQL ) )
+          {
+            stmt.setString( 1, pNum );
+            try ( ResultSet rs = stmt.executeQuery() )
+            {
+              if ( rs.next() )
+              {
+                dt.setProductNum( pNum );
+                dt.setDescription(rs.getString( "description" ) );
+                dt.setPrice( rs.getDouble( "price" ) );
+                dt.setQuantity( rs.getInt( "stockLevel" ) );
+                dt.setVersion( rs.getInt( "version" ) );
+              }
+            }
+          }
+          return dt;
+        } );
+        ev.ok( pNum.equals( res.getProductNum() ) ? 1 : 0 );
+        return res;
+      } catch ( SQLException e )
+      {
+        throw new StockException( "SQL getDetails: " + e.getMessage() );
       }
-      rs.close();
-      return dt;
+    } finally
+    {
+      T_DETAILS.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Returns details of every product in the stock list
+   * @return list of products
+   */
+  public List<Product> getAllProducts()
+         throws StockException
+  {
+    long            start = T_ALL.start();
+    StockQueryEvent ev    = StockQueryEvent.begin( "getAllProducts", null );
+    try
+    {
+      List<Product> all = allProducts();
+      ev.ok( all.size() );
+      return all;
+    } finally
+    {
+      T_ALL.stop( start );
+      ev.commit();
+    }
+  }
+
+  private static List<Product> allProducts()
+          throws StockException
+  {
+    try
+    {
+      return pool().call( con ->
+      {
+        List<Product> res = new ArrayList<>();
+        try ( Statement stmt = con.createStatement();
+              ResultSet rs   = stmt.executeQuery(
+                "select ProductTable.productNo, description, price, stockLevel " +
+                "  from ProductTable, StockTable " +
+                "  where  ProductTable.productNo = StockTable.productNo" ) )
+        {
+          while ( rs.next() )
+          {
+            res.add( new Product( rs.getString( "productNo" ),
+                                  rs.getString( "description" ),
+                                  rs.getDouble( "price" ),
+                                  rs.getInt( "stockLevel" ) ) );
+          }
+        }
+        return res;
+      } );
     } catch ( SQLException e )
     {
-      throw new StockException( "SQL getDetails: " + e.getMessage() );
+      throw new StockException( "SQL getAllProducts: " + e.getMessage() );
     }
   }
 
@@ -147,29 +367,111 @@ public class StockR implements StockReader
    *  Assumed to exist in database.
    * @return ImageIcon representing the image
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
          throws StockException
   {
-    String filename = "default.jpg";  
+    long           start = T_IMAGE.start();
+    ImageLoadEvent ev    = ImageLoadEvent.begin( pNum );
     try
     {
-      ResultSet rs   = getStatementObject().executeQuery(
-        "select picture from ProductTable " +
-        "  where  ProductTable.productNo = '" + pNum + "'"
-      );
-      
-      boolean res = rs.next();
-      if ( res )
-        filename = rs.getString( "picture" );
-      rs.close();
-    } catch ( SQLException e )
+      String filename;
+      try
+      {
+        filename = pool().call( con ->
+        {
+          try ( PreparedStatement stmt = con.prepareStatement( PICTURE_SQL ) )
+          {
+            stmt.setString( 1, pNum );
+            try ( ResultSet rs = stmt.executeQuery() )
+            {
+              return rs.next() ? rs.getString( "picture" ) : "default.jpg";
+            }
+          }
+        } );
+      } catch ( SQLException e )
+      {
+        DEBUG.error( "getImage()\n%s\n", e.getMessage() );
+        throw new StockException( "SQL getImage: " + e.getMessage() );
+      }
+    
+      //DEBUG.trace( "DB StockR: getImage -> %s", filename );
+      ImageIcon image = new ImageIcon( filename );
+      ev.file    = filename;
+      ev.outcome = image.getImageLoadStatus() == MediaTracker.COMPLETE
+                   ? "ok" : "missing";
+      return image;
+    } finally
     {
-      DEBUG.error( "getImage()\n%s\n", e.getMessage() );
-      throw new StockException( "SQL getImage: " + e.getMessage() );
+      T_IMAGE.stop( start );
+      ev.commit();
     }
-    
-    //DEBUG.trace( "DB StockR: getImage -> %s", filename );
-    return new ImageIcon( filename );
+  }
+
+  /**
+   * Returns the products whose description best matches the text
+   * @param text Words to look for
+   * @param max Most products to return
+   * @return products, best match first
+   */
+  public List<Product> search( String text, int max )
+         throws StockException
+  {
+    long            start = T_SEARCH.start();
+    StockQueryEvent ev    = StockQueryEvent.begin( "search", null );
+    try
+    {
+      List<Product> res = index().search( text, max );
+      DEBUG.trace( "DB StockR: search(%s) -> %d", text, res.size() );
+      ev.ok( res.size() );
+      return res;
+    } finally
+    {
+      T_SEARCH.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * The index of the descriptions, built on first use.
+   * Changes made while the products are read are found in the
+   * change log and applied once the index is in use.
+   * @return the index
+   */
+  private static ProductIndex index()
+          throws StockException
+  {
+    ProductIndex idx = theIndex;
+    if ( idx != null ) return idx;
+    indexLock.lock();
+    try
+    {
+      if ( theIndex == null )
+      {
+        StockChangeLog log = StockChangeLog.getInstance();
+        long seq = log.lastSeq();
+        idx = new ProductIndex();
+        idx.load( seq, allProducts() );
+        theIndex = idx;                             // Now kept up to date
+        List<StockChange> missed = log.read( seq, Integer.MAX_VALUE );
+        if ( missed != null )
+          for ( StockChange c : missed ) idx.apply( c );
+        DEBUG.trace( "DB StockR: indexed %d products", idx.size() );
+      }
+      return theIndex;
+    } finally
+    {
+      indexLock.unlock();
+    }
+  }
+
+  /**
+   * Bring the index up to date with a change, if it has been built
+   * @param c The change made
+   */
+  protected static void indexChange( StockChange c )
+  {
+    ProductIndex idx = theIndex;
+    if ( idx != null ) idx.apply( c );
   }
 
 }
@@ -4,26 +4,81 @@ package dbAccess;
  * Implements Read /Write access to the stock list
  * The stock list is held in a relational DataBase
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.8
  */
 
 import catalogue.Product;
 import debug.DEBUG;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.StockChangeEvent;
+import metrics.Timer;
+import middle.AsyncStockReadWriter;
+import middle.StockChange;
 import middle.StockException;
-import middle.StockReadWriter;
+import middle.StockFeed;
+import middle.StockSnapshot;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
-// 
+// Changes to one product are made one at a time, holding a lock
+// for the product, so the change log records the levels in the
+// order they were made.  Changes to other products go ahead.
+// The locks are shared by all the stock objects in this JVM, as is
+// the ledger of stock held (reserved) for customers.
+// ReentrantLock not synchronized, as the lock is held across
+// database calls and a waiting virtual thread must not be pinned.
+// The time spent waiting for a product lock held by someone else is
+// timed (stock.lock.wait), taking a free lock is not.
+// Each change is also a JFR event (catshop.StockChange) recorded
+// when turned on by metrics/catshop.jfc
+
+// Every change adds one to the version of the product in StockTable.
+// modifyStock changes both tables in one transaction, and given the
+// version the details were read at, only if no one has changed the
+// product since (compare and set), so an edit from the back door is
+// turned down rather than losing a sale made while it was typed.
 
 /**
   * Implements read/write access to the stock database.
+  * Every change made is also recorded in the stock change log.
   */
-public class StockRW extends StockR implements StockReadWriter 
+public class StockRW extends StockR implements AsyncStockReadWriter, StockFeed
 {
+  private static final int    STRIPES     = 64;      // Product locks
+  private static final int    ANY_VERSION = -1;      // Do not check
+  private static final String DUPLICATE   = "23505"; // SQL state
+
+  private static final ReentrantLock[] locks = new ReentrantLock[ STRIPES ];
+
+  static
+  {
+    for ( int i = 0; i < STRIPES; i++ ) locks[ i ] = new ReentrantLock();
+  }
+
+  private static final Timer   T_BUY      = Metrics.timer( "stock.buyStock" );
+  private static final Timer   T_RESERVE  = Metrics.timer( "stock.reserveStock" );
+  private static final Timer   T_COMMIT   = Metrics.timer( "stock.commitReservation" );
+  private static final Timer   T_RELEASE  = Metrics.timer( "stock.releaseReservation" );
+  private static final Timer   T_ADD      = Metrics.timer( "stock.addStock" );
+  private static final Timer   T_MODIFY   = Metrics.timer( "stock.modifyStock" );
+  private static final Timer   T_SNAPSHOT = Metrics.timer( "stock.snapshot" );
+  private static final Timer   T_CHANGES  = Metrics.timer( "stock.changesSince" );
+  private static final Timer   T_LOCK     = Metrics.timer( "stock.lock.wait" );
+  private static final Counter C_LOCK     = Metrics.counter( "stock.lock.contended" );
+
+  private final StockChangeLog    theLog   = StockChangeLog.getInstance();
+  private final StockReservations theHolds = StockReservations.getInstance();
+
   /*
    * Connects to database
    */
@@ -31,103 +86,541 @@ public class StockRW extends StockR implements StockReadWriter
   {    
     super();        // Connection done in StockR's constructor
   }
+
+  /**
+   * The lock held while changing a product
+   * @param pNum Product number
+   * @return the lock
+   */
+  private static ReentrantLock lockFor( String pNum )
+  {
+    return locks[ Math.floorMod( pNum.hashCode(), STRIPES ) ];
+  }
+
+  /**
+   * Take a product lock, timing the wait if someone else holds it
+   * @param lock The lock
+   */
+  private static void acquire( ReentrantLock lock )
+  {
+    if ( lock.tryLock() ) return;                  // Free
+    C_LOCK.inc();
+    long start = T_LOCK.start();
+    lock.lock();
+    T_LOCK.stop( start );
+  }
+
+  /**
+   * Take the locks of several products at once, used to change many
+   * products in one go (see CatalogueLoader).  The locks are taken in
+   * stripe order, so two callers never each wait for the other.
+   * @param pNums Product numbers
+   * @return the locks taken, given back by unlockAll
+   */
+  static List<ReentrantLock> lockAll( Collection<String> pNums )
+  {
+    TreeMap<Integer,ReentrantLock> stripes = new TreeMap<>();
+    for ( String pNum : pNums )
+    {
+      int i = Math.floorMod( pNum.hashCode(), STRIPES );
+      stripes.put( i, locks[ i ] );
+    }
+    List<ReentrantLock> taken = new ArrayList<>( stripes.size() );
+    for ( ReentrantLock lock : stripes.values() )
+    {
+      acquire( lock );
+      taken.add( lock );
+    }
+    return taken;
+  }
+
+  /**
+   * Give back the locks taken by lockAll
+   * @param taken The locks
+   */
+  static void unlockAll( List<ReentrantLock> taken )
+  {
+    for ( int i = taken.size() - 1; i >= 0; i-- ) taken.get( i ).unlock();
+  }
   
   /**
    * Customer buys stock, quantity decreased if sucessful.
+   * Stock held for other customers can not be bought.
    * @param pNum Product number
    * @param amount Amount of stock bought
    * @return true if succeeds else false
    */
-  public synchronized boolean buyStock( String pNum, int amount )
+  public boolean buyStock( String pNum, int amount )
          throws StockException
   {
-    DEBUG.trace("DB StockRW: buyStock(%s,%d)", pNum, amount);
+    long             start = T_BUY.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "buyStock", pNum, amount );
+    try
+    {
+      DEBUG.trace("DB StockRW: buyStock(%s,%d)", pNum, amount);
+      ReentrantLock lock = lockFor( pNum );
+      acquire( lock );
+      try
+      {
+        boolean bought = buy( pNum, amount, theHolds.held( pNum ) );
+        ev.done( bought );
+        return bought;
+      } finally
+      {
+        lock.unlock();
+      }
+    } finally
+    {
+      T_BUY.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Decrease the stock level, called holding the product lock
+   * @param pNum Product number
+   * @param amount Amount of stock bought
+   * @param keep Stock that must be left
+   * @return true if bought
+   */
+  private boolean buy( String pNum, int amount, int keep )
+          throws StockException
+  {
     int updates = 0;
     try
     {
-      getStatementObject().executeUpdate(
-        "update StockTable set stockLevel = stockLevel-" + amount +
-        "       where productNo = '" + pNum + "' and " +
-        "             stockLevel >= " + amount + ""
-      );
-      updates = 1; // getStatementObject().getUpdateCount();
+      updates = pool().call( con ->
+      {
+        try ( Statement stmt = con.createStatement() )
+        {
+          int n = stmt.executeUpdate(
+            "update StockTable set stockLevel = stockLevel-" + amount +
+            "       , version = version + 1" +
+            "       where productNo = '" + pNum + "' and " +
+            "             stockLevel >= " + ( amount + keep ) + ""
+          );
+          if ( n > 0 )
+            record( StockChange.Kind.BUY, pNum, null, 0.0,
+                    stockLevel( con, pNum ), amount );
+          return n;
+        }
+      } );
     } catch ( SQLException e )
     {
       throw new StockException( "SQL buyStock: " + e.getMessage() );
     }
-    DEBUG.trace( "buyStock() updates -> %n", updates );
+    DEBUG.trace( "buyStock() updates -> %d", updates );
     return updates > 0;   // sucess ?
   }
 
+  /**
+   * Hold stock for a customer, so it can not be bought by anyone else
+   * @param pNum Product number
+   * @param amount Amount to hold
+   * @param ttl How long to hold it for in ms
+   * @return token for the hold, null if not enough stock is free
+   */
+  public String reserveStock( String pNum, int amount, long ttl )
+         throws StockException
+  {
+    long             start = T_RESERVE.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "reserveStock", pNum, amount );
+    try
+    {
+      if ( amount <= 0 || ttl <= 0 )
+        throw new StockException( "reserveStock: amount and ttl must be > 0" );
+      ReentrantLock lock = lockFor( pNum );
+      acquire( lock );
+      try
+      {
+        int level = pool().call( con -> stockLevel( con, pNum ) );
+        String token = theHolds.reserve( pNum, amount, level, ttl );
+        DEBUG.trace( "DB StockRW: reserveStock(%s,%d) -> %s", pNum, amount, token );
+        ev.done( token != null );
+        return token;
+      } catch ( SQLException e )
+      {
+        throw new StockException( "SQL reserveStock: " + e.getMessage() );
+      } finally
+      {
+        lock.unlock();
+      }
+    } finally
+    {
+      T_RESERVE.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Buy the stock held.  If the hold has run out the stock is bought
+   * if it is still free (not held for anyone else).
+   * @param token Token for the hold
+   * @return true if bought, false if the hold is not known, or has
+   *         run out and the stock has since been sold or held
+   */
+  public boolean commitReservation( String token )
+         throws StockException
+  {
+    long             start = T_COMMIT.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "commitReservation", null, 0 );
+    try
+    {
+      StockReservations.Hold h = theHolds.take( token );
+      boolean held = h != null;
+      if ( !held ) h = theHolds.lapsed( token );      // Run out
+      if ( h == null )                                // Not known
+      {
+        ev.done( false );
+        return false;
+      }
+      ev.productNo = h.pNum;
+      ev.amount    = h.amount;
+      ReentrantLock lock = lockFor( h.pNum );
+      acquire( lock );
+      try
+      {
+        int others = theHolds.held( h.pNum ) - ( held ? h.amount : 0 );
+        boolean bought = buy( h.pNum, h.amount, others );
+        ev.done( bought );
+        return bought;
+      } finally
+      {
+        if ( held ) theHolds.done( h );
+        lock.unlock();
+      }
+    } finally
+    {
+      T_COMMIT.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Give back the stock held
+   * @param token Token for the hold
+   */
+  public void releaseReservation( String token )
+  {
+    long             start = T_RELEASE.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "releaseReservation", null, 0 );
+    try
+    {
+      ev.done( theHolds.release( token ) );
+    } finally
+    {
+      T_RELEASE.stop( start );
+      ev.commit();
+    }
+  }
+
   /**
    * Adds stock (Re-stocks) to the store.
    *  Assumed to exist in database.
    * @param pNum Product number
    * @param amount Amount of stock to add
    */
-  public synchronized void addStock( String pNum, int amount )
+  public void addStock( String pNum, int amount )
          throws StockException
   {
+    long             start = T_ADD.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "addStock", pNum, amount );
     try
     {
-      getStatementObject().executeUpdate(
-        "update StockTable set stockLevel = stockLevel + " + amount +
-        "         where productNo = '" + pNum + "'"
-      );
-      //getConnectionObject().commit();
-      DEBUG.trace( "DB StockRW: addStock(%s,%d)" , pNum, amount );
-    } catch ( SQLException e )
+      ReentrantLock lock = lockFor( pNum );
+      acquire( lock );
+      try
+      {
+        pool().call( con ->
+        {
+          try ( Statement stmt = con.createStatement() )
+          {
+            stmt.executeUpdate(
+              "update StockTable set stockLevel = stockLevel + " + amount +
+              "       , version = version + 1" +
+              "         where productNo = '" + pNum + "'"
+            );
+            record( StockChange.Kind.ADD, pNum, null, 0.0,
+                    stockLevel( con, pNum ), amount );
+            return null;
+          }
+        } );
+        DEBUG.trace( "DB StockRW: addStock(%s,%d)" , pNum, amount );
+        ev.done( true );
+      } catch ( SQLException e )
+      {
+        throw new StockException( "SQL addStock: " + e.getMessage() );
+      } finally
+      {
+        lock.unlock();
+      }
+    } finally
     {
-      throw new StockException( "SQL addStock: " + e.getMessage() );
+      T_ADD.stop( start );
+      ev.commit();
     }
   }
 
 
   /**
-   * Modifies Stock details for a given product number.
-   *  Assumed to exist in database.
-   * Information modified: Description, Price
+   * Modifies Stock details for a given product number,
+   *  adding the product if it is not in the stock list.
+   * Information modified: Description, Price, Stock level
+   * @param detail Product details to change stocklist to
+   */
+  public void modifyStock( Product detail )
+         throws StockException
+  {
+    modify( detail, ANY_VERSION );
+  }
+
+  /**
+   * Modifies Stock details only if the product is still at the
+   *  version given, version 0 adds a product not in the stock list.
    * @param detail Product details to change stocklist to
+   * @param version Version the product was read at
+   * @return true if changed, false if changed by someone else since
    */
-  public synchronized void modifyStock( Product detail )
+  public boolean modifyStock( Product detail, int version )
          throws StockException
   {
-    DEBUG.trace( "DB StockRW: modifyStock(%s)", 
-                 detail.getProductNum() );
+    if ( version < 0 )
+      throw new StockException( "modifyStock: version must be 0 or more" );
+    return modify( detail, version );
+  }
+
+  /**
+   * Change or add a product in one transaction, so the two tables
+   *  are never seen half changed
+   * @param detail Product details
+   * @param version Version expected or ANY_VERSION
+   * @return true if changed
+   */
+  private boolean modify( Product detail, int version )
+          throws StockException
+  {
+    String           pNum  = detail.getProductNum();
+    long             start = T_MODIFY.start();
+    StockChangeEvent ev    = StockChangeEvent.begin( "modifyStock", pNum,
+                                                     detail.getQuantity() );
+    DEBUG.trace( "DB StockRW: modifyStock(%s,%d)", pNum, version );
+    ReentrantLock lock = lockFor( pNum );
+    acquire( lock );
     try
     {
-      if ( ! exists( detail.getProductNum() ) )
+      boolean done = pool().call( con ->
       {
-    	getStatementObject().executeUpdate( 
-         "insert into ProductTable values ('" +
-            detail.getProductNum() + "', " + 
-             "'" + detail.getDescription() + "', " + 
-             "'images/Pic" + detail.getProductNum() + ".jpg', " + 
-             "'" + detail.getPrice() + "' " + ")"
-            );
-    	getStatementObject().executeUpdate( 
-           "insert into StockTable values ('" + 
-           detail.getProductNum() + "', " + 
-           "'" + detail.getQuantity() + "' " + ")"
-           ); 
-      } else {
-    	getStatementObject().executeUpdate(
-          "update ProductTable " +
-          "  set description = '" + detail.getDescription() + "' , " +
-          "      price       = " + detail.getPrice() +
-          "  where productNo = '" + detail.getProductNum() + "' "
-         );
-       
-    	getStatementObject().executeUpdate(
-          "update StockTable set stockLevel = " + detail.getQuantity() +
-          "  where productNo = '" + detail.getProductNum() + "'"
-        );
-      }
-      //getConnectionObject().commit();
-      
+        con.setAutoCommit( false );
+        try
+        {
+          boolean ok = upsert( con, detail, version );
+          if ( ok ) con.commit(); else con.rollback();
+          return ok;
+        } catch ( SQLException e )
+        {
+          con.rollback();
+          if ( version == 0 && DUPLICATE.equals( e.getSQLState() ) )
+            return false;                           // Added by another
+          throw e;
+        } finally
+        {
+          con.setAutoCommit( true );
+        }
+      } );
+      if ( done )
+        record( StockChange.Kind.MODIFY, pNum,
+                detail.getDescription(), detail.getPrice(),
+                detail.getQuantity(), 0 );
+      else
+        DEBUG.trace( "DB StockRW: modifyStock(%s) conflict", pNum );
+      ev.done( done );
+      return done;
     } catch ( SQLException e )
     {
       throw new StockException( "SQL modifyStock: " + e.getMessage() );
+    } finally
+    {
+      lock.unlock();
+      T_MODIFY.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Update the product if it is at the version expected,
+   *  or add it if it is not in the stock list
+   * @return false if not at the version expected
+   */
+  private static boolean upsert( Connection con, Product detail, int version )
+          throws SQLException
+  {
+    String pNum = detail.getProductNum();
+    if ( version != 0 )
+    {
+      try ( PreparedStatement stock = con.prepareStatement(
+              "update StockTable set stockLevel = ?, version = version + 1" +
+              "  where productNo = ?" +
+              ( version == ANY_VERSION ? "" : " and version = ?" ) ) )
+      {
+        stock.setInt( 1, detail.getQuantity() );
+        stock.setString( 2, pNum );
+        if ( version != ANY_VERSION ) stock.setInt( 3, version );
+        if ( stock.executeUpdate() > 0 )
+        {
+          putProduct( con, detail );
+          return true;
+        }
+      }
+      if ( version != ANY_VERSION ) return false;   // Changed or gone
+    } else {
+      try ( PreparedStatement there = con.prepareStatement(
+              "select version from StockTable where productNo = ?" ) )
+      {
+        there.setString( 1, pNum );
+        try ( ResultSet rs = there.executeQuery() )
+        {
+          if ( rs.next() ) return false;            // Already added
+        }
+      }
+    }
+    try ( PreparedStatement add = con.prepareStatement(
+            "insert into StockTable ( productNo, stockLevel, version )" +
+            "  values ( ?, ?, 1 )" ) )
+    {
+      add.setString( 1, pNum );
+      add.setInt( 2, detail.getQuantity() );
+      add.executeUpdate();
+    }
+    putProduct( con, detail );
+    return true;
+  }
+
+  /**
+   * Update the description and price of the product,
+   *  adding it to the product table if it is not there
+   */
+  private static void putProduct( Connection con, Product detail )
+          throws SQLException
+  {
+    if ( updateProduct( con, detail ) > 0 ) return;
+    String pNum = detail.getProductNum();
+    try ( PreparedStatement add = con.prepareStatement(
+            "insert into ProductTable ( productNo, description, picture, price )" +
+            "  values ( ?, ?, ?, ? )" ) )
+    {
+      add.setString( 1, pNum );
+      add.setString( 2, detail.getDescription() );
+      add.setString( 3, "images/Pic" + pNum + ".jpg" );
+      add.setDouble( 4, detail.getPrice() );
+      add.executeUpdate();
+    }
+  }
+
+  private static int updateProduct( Connection con, Product detail )
+          throws SQLException
+  {
+    try ( PreparedStatement product = con.prepareStatement(
+            "update ProductTable set description = ?, price = ?" +
+            "  where productNo = ?" ) )
+    {
+      product.setString( 1, detail.getDescription() );
+      product.setDouble( 2, detail.getPrice() );
+      product.setString( 3, detail.getProductNum() );
+      return product.executeUpdate();
+    }
+  }
+
+  /**
+   * Record a change in the change log and the description index,
+   *  called holding the lock for the product
+   */
+  private void record( StockChange.Kind kind, String pNum,
+                       String description, double price,
+                       int quantity, int amount )
+  {
+    long seq = theLog.append( kind, pNum, description, price,
+                              quantity, amount );
+    indexChange( new StockChange( seq, kind, pNum, description, price,
+                                  quantity, amount ) );
+  }
+
+  /**
+   * Returns a copy of the stock list and the number of the last
+   * change it contains.
+   * The number is taken before the stock list is read, so the list may
+   * also hold some later changes; as each change records the stock
+   * level reached, applying such a change again does no harm.
+   * @return snapshot of the stock list
+   */
+  public StockSnapshot snapshot()
+         throws StockException
+  {
+    long start = T_SNAPSHOT.start();
+    try
+    {
+      long seq = theLog.lastSeq();
+      return new StockSnapshot( seq, getAllProducts() );
+    } finally
+    {
+      T_SNAPSHOT.stop( start );
+    }
+  }
+
+  /**
+   * Returns the changes made after the change numbered seq
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @return changes in order, or null if no longer held
+   */
+  public List<StockChange> changesSince( long seq, int max )
+  {
+    long start = T_CHANGES.start();
+    try
+    {
+      return theLog.read( seq, max );
+    } finally
+    {
+      T_CHANGES.stop( start );
+    }
+  }
+
+  /**
+   * Returns the changes made after the change numbered seq,
+   *  waiting for one to be made if there are none
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @param timeout Longest time to wait in milliseconds
+   * @return changes in order, or null if no longer held
+   */
+  public List<StockChange> awaitChanges( long seq, int max, long timeout )
+         throws StockException
+  {
+    try
+    {
+      return theLog.await( seq, max, timeout );
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new StockException( "awaitChanges: interrupted" );
+    }
+  }
+
+  /**
+   * Current stock level of a product, 0 if not known
+   * @param con Connection to use
+   * @param pNum Product number
+   * @return stock level
+   */
+  private static int stockLevel( Connection con, String pNum )
+          throws SQLException
+  {
+    try ( PreparedStatement stmt = con.prepareStatement( LEVEL_SQL ) )
+    {
+      stmt.setString( 1, pNum );
+      try ( ResultSet rs = stmt.executeQuery() )
+      {
+        return rs.next() ? rs.getInt( "stockLevel" ) : 0;
+      }
     }
   }
 }
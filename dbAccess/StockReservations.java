@@ -0,0 +1,179 @@
+package dbAccess;
+
+import debug.DEBUG;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ledger of stock held for customers but not yet bought,
+ * shared by all the stock objects in this JVM.
+ * For each product the total held is kept, so the stock free to be
+ * bought (stock level less the total held) is found without looking
+ * through the holds.  A hold that is not committed or released
+ * before it expires is given back the next time the ledger is used
+ * (at most every REAP_MS).  An expired hold is remembered for LAPSED_MS
+ * more, so it can still be bought if the stock is free (see lapsed).
+ * Taking a hold and buying are made holding the lock for the product
+ * in StockRW, so stock is never promised twice; giving stock back
+ * needs no lock, the total held is changed in one step of the map so
+ * a hold taken at the same time is never lost.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+class StockReservations
+{
+  private static final long REAP_MS   = 1000;        // Between reaps
+  private static final long LAPSED_MS = 60 * 60 * 1000; // Expired kept
+
+  private static StockReservations theLedger = null;
+
+  /**
+   * Stock held for one customer
+   */
+  static final class Hold
+  {
+    final String token;
+    final String pNum;
+    final int    amount;
+    final long   expires;                            // ms time
+
+    Hold( String token, String pNum, int amount, long expires )
+    {
+      this.token   = token;
+      this.pNum    = pNum;
+      this.amount  = amount;
+      this.expires = expires;
+    }
+  }
+
+  private final Map<String,Hold>          holds    = new ConcurrentHashMap<>();
+  private final Map<String,Integer>       held     = new ConcurrentHashMap<>();
+  private final Map<String,Hold>          lapsed   = new ConcurrentHashMap<>();
+  private final AtomicLong                nextReap = new AtomicLong();
+
+  /**
+   * The ledger shared by all the stock objects in this JVM
+   * @return the ledger
+   */
+  static synchronized StockReservations getInstance()
+  {
+    if ( theLedger == null ) theLedger = new StockReservations();
+    return theLedger;
+  }
+
+  /**
+   * Hold stock if enough is free, called holding the product lock
+   * @param pNum Product number
+   * @param amount Amount to hold
+   * @param level Stock level now
+   * @param ttl How long to hold it for in ms
+   * @return token for the hold, null if not enough stock is free
+   */
+  String reserve( String pNum, int amount, int level, long ttl )
+  {
+    if ( level - held( pNum ) < amount ) return null;
+    String token = pNum + "/" + UUID.randomUUID();
+    held.merge( pNum, amount, Integer::sum );
+    holds.put( token, new Hold( token, pNum, amount,
+                                System.currentTimeMillis() + ttl ) );
+    return token;
+  }
+
+  /**
+   * The total of stock held for a product
+   * @param pNum Product number
+   * @return amount held
+   */
+  int held( String pNum )
+  {
+    reap();
+    return held.getOrDefault( pNum, 0 );
+  }
+
+  /**
+   * Take a hold to be bought, the stock stays held until done is called
+   * @param token Token for the hold
+   * @return the hold or null if not known or expired
+   */
+  Hold take( String token )
+  {
+    if ( token == null ) return null;
+    Hold h = holds.remove( token );
+    if ( h == null ) return null;
+    if ( h.expires <= System.currentTimeMillis() )
+    {
+      expire( h );                                    // Too late
+      return null;
+    }
+    return h;
+  }
+
+  /**
+   * Take a hold that has expired, its stock is no longer held so it
+   * can only be bought from the stock free now
+   * @param token Token for the hold
+   * @return the hold or null if not known, bought or released
+   */
+  Hold lapsed( String token )
+  {
+    return token == null ? null : lapsed.remove( token );
+  }
+
+  /**
+   * Give back the stock held
+   * @param token Token for the hold
+   * @return true if the hold was known
+   */
+  boolean release( String token )
+  {
+    if ( token == null ) return false;
+    Hold h = holds.remove( token );
+    if ( h != null ) done( h );
+    else             lapsed.remove( token );          // Not to be bought
+    return h != null;
+  }
+
+  /**
+   * The stock of a hold taken is no longer held
+   * @param h The hold
+   */
+  void done( Hold h )
+  {
+    held.computeIfPresent( h.pNum,
+      (k, n) -> n - h.amount <= 0 ? null : n - h.amount );
+  }
+
+  /**
+   * Give back the stock of an expired hold, remembering it for a while
+   */
+  private void expire( Hold h )
+  {
+    done( h );
+    lapsed.put( h.token, h );
+  }
+
+  /**
+   * Give back the stock of expired holds and forget those expired
+   *  more than LAPSED_MS ago, at most every REAP_MS
+   */
+  private void reap()
+  {
+    long now  = System.currentTimeMillis();
+    long next = nextReap.get();
+    if ( now < next || !nextReap.compareAndSet( next, now + REAP_MS ) )
+      return;
+    for ( Hold h : holds.values() )
+    {
+      if ( h.expires <= now && holds.remove( h.token, h ) )
+      {
+        expire( h );
+        DEBUG.trace( "StockReservations: %s expired", h.token );
+      }
+    }
+    lapsed.values().removeIf( h -> h.expires + LAPSED_MS <= now );
+  }
+}
@@ -0,0 +1,32 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, such as retries.
+ * Counting is cheap however many threads count at once.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class Counter implements CounterMBean
+{
+  private final LongAdder count = new LongAdder();
+
+  Counter() {}
+
+  public void inc()
+  {
+    if ( Metrics.ENABLED ) count.increment();
+  }
+
+  public void add( long n )
+  {
+    if ( Metrics.ENABLED ) count.add( n );
+  }
+
+  public long getCount()
+  {
+    return count.sum();
+  }
+}
@@ -0,0 +1,12 @@
+package metrics;
+
+/**
+ * JMX view of a Counter
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public interface CounterMBean
+{
+  long getCount();
+}
@@ -0,0 +1,25 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value read only when the metrics are looked at,
+ * such as the number of database connections in use.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class Gauge implements GaugeMBean
+{
+  private final LongSupplier value;
+
+  Gauge( LongSupplier value )
+  {
+    this.value = value;
+  }
+
+  public long getValue()
+  {
+    return value.getAsLong();
+  }
+}
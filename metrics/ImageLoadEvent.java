@@ -0,0 +1,49 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for loading the picture of a product,
+ * the database look up and reading the image file,
+ * only recorded when turned on, see catshop.jfc
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+@Name( "catshop.ImageLoad" )
+@Label( "Image Load" )
+@Category( { "Catshop", "Stock" } )
+@Description( "Loading the picture of a product" )
+@Enabled( false )
+@StackTrace( false )
+public class ImageLoadEvent extends Event
+{
+  @Label( "Product Number" )
+  public String productNo;
+
+  @Label( "File" )
+  public String file;
+
+  @Label( "Outcome" )
+  @Description( "ok, missing (file not read) or error" )
+  public String outcome = "error";                 // Unless set
+
+  /**
+   * Start timing a load
+   * @param productNo Product whose picture is loaded
+   * @return the event, commit it when loaded
+   */
+  public static ImageLoadEvent begin( String productNo )
+  {
+    ImageLoadEvent ev = new ImageLoadEvent();
+    ev.productNo = productNo;
+    ev.begin();
+    return ev;
+  }
+}
@@ -0,0 +1,120 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with fixed memory use,
+ * in the style of an HDR histogram.
+ * Values below 128 are counted exactly, above that each power of two
+ * is split into 64 buckets, so a percentile is within about 1.6% of
+ * the true value however large it is.
+ * Values may be recorded by many threads at once.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class LatencyHistogram
+{
+  private static final int SUB_BITS = 6;
+  private static final int SUB      = 1 << SUB_BITS;       // 64
+  private static final int BUCKETS  = SUB * (64 - SUB_BITS + 1);
+
+  private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+  private final AtomicLong      total  = new AtomicLong();
+  private final AtomicLong      sum    = new AtomicLong();
+  private final AtomicLong      max    = new AtomicLong();
+
+  /**
+   * Record one value
+   * @param nanos Latency in nanoseconds, negative values count as 0
+   */
+  public void record( long nanos )
+  {
+    long v = Math.max( 0, nanos );
+    counts.incrementAndGet( bucket( v ) );
+    total.incrementAndGet();
+    sum.addAndGet( v );
+    max.accumulateAndGet( v, Math::max );
+  }
+
+  /**
+   * Add all the values recorded in another histogram
+   * @param other Histogram to add
+   */
+  public void add( LatencyHistogram other )
+  {
+    for ( int i = 0; i < BUCKETS; i++ )
+    {
+      long c = other.counts.get( i );
+      if ( c != 0 ) counts.addAndGet( i, c );
+    }
+    total.addAndGet( other.total.get() );
+    sum.addAndGet( other.sum.get() );
+    max.accumulateAndGet( other.max.get(), Math::max );
+  }
+
+  public long getCount()
+  {
+    return total.get();
+  }
+
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  public double getMean()
+  {
+    long n = total.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Value at or below which a percentage of the values recorded lie
+   * @param percent 0 .. 100
+   * @return the value in nanoseconds, 0 if nothing recorded
+   */
+  public long percentile( double percent )
+  {
+    long n = total.get();
+    if ( n == 0 ) return 0;
+    long want = Math.max( 1, (long) Math.ceil( n * percent / 100.0 ) );
+    long seen = 0;
+    for ( int i = 0; i < BUCKETS; i++ )
+    {
+      seen += counts.get( i );
+      if ( seen >= want ) return Math.min( highest( i ), max.get() );
+    }
+    return max.get();
+  }
+
+  /**
+   * Summary of the histogram in milliseconds
+   * @return count, mean, p50, p90, p99, p99.9 and max
+   */
+  public String summary()
+  {
+    return String.format( "n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f ms",
+                          getCount(), getMean() / 1e6,
+                          percentile( 50 ) / 1e6, percentile( 90 ) / 1e6,
+                          percentile( 99 ) / 1e6, percentile( 99.9 ) / 1e6,
+                          getMax() / 1e6 );
+  }
+
+  private static int bucket( long v )
+  {
+    if ( v < 2 * SUB ) return (int) v;
+    int shift = 63 - Long.numberOfLeadingZeros( v ) - SUB_BITS;
+    return SUB * (shift + 1) + (int) ((v >>> shift) - SUB);
+  }
+
+  /** Highest value held in a bucket */
+  private static long highest( int b )
+  {
+    if ( b < 2 * SUB ) return b;
+    int shift = b / SUB - 1;
+    if ( shift >= 63 - SUB_BITS ) return Long.MAX_VALUE;
+    return (((long) (b % SUB + SUB) + 1) << shift) - 1;
+  }
+}
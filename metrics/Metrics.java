@@ -0,0 +1,189 @@
+package metrics;
+
+import config.Config;
+import debug.DEBUG;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The counters, gauges and timers of this JVM, by name.
+ * A metric is made the first time it is asked for, and is then held
+ * in a static field by the code that uses it, so the name is only
+ * looked up once.
+ * <PRE>
+ *   private static final Timer T_BUY = Metrics.timer( "stock.buyStock" );
+ * </PRE>
+ * Each metric is also registered with JMX as catshop:type=Timer,name=...
+ * and all of them can be read as text (see text and MetricsEndpoint).
+ * Nothing is worked out until the metrics are read, so the cost while
+ * no one is looking is just the recording.
+ * Set metrics=false (see config.Config), for example with the system
+ * property catshop.metrics=false, to record nothing.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+public class Metrics
+{
+  /** Whether anything is recorded */
+  public static final boolean ENABLED = Config.get().metrics();
+
+  private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+  private static final Map<String,Object> metrics = new ConcurrentSkipListMap<>();
+
+  private Metrics() {}
+
+  /**
+   * The counter of a name, made if need be
+   * @param name Name of the counter, words separated by .
+   * @return the counter
+   */
+  public static Counter counter( String name )
+  {
+    return get( name, Counter.class, new Counter() );
+  }
+
+  /**
+   * The timer of a name, made if need be
+   * @param name Name of the timer, words separated by .
+   * @return the timer
+   */
+  public static Timer timer( String name )
+  {
+    return get( name, Timer.class, new Timer() );
+  }
+
+  /**
+   * Make a gauge, replacing any gauge of the same name
+   * @param name Name of the gauge, words separated by .
+   * @param value Gives the value when the metrics are read
+   * @return the gauge
+   */
+  public static Gauge gauge( String name, LongSupplier value )
+  {
+    Gauge g = new Gauge( value );
+    metrics.put( name, g );
+    register( name, g, true );
+    return g;
+  }
+
+  /**
+   * Remove a gauge, unless it has been replaced since it was made
+   * @param name Name of the gauge
+   * @param g    The gauge made
+   */
+  public static void remove( String name, Gauge g )
+  {
+    if ( !metrics.remove( name, g ) ) return;
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName  on     = objectName( name, g );
+      if ( server.isRegistered( on ) ) server.unregisterMBean( on );
+    } catch ( Exception | LinkageError e )
+    {
+      DEBUG.trace( "Metrics: JMX %s %s", name, e.getMessage() );
+    }
+  }
+
+  private static <T> T get( String name, Class<T> kind, T made )
+  {
+    Object m = metrics.get( name );
+    if ( m == null )
+    {
+      m = metrics.putIfAbsent( name, made );
+      if ( m == null )
+      {
+        register( name, made, false );
+        return made;
+      }
+    }
+    if ( !kind.isInstance( m ) )
+      throw new IllegalArgumentException( name + " is not a " + kind.getSimpleName() );
+    return kind.cast( m );
+  }
+
+  /**
+   * Register a metric with JMX, failure is only traced
+   */
+  private static void register( String name, Object m, boolean replace )
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName  on     = objectName( name, m );
+      if ( replace && server.isRegistered( on ) ) server.unregisterMBean( on );
+      server.registerMBean( m, on );
+    } catch ( Exception | LinkageError e )
+    {
+      DEBUG.trace( "Metrics: JMX %s %s", name, e.getMessage() );
+    }
+  }
+
+  private static ObjectName objectName( String name, Object m )
+          throws MalformedObjectNameException
+  {
+    return new ObjectName( "catshop:type=" + m.getClass().getSimpleName() +
+                           ",name=" + ObjectName.quote( name ) );
+  }
+
+  /**
+   * All the metrics as text, in the Prometheus text format.
+   * Names have . changed to _ and start catshop_, times are in seconds.
+   * <PRE>
+   * catshop_stock_buyStock_seconds{quantile="0.99"} 0.0012
+   * catshop_stock_buyStock_seconds_count 1021
+   * </PRE>
+   * @return the text
+   */
+  public static String text()
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( Map.Entry<String,Object> e : metrics.entrySet() )
+    {
+      String name = "catshop_" + e.getKey().replaceAll( "[^A-Za-z0-9_]", "_" );
+      Object m    = e.getValue();
+      if ( m instanceof Counter )
+      {
+        sb.append( "# TYPE " ).append( name ).append( "_total counter\n" );
+        line( sb, name + "_total", ((Counter) m).getCount() );
+      } else if ( m instanceof Gauge )
+      {
+        sb.append( "# TYPE " ).append( name ).append( " gauge\n" );
+        line( sb, name, ((Gauge) m).getValue() );
+      } else if ( m instanceof Timer )
+      {
+        Timer            t = (Timer) m;
+        LatencyHistogram h = t.getHistogram();
+        String           s = name + "_seconds";
+        sb.append( "# TYPE " ).append( s ).append( " summary\n" );
+        for ( String q : QUANTILES )
+          line( sb, s + "{quantile=\"" + q + "\"}",
+                h.percentile( Double.parseDouble( q ) * 100 ) / 1e9 );
+        line( sb, s + "_max",   h.getMax() / 1e9 );
+        line( sb, s + "_sum",   h.getMean() * h.getCount() / 1e9 );
+        line( sb, s + "_count", h.getCount() );
+        sb.append( "# TYPE " ).append( name ).append( "_errors_total counter\n" );
+        line( sb, name + "_errors_total", t.getErrors() );
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void line( StringBuilder sb, String name, long value )
+  {
+    sb.append( name ).append( ' ' ).append( value ).append( '\n' );
+  }
+
+  private static void line( StringBuilder sb, String name, double value )
+  {
+    sb.append( name ).append( ' ' ).append( value ).append( '\n' );
+  }
+}
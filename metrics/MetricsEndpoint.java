@@ -0,0 +1,69 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import config.Config;
+import debug.DEBUG;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics of this JVM as text on the local machine only,
+ *  http://localhost:port/metrics
+ * Started by the servers when the setting metrics.port is set
+ * (see config.Config), the metrics are only worked out when the
+ * page is fetched.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+public class MetricsEndpoint
+{
+  private static HttpServer theServer = null;
+
+  private MetricsEndpoint() {}
+
+  /**
+   * Start serving the metrics if metrics.port is set,
+   *  does nothing if already started
+   */
+  public static synchronized void startIfWanted()
+  {
+    int port = Config.get().metricsPort();
+    if ( port > 0 && theServer == null ) start( port );
+  }
+
+  /**
+   * Start serving the metrics
+   * @param port Port on the loopback address
+   */
+  public static synchronized void start( int port )
+  {
+    try
+    {
+      HttpServer server = HttpServer.create(
+        new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+      server.createContext( "/metrics", ex ->
+      {
+        byte[] body = Metrics.text().getBytes( StandardCharsets.UTF_8 );
+        ex.getResponseHeaders().set( "Content-Type",
+                                     "text/plain; version=0.0.4; charset=utf-8" );
+        ex.sendResponseHeaders( 200, body.length );
+        try ( OutputStream out = ex.getResponseBody() )
+        {
+          out.write( body );
+        }
+      } );
+      server.setExecutor( null );                  // One thread
+      server.start();
+      theServer = server;
+      System.out.println( "Metrics at http://localhost:" + port + "/metrics" );
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "MetricsEndpoint: port %d\n%s", port, e.getMessage() );
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for an order moving from one state to another (Order),
+ * only recorded when turned on, see catshop.jfc
+ * The time the order spent in the state it left shows where orders
+ * wait.  A new order comes from state "New", a collected order goes
+ * to state "Collected".
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+@Name( "catshop.OrderTransition" )
+@Label( "Order Transition" )
+@Category( { "Catshop", "Orders" } )
+@Description( "An order changing state" )
+@Enabled( false )
+@StackTrace( false )
+public class OrderTransitionEvent extends Event
+{
+  @Label( "Order Number" )
+  public int    orderNo;
+
+  @Label( "From" )
+  public String from;
+
+  @Label( "To" )
+  public String to;
+
+  @Label( "Packer" )
+  public String packer;
+
+  @Label( "Time In State" )
+  @Description( "Time spent in the state left" )
+  @Timespan( Timespan.MILLISECONDS )
+  public long   inState;
+
+  /**
+   * Record an order changing state, if the event is turned on
+   * @param orderNo Order number
+   * @param from State left
+   * @param to State entered
+   * @param packer Packer holding the order, null if none
+   * @param since Time (ms) the state left was entered, 0 if not known
+   */
+  public static void record( int orderNo, String from, String to,
+                             String packer, long since )
+  {
+    OrderTransitionEvent ev = new OrderTransitionEvent();
+    if ( !ev.isEnabled() ) return;
+    ev.orderNo = orderNo;
+    ev.from    = from;
+    ev.to      = to;
+    ev.packer  = packer;
+    ev.inState = since == 0 ? 0 : System.currentTimeMillis() - since;
+    ev.commit();
+  }
+}
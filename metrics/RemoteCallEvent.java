@@ -0,0 +1,69 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a call to the middle tier made by a facade (F_*),
+ * the round trip including any retries,
+ * only recorded when turned on, see catshop.jfc
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+@Name( "catshop.RemoteCall" )
+@Label( "Remote Call" )
+@Category( { "Catshop", "RMI" } )
+@Description( "A call to the middle tier" )
+@Enabled( false )
+@StackTrace( false )
+public class RemoteCallEvent extends Event
+{
+  @Label( "Service" )
+  @Description( "stock or order" )
+  public String service;
+
+  @Label( "Operation" )
+  public String operation;
+
+  @Label( "Target" )
+  @Description( "Product or order number, if any" )
+  public String target;
+
+  @Label( "Attempts" )
+  public int    attempts = 1;
+
+  @Label( "Outcome" )
+  public String outcome = "error";                 // Unless ok called
+
+  /**
+   * Start timing a call
+   * @param service stock or order
+   * @param operation Name of the call
+   * @param target Product or order number, null if none
+   * @return the event, commit it when the call is done
+   */
+  public static RemoteCallEvent begin( String service, String operation,
+                                       String target )
+  {
+    RemoteCallEvent ev = new RemoteCallEvent();
+    ev.service   = service;
+    ev.operation = operation;
+    ev.target    = target;
+    ev.begin();
+    return ev;
+  }
+
+  /**
+   * The call worked
+   */
+  public void ok()
+  {
+    outcome = "ok";
+  }
+}
@@ -0,0 +1,70 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a change to the stock list in the database (StockRW),
+ * only recorded when turned on, see catshop.jfc
+ * <PRE>
+ * outcome  done      the change was made
+ *          refused   not enough stock, changed by someone else,
+ *                    hold run out
+ *          error     failed
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+@Name( "catshop.StockChange" )
+@Label( "Stock Change" )
+@Category( { "Catshop", "Stock" } )
+@Description( "A change to the stock list" )
+@Enabled( false )
+@StackTrace( false )
+public class StockChangeEvent extends Event
+{
+  @Label( "Operation" )
+  public String operation;
+
+  @Label( "Product Number" )
+  public String productNo;
+
+  @Label( "Amount" )
+  public int    amount;
+
+  @Label( "Outcome" )
+  public String outcome = "error";                 // Unless set
+
+  /**
+   * Start timing a change
+   * @param operation Name of the change
+   * @param productNo Product changed, null if not known yet
+   * @param amount Quantity bought, added or held
+   * @return the event, commit it when the change is done
+   */
+  public static StockChangeEvent begin( String operation, String productNo,
+                                        int amount )
+  {
+    StockChangeEvent ev = new StockChangeEvent();
+    ev.operation = operation;
+    ev.productNo = productNo;
+    ev.amount    = amount;
+    ev.begin();
+    return ev;
+  }
+
+  /**
+   * The change was made or refused
+   * @param done true if made
+   */
+  public void done( boolean done )
+  {
+    outcome = done ? "done" : "refused";
+  }
+}
@@ -0,0 +1,67 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a read of the stock list in the database (StockR),
+ * only recorded when turned on, see catshop.jfc
+ * <PRE>
+ *   StockQueryEvent ev = StockQueryEvent.begin( "exists", pNum );
+ *   try { ... ev.ok( 1 ); return res; } finally { ev.commit(); }
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+@Name( "catshop.StockQuery" )
+@Label( "Stock Query" )
+@Category( { "Catshop", "Stock" } )
+@Description( "A read of the stock list" )
+@Enabled( false )
+@StackTrace( false )
+public class StockQueryEvent extends Event
+{
+  @Label( "Operation" )
+  public String operation;
+
+  @Label( "Product Number" )
+  public String productNo;
+
+  @Label( "Results" )
+  @Description( "Products found" )
+  public int    results;
+
+  @Label( "Outcome" )
+  public String outcome = "error";                 // Unless ok called
+
+  /**
+   * Start timing a query
+   * @param operation Name of the query
+   * @param productNo Product asked about, null if none
+   * @return the event, commit it when the query is done
+   */
+  public static StockQueryEvent begin( String operation, String productNo )
+  {
+    StockQueryEvent ev = new StockQueryEvent();
+    ev.operation = operation;
+    ev.productNo = productNo;
+    ev.begin();
+    return ev;
+  }
+
+  /**
+   * The query worked
+   * @param results Number of products found
+   */
+  public void ok( int results )
+  {
+    this.results = results;
+    this.outcome = "ok";
+  }
+}
@@ -0,0 +1,73 @@
+package metrics;
+
+/**
+ * Times an operation, recording each time taken in a LatencyHistogram.
+ * <PRE>
+ *   long start = T.start();
+ *   try { ... } finally { T.stop( start ); }
+ * </PRE>
+ * Timing costs two reads of the clock and a few atomic adds.
+ * When metrics are turned off (catshop.metrics=false) start returns 0
+ * and nothing is recorded.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class Timer implements TimerMBean
+{
+  private final LatencyHistogram times  = new LatencyHistogram();
+  private final Counter          errors = new Counter();
+
+  Timer() {}
+
+  /**
+   * @return the time now, to give to stop
+   */
+  public long start()
+  {
+    return Metrics.ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Record the time since start
+   * @param start Value returned by start
+   */
+  public void stop( long start )
+  {
+    if ( start != 0 ) times.record( System.nanoTime() - start );
+  }
+
+  /**
+   * Record a time already measured
+   * @param nanos Time taken in nanoseconds
+   */
+  public void record( long nanos )
+  {
+    if ( Metrics.ENABLED ) times.record( nanos );
+  }
+
+  /**
+   * Count a failed operation, its time is still recorded by stop
+   */
+  public void error()
+  {
+    errors.inc();
+  }
+
+  /**
+   * @return the times recorded
+   */
+  public LatencyHistogram getHistogram()
+  {
+    return times;
+  }
+
+  public long   getCount()  { return times.getCount(); }
+  public long   getErrors() { return errors.getCount(); }
+  public double getMeanMs() { return times.getMean() / 1e6; }
+  public double getP50Ms()  { return times.percentile( 50 ) / 1e6; }
+  public double getP90Ms()  { return times.percentile( 90 ) / 1e6; }
+  public double getP99Ms()  { return times.percentile( 99 ) / 1e6; }
+  public double getP999Ms() { return times.percentile( 99.9 ) / 1e6; }
+  public double getMaxMs()  { return times.getMax() / 1e6; }
+}
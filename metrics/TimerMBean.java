@@ -0,0 +1,19 @@
+package metrics;
+
+/**
+ * JMX view of a Timer, times in milliseconds
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public interface TimerMBean
+{
+  long   getCount();
+  long   getErrors();
+  double getMeanMs();
+  double getP50Ms();
+  double getP90Ms();
+  double getP99Ms();
+  double getP999Ms();
+  double getMaxMs();
+}
@@ -0,0 +1,52 @@
+package middle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+  * Runs middle tier calls in the background for the Async interfaces.
+  * Each call runs on its own virtual thread, so a call waiting on the
+  * network or the database costs little and many can be outstanding.
+  * A call that fails completes its future with the StockException or
+  * OrderException thrown, not wrapped.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public final class Async
+{
+  private static final ExecutorService theExecutor =
+                         Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * A middle tier call
+   */
+  public interface Call<T>
+  {
+    T call() throws Exception;
+  }
+
+  private Async() {}
+
+  /**
+   * Start a call in the background
+   * @param call The call to make
+   * @return future completed with the result of the call
+   */
+  public static <T> CompletableFuture<T> call( Call<T> call )
+  {
+    CompletableFuture<T> res = new CompletableFuture<>();
+    theExecutor.execute( () ->
+    {
+      try
+      {
+        res.complete( call.call() );
+      } catch ( Throwable e )
+      {
+        res.completeExceptionally( e );
+      }
+    } );
+    return res;
+  }
+}
@@ -0,0 +1,157 @@
+package middle;
+
+import catalogue.Basket;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * The order processing system without waiting for the answer.
+  * Each call returns at once, the future is completed when the
+  * answer arrives, or fails with the OrderException thrown.
+  * @author  Mike Smith University of Brighton
+  * @version 1.2
+  */
+
+public interface AsyncOrderProcessing extends OrderProcessing
+{
+                                                   // Used by
+  default CompletableFuture<Void> newOrderAsync( Basket bought ) // Cashier
+  {
+    return Async.call( () -> { newOrder( bought ); return null; } );
+  }
+
+  default CompletableFuture<Integer> uniqueNumberAsync() // Cashier
+  {
+    return Async.call( this::uniqueNumber );
+  }
+
+  default CompletableFuture<Basket> getOrderToPackAsync() // Packer
+  {
+    return Async.call( this::getOrderToPack );
+  }
+
+  default CompletableFuture<Boolean> informOrderPackedAsync( int orderNum,
+                                                             String packerId )
+  {
+    return Async.call( () -> informOrderPacked( orderNum, packerId ) );
+  }
+
+  default CompletableFuture<List<Basket>> getOrdersToPackAsync( String packerId,
+                                                                int max,
+                                                                long leaseTime )
+  {
+    return Async.call( () -> getOrdersToPack( packerId, max, leaseTime ) );
+  }
+
+  default CompletableFuture<int[]> renewLeasesAsync( String packerId,
+                                                     int[] orderNums,
+                                                     long leaseTime )
+  {
+    return Async.call( () -> renewLeases( packerId, orderNums, leaseTime ) );
+  }
+
+  default CompletableFuture<Boolean> informOrderCollectedAsync( int orderNum )
+  {
+    return Async.call( () -> informOrderCollected( orderNum ) );
+  }
+
+  default CompletableFuture<OrderStateNumbers> getOrderStateNumbersAsync()
+  {
+    return Async.call( this::getOrderStateNumbers );
+  }
+
+  default CompletableFuture<int[]> getOrderStateCountsAsync() // Display
+  {
+    return Async.call( this::getOrderStateCounts );
+  }
+
+  default CompletableFuture<OrderReportPage> getOrderReportPageAsync(
+                                               OrderReportPage previous,
+                                               int pageSize )
+  {
+    return Async.call( () -> getOrderReportPage( previous, pageSize ) );
+  }
+
+  /**
+   * Async access to any order processing system
+   * @param order The order processing system
+   * @return order if it is already async, otherwise a wrapper round it
+   */
+  static AsyncOrderProcessing of( OrderProcessing order )
+  {
+    if ( order instanceof AsyncOrderProcessing ) return (AsyncOrderProcessing) order;
+    return new AsyncOrderProcessing()
+    {
+      public void newOrder( Basket bought ) throws OrderException
+      {
+        order.newOrder( bought );
+      }
+
+      public int uniqueNumber() throws OrderException
+      {
+        return order.uniqueNumber();
+      }
+
+      public Basket getOrderToPack() throws OrderException
+      {
+        return order.getOrderToPack();
+      }
+
+      public boolean informOrderPacked( int orderNum, String packerId )
+             throws OrderException
+      {
+        return order.informOrderPacked( orderNum, packerId );
+      }
+
+      public List<Basket> getOrdersToPack( String packerId, int max,
+                                           long leaseTime )
+             throws OrderException
+      {
+        return order.getOrdersToPack( packerId, max, leaseTime );
+      }
+
+      public int[] renewLeases( String packerId, int[] orderNums,
+                                long leaseTime )
+             throws OrderException
+      {
+        return order.renewLeases( packerId, orderNums, leaseTime );
+      }
+
+      public boolean informOrderCollected( int orderNum ) throws OrderException
+      {
+        return order.informOrderCollected( orderNum );
+      }
+
+      public Map<String,List<Integer>> getOrderState() throws OrderException
+      {
+        return order.getOrderState();
+      }
+
+      public OrderStateNumbers getOrderStateNumbers() throws OrderException
+      {
+        return order.getOrderStateNumbers();
+      }
+
+      public int[] getOrderStateCounts() throws OrderException
+      {
+        return order.getOrderStateCounts();
+      }
+
+      public String generateOrderReport()
+             throws RemoteException, OrderException
+      {
+        return order.generateOrderReport();
+      }
+
+      public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                                 int pageSize )
+             throws OrderException
+      {
+        return order.getOrderReportPage( previous, pageSize );
+      }
+    };
+  }
+}
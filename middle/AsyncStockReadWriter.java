@@ -0,0 +1,118 @@
+package middle;
+
+import catalogue.Product;
+
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * Read/write access to the stock list without waiting for the answer.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface AsyncStockReadWriter extends StockReadWriter, AsyncStockReader
+{
+  default CompletableFuture<Boolean> buyStockAsync( String pNum, int amount )
+  {
+    return Async.call( () -> buyStock( pNum, amount ) );
+  }
+
+  default CompletableFuture<Void> addStockAsync( String pNum, int amount )
+  {
+    return Async.call( () -> { addStock( pNum, amount ); return null; } );
+  }
+
+  default CompletableFuture<Void> modifyStockAsync( Product detail )
+  {
+    return Async.call( () -> { modifyStock( detail ); return null; } );
+  }
+
+  default CompletableFuture<Boolean> modifyStockAsync( Product detail, int version )
+  {
+    return Async.call( () -> modifyStock( detail, version ) );
+  }
+
+  default CompletableFuture<String> reserveStockAsync( String pNum, int amount, long ttl )
+  {
+    return Async.call( () -> reserveStock( pNum, amount, ttl ) );
+  }
+
+  default CompletableFuture<Boolean> commitReservationAsync( String token )
+  {
+    return Async.call( () -> commitReservation( token ) );
+  }
+
+  default CompletableFuture<Void> releaseReservationAsync( String token )
+  {
+    return Async.call( () -> { releaseReservation( token ); return null; } );
+  }
+
+  /**
+   * Async access to any stock read writer
+   * @param stock The stock read writer
+   * @return stock if it is already async, otherwise a wrapper round it
+   */
+  static AsyncStockReadWriter of( StockReadWriter stock )
+  {
+    if ( stock instanceof AsyncStockReadWriter ) return (AsyncStockReadWriter) stock;
+    return new AsyncStockReadWriter()
+    {
+      public boolean exists( String pNum ) throws StockException
+      {
+        return stock.exists( pNum );
+      }
+
+      public Product getDetails( String pNum ) throws StockException
+      {
+        return stock.getDetails( pNum );
+      }
+
+      public ImageIcon getImage( String pNum ) throws StockException
+      {
+        return stock.getImage( pNum );
+      }
+
+      public List<Product> search( String text, int max ) throws StockException
+      {
+        return stock.search( text, max );
+      }
+
+      public boolean buyStock( String pNum, int amount ) throws StockException
+      {
+        return stock.buyStock( pNum, amount );
+      }
+
+      public void addStock( String pNum, int amount ) throws StockException
+      {
+        stock.addStock( pNum, amount );
+      }
+
+      public void modifyStock( Product detail ) throws StockException
+      {
+        stock.modifyStock( detail );
+      }
+
+      public boolean modifyStock( Product detail, int version ) throws StockException
+      {
+        return stock.modifyStock( detail, version );
+      }
+
+      public String reserveStock( String pNum, int amount, long ttl ) throws StockException
+      {
+        return stock.reserveStock( pNum, amount, ttl );
+      }
+
+      public boolean commitReservation( String token ) throws StockException
+      {
+        return stock.commitReservation( token );
+      }
+
+      public void releaseReservation( String token ) throws StockException
+      {
+        stock.releaseReservation( token );
+      }
+    };
+  }
+}
@@ -0,0 +1,70 @@
+package middle;
+
+import catalogue.Product;
+
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * Read access to the stock list without waiting for the answer.
+  * Each call returns at once, the future is completed when the
+  * answer arrives, or fails with the StockException thrown.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface AsyncStockReader extends StockReader
+{
+  default CompletableFuture<Boolean> existsAsync( String pNum )
+  {
+    return Async.call( () -> exists( pNum ) );
+  }
+
+  default CompletableFuture<Product> getDetailsAsync( String pNum )
+  {
+    return Async.call( () -> getDetails( pNum ) );
+  }
+
+  default CompletableFuture<ImageIcon> getImageAsync( String pNum )
+  {
+    return Async.call( () -> getImage( pNum ) );
+  }
+
+  default CompletableFuture<List<Product>> searchAsync( String text, int max )
+  {
+    return Async.call( () -> search( text, max ) );
+  }
+
+  /**
+   * Async access to any stock reader
+   * @param reader The stock reader
+   * @return reader if it is already async, otherwise a wrapper round it
+   */
+  static AsyncStockReader of( StockReader reader )
+  {
+    if ( reader instanceof AsyncStockReader ) return (AsyncStockReader) reader;
+    return new AsyncStockReader()
+    {
+      public boolean exists( String pNum ) throws StockException
+      {
+        return reader.exists( pNum );
+      }
+
+      public Product getDetails( String pNum ) throws StockException
+      {
+        return reader.getDetails( pNum );
+      }
+
+      public ImageIcon getImage( String pNum ) throws StockException
+      {
+        return reader.getImage( pNum );
+      }
+
+      public List<Product> search( String text, int max ) throws StockException
+      {
+        return reader.search( text, max );
+      }
+    };
+  }
+}
@@ -2,59 +2,169 @@ package middle;
 
 import catalogue.Basket;
 import debug.DEBUG;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.RemoteCallEvent;
+import metrics.Timer;
 import remote.RemoteOrder_I;
 
+import java.net.MalformedURLException;
 import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Not synchronized, RMI stubs may be used by several threads at once
+// so calls (for example from the Async methods) can overlap
 
 /**
  * Facade for the order processing handling which is implemented on the middle tier.
- * This code is incomplete
+ * A change that fails on the network, or finds the middle tier object
+ * not bound while it restarts, is sent again, up to RETRIES
+ * times, with the key it was first sent with, so the middle tier
+ * makes it only once even if the first did get through.
+ * Each call is timed, round trip to the middle tier and any retries
+ * (metrics rmi.*), and is a JFR event (catshop.RemoteCall) when turned on.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.5
  */
 
-public class F_Order implements OrderProcessing
+public class F_Order implements AsyncOrderProcessing
 {
-  private RemoteOrder_I aR_Order    = null;
-  private String        theOrderURL = null;
+  private volatile RemoteOrder_I aR_Order    = null;
+  private String                 theOrderURL = null;
+
+  private static final int  RETRIES  = 3;          // Sent again after
+  private static final long RETRY_MS = 20;         //  a network failure
+
+  private static final Timer   T_REPORT  = Metrics.timer( "rmi.order.generateOrderReport" );
+  private static final Timer   T_RENEW   = Metrics.timer( "rmi.order.renewLeases" );
+  private static final Timer   T_STATE   = Metrics.timer( "rmi.order.getOrderStateNumbers" );
+  private static final Timer   T_COUNTS  = Metrics.timer( "rmi.order.getOrderStateCounts" );
+  private static final Timer   T_PAGE    = Metrics.timer( "rmi.order.getOrderReportPage" );
+  private static final Counter C_RETRIES = Metrics.counter( "rmi.order.retries" );
 
   public F_Order(String url)
   {
     theOrderURL = url;
   }
   
-  private void connect() throws OrderException
+  private RemoteOrder_I connect() throws OrderException
   {
     try                                            // Setup
     {                                              //  connection
-      aR_Order =                                   //  Connect to
-       (RemoteOrder_I) Naming.lookup(theOrderURL); // Stub returned
+      return lookup();
     }
-    catch ( Exception e )                          // Failure to
+    catch ( RemoteException e )                    // Failure to
     {                                              //  attach to the
-      aR_Order = null;
       throw new OrderException( "Com: " + 
                                e.getMessage()  );  //  object
-      
     }
   }
 
-  public synchronized String generateOrderReport() throws OrderException {
+  /**
+   * The stub of the middle tier object, looked up if not connected.
+   * Failing to look it up is a network failure, so a change is sent
+   *  again (see change).
+   */
+  private RemoteOrder_I lookup() throws RemoteException
+  {
+    RemoteOrder_I stub = aR_Order;
+    if ( stub != null ) return stub;               // Connected
+    try
+    {
+      stub =                                       //  Connect to
+       (RemoteOrder_I) Naming.lookup(theOrderURL); // Stub returned
+    } catch ( NotBoundException | MalformedURLException e )
+    {
+      throw new RemoteException( e.getMessage(), e );
+    }
+    aR_Order = stub;
+    return stub;
+  }
+
+  /**
+   * A change made on the middle tier, sent with the key of the request
+   */
+  private interface Change<T>
+  {
+    T on( RemoteOrder_I stub, String key )
+      throws RemoteException, OrderException;
+  }
+
+  /**
+   * Make a change on the middle tier, sending it again if the network
+   *  fails, with the same key each time
+   * @param what Name of the change, for tracing
+   * @param target Product or order number changed, for tracing
+   * @param change The change
+   * @return the reply
+   * @throws OrderException if it fails, or the network still fails
+   */
+  private <T> T change( String what, String target, Change<T> change )
+          throws OrderException
+  {
+    Timer           timer = Metrics.timer( "rmi.order." + what );
+    long            start = timer.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", what, target );
+    String          key   = UUID.randomUUID().toString();
+    try
+    {
+      for ( int i = 0; ; i++ )
+      {
+        try
+        {
+          ev.attempts = i + 1;
+          T res = change.on( lookup(), key );
+          ev.ok();
+          return res;
+        } catch ( RemoteException e )
+        {
+          aR_Order = null;                         // Connect again
+          if ( i == RETRIES )
+          {
+            timer.error();
+            throw new OrderException( "Net: " + e.getMessage() );
+          }
+          C_RETRIES.inc();
+          DEBUG.trace( "F_Order:%s retry %d %s", what, i + 1, e.getMessage() );
+        }
+        try
+        {
+          Thread.sleep( RETRY_MS << i );           // Back off
+        } catch ( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+          throw new OrderException( "Net: interrupted" );
+        }
+      }
+    } finally
+    {
+      timer.stop( start );
+      ev.commit();
+    }
+  }
+
+  public String generateOrderReport() throws OrderException {
     DEBUG.trace("F_Order:generateOrderReport()");
+    long            start = T_REPORT.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", "generateOrderReport", null );
     try
     {
-      if (aR_Order == null) connect();
-      return aR_Order.generateOrderReport();
+      String res = connect().generateOrderReport();
+      ev.ok();
+      return res;
     } catch (Exception e)
     {
+      T_REPORT.error();
       aR_Order = null;
       throw new OrderException("Net: " + e.getMessage());
+    } finally
+    {
+      T_REPORT.stop( start );
+      ev.commit();
     }
   }
 
@@ -62,30 +172,18 @@ public class F_Order implements OrderProcessing
          throws OrderException
   {
     DEBUG.trace("F_Order:newOrder()" );
-    try
+    change( "newOrder", Integer.toString( bought.getOrderNum() ), (stub, key) ->
     {
-      if ( aR_Order == null ) connect();
-      aR_Order.newOrder( bought );
-    } catch ( Exception e )
-    {
-      aR_Order = null;
-      throw new OrderException( "Net: " + e.getMessage() );
-    }
+      stub.newOrder( key, bought );
+      return null;
+    } );
   }
 
   public int uniqueNumber()
          throws OrderException
   {
     DEBUG.trace("F_Order:uniqueNumber()" );
-    try
-    {
-      if ( aR_Order == null ) connect();
-      return aR_Order.uniqueNumber();
-    } catch ( Exception e )
-    {
-      aR_Order = null;
-      throw new OrderException( "Net: " + e.getMessage() );
-    }
+    return change( "uniqueNumber", null, (stub, key) -> stub.uniqueNumber( key ) );
   }
 
   /**
@@ -94,78 +192,173 @@ public class F_Order implements OrderProcessing
    * @return An order to pick
    */
 
-  public synchronized Basket getOrderToPack()
+  public Basket getOrderToPack()
          throws OrderException
   {
     DEBUG.trace("F_Order:getOrderTioPack()" );
+    return change( "getOrderToPack", null, (stub, key) -> stub.getOrderToPack( key ) );
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * picked and the products are now on the conveyor belt to
+   * the shop floor.
+   */
+
+  public boolean informOrderPacked( int orderNum, String packerId )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:informOrderPacked()" );
+    return change( "informOrderPacked", Integer.toString( orderNum ),
+                   (stub, key) -> stub.informOrderPacked( key, orderNum, packerId ) );
+  }
+
+  /**
+   * Take up to max orders to pack, each leased to the packer
+   */
+
+  public List<Basket> getOrdersToPack( String packerId, int max,
+                                       long leaseTime )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:getOrdersToPack()" );
+    return change( "getOrdersToPack", packerId, (stub, key) ->
+                   stub.getOrdersToPack( key, packerId, max, leaseTime ) );
+  }
+
+  /**
+   * Renew the leases on the orders held by the packer
+   */
+
+  public int[] renewLeases( String packerId, int[] orderNums,
+                            long leaseTime )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:renewLeases()" );
+    long            start = T_RENEW.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", "renewLeases", packerId );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.getOrderToPack();
+      int[] res = connect().renewLeases( packerId, orderNums, leaseTime );
+      ev.ok();
+      return res;
     } catch ( Exception e )
     {
+      T_RENEW.error();
       aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_RENEW.stop( start );
+      ev.commit();
     }
   }
 
   /**
    * Informs the order processing system that the order has been
-   * picked and the products are now on the conveyor belt to
-   * the shop floor.
+   * collected by the customer
    */
 
-  public synchronized boolean informOrderPacked( int orderNum )
+  public boolean informOrderCollected( int orderNum )
          throws OrderException
   {
-    DEBUG.trace("F_Order:informOrderPacked()" );
+    DEBUG.trace("F_Order:informOrderCollected()" );
+    return change( "informOrderCollected", Integer.toString( orderNum ),
+                   (stub, key) -> stub.informOrderCollected( key, orderNum ) );
+  }
+
+  /**
+   * Returns information about all orders in the order processing system,
+   *  sent as primitive arrays and then converted
+   */
+
+  public Map<String, List<Integer> > getOrderState()
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:getOrderState()" );
+    return getOrderStateNumbers().toMap();
+  }
+
+  /**
+   * Returns the order numbers of the orders in each state
+   */
+
+  public OrderStateNumbers getOrderStateNumbers()
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:getOrderStateNumbers()" );
+    long            start = T_STATE.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", "getOrderStateNumbers", null );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.informOrderPacked(orderNum);
+      OrderStateNumbers res = connect().getOrderStateNumbers();
+      ev.ok();
+      return res;
     } catch ( Exception e )
     {
+      T_STATE.error();
       aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_STATE.stop( start );
+      ev.commit();
     }
   }
 
   /**
-   * Informs the order processing system that the order has been
-   * collected by the customer
+   * Returns the number of orders in each state
    */
 
-  public synchronized boolean informOrderCollected( int orderNum )
+  public int[] getOrderStateCounts()
          throws OrderException
   {
-    DEBUG.trace("F_Order:informOrderCollected()" );
+    DEBUG.trace("F_Order:getOrderStateCounts()" );
+    long            start = T_COUNTS.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", "getOrderStateCounts", null );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.informOrderCollected(orderNum);
+      int[] res = connect().getOrderStateCounts();
+      ev.ok();
+      return res;
     } catch ( Exception e )
     {
+      T_COUNTS.error();
       aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_COUNTS.stop( start );
+      ev.commit();
     }
   }
 
   /**
-   * Returns information about all orders in the order processing system
+   * Returns the next page of the report of all orders,
+   *  so that a large report is not sent in one go
    */
 
-  public synchronized Map<String, List<Integer> > getOrderState()
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
          throws OrderException
   {
-    DEBUG.trace("F_Order:getOrderState()" );
+    DEBUG.trace("F_Order:getOrderReportPage()" );
+    long            start = T_PAGE.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "order", "getOrderReportPage", null );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.getOrderState();
+      OrderReportPage res = connect().getOrderReportPage( previous, pageSize );
+      ev.ok();
+      return res;
     } catch ( Exception e )
     {
+      T_PAGE.error();
       aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_PAGE.stop( start );
+      ev.commit();
     }
   }
 }
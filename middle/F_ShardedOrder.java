@@ -0,0 +1,282 @@
+package middle;
+
+import catalogue.Basket;
+import debug.DEBUG;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Facade for an order processing system that is partitioned
+ * by order number across several middle tier nodes.
+ * Each node issues order numbers from its own range
+ * (see Server -shard) so numbers are unique across the nodes.
+ * An order stays on the node that issued its number, so calls about
+ * a known order are routed by the range of its number to that node,
+ * learnt when a number or an order is got from a node.  Nodes joining
+ * or leaving do not move orders.  An order of a range not yet seen is
+ * looked for on each node in turn (a new order of such a range goes
+ * to the node of the ring).  Calls that are not about one order (get
+ * an order to pack, the state of all orders) visit the nodes in turn.
+ * @author  Mike Smith University of Brighton
+ * @version 1.4
+ */
+
+public class F_ShardedOrder implements AsyncOrderProcessing
+{
+  private final HashRing ring;
+  private final Map<String,OrderProcessing> orders = new ConcurrentHashMap<>();
+  private final AtomicInteger next = new AtomicInteger();   // Round robin
+  // Node that issued the order numbers of a range, by range
+  private final Map<Integer,String> issuers = new ConcurrentHashMap<>();
+
+  private static final int NEXT_NODE = -2;         // Report page state
+
+  public F_ShardedOrder( HashRing aRing )
+  {
+    ring = aRing;
+  }
+
+  private OrderProcessing order( String node )
+  {
+    return orders.computeIfAbsent( node, n -> new F_Order( Names.order( n ) ) );
+  }
+
+  /**
+   * Remember the node an order number came from
+   */
+  private void learn( int orderNum, String node )
+  {
+    issuers.putIfAbsent( orderNum / Server.ORDER_RANGE, node );
+  }
+
+  /**
+   * The node that issued an order number, null if not known
+   */
+  private String issuer( int orderNum )
+  {
+    return issuers.get( orderNum / Server.ORDER_RANGE );
+  }
+
+  /**
+   * Carry out a change of state of an order on the node that issued
+   *  it, or if not known on each node in turn until one has the order
+   */
+  private boolean onIssuer( int orderNum, Change change )
+          throws OrderException
+  {
+    String node = issuer( orderNum );
+    if ( node != null )
+    {
+      DEBUG.trace( "F_ShardedOrder: #%d -> %s", orderNum, node );
+      return change.on( order( node ) );
+    }
+    for ( String n : nodesInTurn() )
+    {
+      if ( change.on( order( n ) ) )
+      {
+        learn( orderNum, n );
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private interface Change
+  {
+    boolean on( OrderProcessing order ) throws OrderException;
+  }
+
+  /**
+   * Nodes in the ring starting at the next one in round robin order,
+   *  so that work is spread across the nodes
+   * @return list of nodes
+   * @throws OrderException if no nodes are available
+   */
+  private List<String> nodesInTurn() throws OrderException
+  {
+    List<String> nodes = ring.getNodes();
+    if ( nodes.isEmpty() )
+      throw new OrderException( "Net: no order nodes available" );
+    int start = Math.floorMod( next.getAndIncrement(), nodes.size() );
+    List<String> res = new ArrayList<>( nodes.size() );
+    for ( int i = 0; i < nodes.size(); i++ )
+      res.add( nodes.get( (start + i) % nodes.size() ) );
+    return res;
+  }
+
+  public void newOrder( Basket bought ) throws OrderException
+  {
+    int    num  = bought.getOrderNum();
+    String node = issuer( num );
+    if ( node == null )                            // Not from here
+    {
+      node = ring.nodeFor( Integer.toString( num ) );
+      if ( node == null )
+        throw new OrderException( "Net: no order nodes available" );
+      learn( num, node );
+    }
+    order( node ).newOrder( bought );
+  }
+
+  public int uniqueNumber() throws OrderException
+  {
+    String node = nodesInTurn().get( 0 );
+    int    num  = order( node ).uniqueNumber();
+    learn( num, node );
+    return num;
+  }
+
+  public Basket getOrderToPack() throws OrderException
+  {
+    for ( String node : nodesInTurn() )
+    {
+      Basket basket = order( node ).getOrderToPack();
+      if ( basket != null )
+      {
+        learn( basket.getOrderNum(), node );
+        return basket;
+      }
+    }
+    return null;
+  }
+
+  public List<Basket> getOrdersToPack( String packerId, int max,
+                                       long leaseTime )
+         throws OrderException
+  {
+    List<Basket> res = new ArrayList<>();
+    for ( String node : nodesInTurn() )
+    {
+      if ( res.size() >= max ) break;
+      for ( Basket b : order( node ).getOrdersToPack( packerId,
+                                                      max - res.size(),
+                                                      leaseTime ) )
+      {
+        learn( b.getOrderNum(), node );
+        res.add( b );
+      }
+    }
+    return res;
+  }
+
+  public int[] renewLeases( String packerId, int[] orderNums,
+                            long leaseTime )
+         throws OrderException
+  {
+    List<int[]> renewed = new ArrayList<>();        // Each node renews
+    for ( String node : ring.getNodes() )           //  its own orders
+      renewed.add( order( node ).renewLeases( packerId, orderNums, leaseTime ) );
+    return renewed.stream().flatMapToInt( Arrays::stream ).toArray();
+  }
+
+  public boolean informOrderPacked( int orderNum, String packerId )
+         throws OrderException
+  {
+    return onIssuer( orderNum, o -> o.informOrderPacked( orderNum, packerId ) );
+  }
+
+  public boolean informOrderCollected( int orderNum ) throws OrderException
+  {
+    return onIssuer( orderNum, o -> o.informOrderCollected( orderNum ) );
+  }
+
+  public Map<String, List<Integer>> getOrderState() throws OrderException
+  {
+    return getOrderStateNumbers().toMap();
+  }
+
+  public OrderStateNumbers getOrderStateNumbers() throws OrderException
+  {
+    int[] waiting = new int[0], packing = new int[0], collect = new int[0];
+    for ( String node : ring.getNodes() )
+    {
+      OrderStateNumbers nums = order( node ).getOrderStateNumbers();
+      for ( int[] ns : new int[][] { nums.getWaiting(), nums.getBeingPacked(),
+                                     nums.getToBeCollected() } )
+        for ( int n : ns ) learn( n, node );
+      waiting = concat( waiting, nums.getWaiting() );
+      packing = concat( packing, nums.getBeingPacked() );
+      collect = concat( collect, nums.getToBeCollected() );
+    }
+    return new OrderStateNumbers( waiting, packing, collect );
+  }
+
+  public int[] getOrderStateCounts() throws OrderException
+  {
+    int[] res = new int[ 3 ];
+    for ( String node : ring.getNodes() )
+    {
+      int[] counts = order( node ).getOrderStateCounts();
+      for ( int i = 0; i < res.length; i++ ) res[ i ] += counts[ i ];
+    }
+    return res;
+  }
+
+  private static int[] concat( int[] a, int[] b )
+  {
+    int[] res = java.util.Arrays.copyOf( a, a.length + b.length );
+    System.arraycopy( b, 0, res, a.length, b.length );
+    return res;
+  }
+
+  public String generateOrderReport() throws OrderException
+  {
+    StringBuilder report = new StringBuilder();
+    for ( String node : ring.getNodes() )
+    {
+      report.append( String.format( "NODE %s%n", node ) );
+      try
+      {
+        report.append( order( node ).generateOrderReport() );
+      } catch ( java.rmi.RemoteException e )
+      {
+        throw new OrderException( "Net: " + e.getMessage() );
+      }
+      report.append( String.format( "%n" ) );
+    }
+    return report.toString();
+  }
+
+  /**
+   * Report the nodes one after another, each page records the name of
+   *  the node it came from so that the next page is asked of the same
+   *  node, and the node after it is found by name however the nodes
+   *  have changed.  A node that joins while the report is read is
+   *  reported if it joins before the last node is finished.
+   *  If the node of the next page has left the report ends, saying so.
+   */
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
+         throws OrderException
+  {
+    List<String> nodes = ring.getNodes();
+    if ( nodes.isEmpty() )
+      return new OrderReportPage( String.format( "No nodes%n" ),
+                                  NEXT_NODE, 0, true, null );
+    String  node  = previous == null ? nodes.get( 0 ) : previous.getNode();
+    boolean fresh = previous == null || previous.getState() == NEXT_NODE;
+    int     at    = nodes.indexOf( node );
+    if ( at < 0 )                                  // Node has left
+      return new OrderReportPage(
+        String.format( "NODE %s has left, the rest of the report is lost%n", node ),
+        NEXT_NODE, 0, true, node );
+
+    OrderReportPage page = order( node )
+                             .getOrderReportPage( fresh ? null : previous,
+                                                  pageSize );
+    String text = fresh
+                  ? String.format( "NODE %s%n%s", node, page.getText() )
+                  : page.getText();
+    if ( page.isLast() && at + 1 < nodes.size() )
+      return new OrderReportPage( text + String.format( "%n" ),
+                                  NEXT_NODE, 0, false, nodes.get( at + 1 ) );
+    return new OrderReportPage( text, page.getState(), page.getAfter(),
+                                page.isLast(), node,
+                                page.getReport(), page.getNext() );
+  }
+}
@@ -0,0 +1,110 @@
+package middle;
+
+import catalogue.Product;
+import debug.DEBUG;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Facade for read access to a stock list that is partitioned
+ * by product number across several middle tier nodes.
+ * Each call is routed to the node that owns the product number.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class F_ShardedStockR implements AsyncStockReader
+{
+  protected final HashRing ring;
+  private final Map<String,StockReader> readers = new ConcurrentHashMap<>();
+
+  public F_ShardedStockR( HashRing aRing )
+  {
+    ring = aRing;
+  }
+
+  /**
+   * Return the name of the node that holds the product
+   * @param pNum Product number
+   * @return name of node
+   * @throws StockException if no nodes are available
+   */
+  protected String nodeFor( String pNum ) throws StockException
+  {
+    String node = ring.nodeFor( pNum );
+    if ( node == null )
+      throw new StockException( "Net: no stock nodes available" );
+    DEBUG.trace( "F_ShardedStockR: %s -> %s", pNum, node );
+    return node;
+  }
+
+  private StockReader reader( String pNum ) throws StockException
+  {
+    return readerOn( nodeFor( pNum ) );
+  }
+
+  private StockReader readerOn( String node )
+  {
+    return readers.computeIfAbsent( node,
+                                    n -> new F_StockR( Names.stockR( n ) ) );
+  }
+
+  public boolean exists( String pNum ) throws StockException
+  {
+    return reader( pNum ).exists( pNum );
+  }
+
+  public Product getDetails( String pNum ) throws StockException
+  {
+    return reader( pNum ).getDetails( pNum );
+  }
+
+  public ImageIcon getImage( String pNum ) throws StockException
+  {
+    return reader( pNum ).getImage( pNum );
+  }
+
+  /**
+   * Every node holds some of the products, so every node is asked
+   * at the same time.  The best of each node's answer come first.
+   */
+  public List<Product> search( String text, int max ) throws StockException
+  {
+    List<String> nodes = ring.getNodes();
+    if ( nodes.isEmpty() )
+      throw new StockException( "Net: no stock nodes available" );
+    List<CompletableFuture<List<Product>>> asked = new ArrayList<>();
+    for ( String node : nodes )
+      asked.add( AsyncStockReader.of( readerOn( node ) ).searchAsync( text, max ) );
+    List<List<Product>> answers = new ArrayList<>();
+    for ( CompletableFuture<List<Product>> f : asked )
+    {
+      try
+      {
+        answers.add( f.join() );
+      } catch ( CompletionException e )
+      {
+        DEBUG.error( "F_ShardedStockR.search\n%s", e.getCause().getMessage() );
+      }
+    }
+    List<Product> res = new ArrayList<>();         // Take in turn
+    for ( int i = 0; res.size() < max; i++ )
+    {
+      boolean more = false;
+      for ( List<Product> a : answers )
+      {
+        if ( i >= a.size() ) continue;
+        more = true;
+        if ( res.size() < max ) res.add( a.get( i ) );
+      }
+      if ( !more ) break;
+    }
+    return res;
+  }
+}
@@ -0,0 +1,75 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Facade for read/write access to a stock list that is partitioned
+ * by product number across several middle tier nodes.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class F_ShardedStockRW extends F_ShardedStockR
+                              implements AsyncStockReadWriter
+{
+  private final Map<String,StockReadWriter> writers = new ConcurrentHashMap<>();
+
+  public F_ShardedStockRW( HashRing aRing )
+  {
+    super( aRing );
+  }
+
+  private StockReadWriter writer( String pNum ) throws StockException
+  {
+    return writers.computeIfAbsent( nodeFor( pNum ),
+                                    n -> new F_StockRW( Names.stockRW( n ) ) );
+  }
+
+  public boolean buyStock( String pNum, int amount ) throws StockException
+  {
+    return writer( pNum ).buyStock( pNum, amount );
+  }
+
+  public void addStock( String pNum, int amount ) throws StockException
+  {
+    writer( pNum ).addStock( pNum, amount );
+  }
+
+  public void modifyStock( Product detail ) throws StockException
+  {
+    writer( detail.getProductNum() ).modifyStock( detail );
+  }
+
+  public boolean modifyStock( Product detail, int version ) throws StockException
+  {
+    return writer( detail.getProductNum() ).modifyStock( detail, version );
+  }
+
+  public String reserveStock( String pNum, int amount, long ttl ) throws StockException
+  {
+    return writer( pNum ).reserveStock( pNum, amount, ttl );
+  }
+
+  /**
+   * The hold is with the node of the product, its number starts the token
+   */
+  public boolean commitReservation( String token ) throws StockException
+  {
+    return writer( productOf( token ) ).commitReservation( token );
+  }
+
+  public void releaseReservation( String token ) throws StockException
+  {
+    writer( productOf( token ) ).releaseReservation( token );
+  }
+
+  private static String productOf( String token ) throws StockException
+  {
+    int at = token == null ? -1 : token.indexOf( '/' );
+    if ( at < 0 ) throw new StockException( "Not a stock hold " + token );
+    return token.substring( 0, at );
+  }
+}
@@ -5,26 +5,37 @@ package middle;
  * The actual implementation of this is held on the middle tier.
  * The actual stock list is held in a relational DataBase on the 
  * third tier.
+ * Each call is timed, round trip to the middle tier (metrics rmi.*),
+ * and is a JFR event (catshop.RemoteCall) when turned on.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  */
 
 import catalogue.Product;
 import debug.DEBUG;
+import metrics.Metrics;
+import metrics.RemoteCallEvent;
+import metrics.Timer;
 import remote.RemoteStockR_I;
 
 import javax.swing.*;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Setup connection to the middle tier
  */
 
-public class F_StockR implements StockReader
+public class F_StockR implements AsyncStockReader
 {
-  private RemoteStockR_I aR_StockR   = null;
-  private String         theStockURL = null;
+  private volatile RemoteStockR_I aR_StockR   = null;
+  private String                  theStockURL = null;
+
+  private static final Timer T_EXISTS  = Metrics.timer( "rmi.stock.exists" );
+  private static final Timer T_DETAILS = Metrics.timer( "rmi.stock.getDetails" );
+  private static final Timer T_IMAGE   = Metrics.timer( "rmi.stock.getImage" );
+  private static final Timer T_SEARCH  = Metrics.timer( "rmi.stock.search" );
 
   public F_StockR( String url )
   {
@@ -32,12 +43,16 @@ public class F_StockR implements StockReader
     theStockURL = url;
   }
   
-  private void connect() throws StockException
+  private RemoteStockR_I connect() throws StockException
   {
+    RemoteStockR_I stub = aR_StockR;
+    if ( stub != null ) return stub;                // Connected
     try                                             // Setup
     {                                               //  connection
-      aR_StockR =                                   //  Connect to
+      stub =                                        //  Connect to
         (RemoteStockR_I) Naming.lookup(theStockURL);// Stub returned
+      aR_StockR = stub;
+      return stub;
     }
     catch ( Exception e )                           // Failure to
     {                                               //  attach to the
@@ -53,18 +68,26 @@ public class F_StockR implements StockReader
    * @return true if exists otherwise false
    */
 
-  public synchronized boolean exists( String number )
+  public boolean exists( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:exists()" );
+    long            start = T_EXISTS.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "exists", number );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.exists( number );
+      boolean res = connect().exists( number );
+      ev.ok();
+      return res;
     } catch ( RemoteException e )
     {
+      T_EXISTS.error();
       aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_EXISTS.stop( start );
+      ev.commit();
     }
   }
 
@@ -73,35 +96,79 @@ public class F_StockR implements StockReader
    * @return StockNumber, Description, Price, Quantity
    */
 
-  public synchronized Product getDetails( String number )
+  public Product getDetails( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:getDetails()" );
+    long            start = T_DETAILS.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "getDetails", number );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.getDetails( number );
+      Product res = connect().getDetails( number );
+      ev.ok();
+      return res;
     } catch ( RemoteException e )
     {
+      T_DETAILS.error();
       aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_DETAILS.stop( start );
+      ev.commit();
     }
   }
   
   
-  public synchronized ImageIcon getImage( String number )
+  public ImageIcon getImage( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:getImage()" );
+    long            start = T_IMAGE.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "getImage", number );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.getImage( number );
+      ImageIcon res = connect().getImage( number );
+      ev.ok();
+      return res;
     }
     catch ( RemoteException e )
     {
+      T_IMAGE.error();
       aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_IMAGE.stop( start );
+      ev.commit();
+    }
+  }
+
+  /**
+   * Returns the products whose description best matches the text
+   * @return products, best match first
+   */
+
+  public List<Product> search( String text, int max )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:search()" );
+    long            start = T_SEARCH.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "search", null );
+    try
+    {
+      List<Product> res = connect().search( text, max );
+      ev.ok();
+      return res;
+    } catch ( RemoteException e )
+    {
+      T_SEARCH.error();
+      aR_StockR = null;
+      throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_SEARCH.stop( start );
+      ev.commit();
     }
   }
 
@@ -5,26 +5,47 @@ package middle;
  * The actual implementation of this is held on the middle tier.
  * The actual stock list is held in a relational DataBase on the 
  * third tier.
+ * A change that fails on the network, or finds the middle tier object
+ * not bound while it restarts, is sent again, up to RETRIES
+ * times, with the key it was first sent with, so the middle tier
+ * makes it only once even if the first did get through.
+ * Each call is timed, round trip to the middle tier and any retries
+ * (metrics rmi.*), and is a JFR event (catshop.RemoteCall) when turned on.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.3
  */
 
 import catalogue.Product;
 import debug.DEBUG;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.RemoteCallEvent;
+import metrics.Timer;
 import remote.RemoteStockRW_I;
 
+import java.net.MalformedURLException;
 import java.rmi.Naming;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Setup connection to the middle tier
  */
 
 public class F_StockRW extends F_StockR 
-                       implements StockReadWriter
+                       implements AsyncStockReadWriter, StockFeed
 {
-  private RemoteStockRW_I aR_StockRW  = null;
-  private String          theStockURL = null;
+  private volatile RemoteStockRW_I aR_StockRW  = null;
+  private String                   theStockURL = null;
+
+  private static final int  RETRIES  = 3;           // Sent again after
+  private static final long RETRY_MS = 20;          //  a network failure
+
+  private static final Timer   T_SNAPSHOT = Metrics.timer( "rmi.stock.snapshot" );
+  private static final Timer   T_CHANGES  = Metrics.timer( "rmi.stock.changesSince" );
+  private static final Counter C_RETRIES  = Metrics.counter( "rmi.stock.retries" );
 
   public F_StockRW( String url )
   {
@@ -32,19 +53,99 @@ public class F_StockRW extends F_StockR
     theStockURL = url;
   }
   
-  private void connect() throws StockException
+  private RemoteStockRW_I connect() throws StockException
   {
     try                                             // Setup
     {                                               //  connection
-      aR_StockRW =                                  //  Connect to
-       (RemoteStockRW_I) Naming.lookup(theStockURL);// Stub returned
+      return lookup();
     }
-    catch ( Exception e )                           // Failure to
+    catch ( RemoteException e )                     // Failure to
     {                                               //  attach to the
-      aR_StockRW = null;
       throw new StockException( "Com: " + 
                                e.getMessage()  );   //  object
-      
+    }
+  }
+
+  /**
+   * The stub of the middle tier object, looked up if not connected.
+   * Failing to look it up is a network failure, so a change is sent
+   *  again (see change).
+   */
+  private RemoteStockRW_I lookup() throws RemoteException
+  {
+    RemoteStockRW_I stub = aR_StockRW;
+    if ( stub != null ) return stub;                // Connected
+    try
+    {
+      stub =                                        //  Connect to
+       (RemoteStockRW_I) Naming.lookup(theStockURL);// Stub returned
+    } catch ( NotBoundException | MalformedURLException e )
+    {
+      throw new RemoteException( e.getMessage(), e );
+    }
+    aR_StockRW = stub;
+    return stub;
+  }
+
+  /**
+   * A change made on the middle tier, sent with the key of the request
+   */
+  private interface Change<T>
+  {
+    T on( RemoteStockRW_I stub, String key )
+      throws RemoteException, StockException;
+  }
+
+  /**
+   * Make a change on the middle tier, sending it again if the network
+   *  fails, with the same key each time
+   * @param what Name of the change, for tracing
+   * @param target Product or order number changed, for tracing
+   * @param change The change
+   * @return the reply
+   * @throws StockException if it fails, or the network still fails
+   */
+  private <T> T change( String what, String target, Change<T> change )
+          throws StockException
+  {
+    Timer           timer = Metrics.timer( "rmi.stock." + what );
+    long            start = timer.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", what, target );
+    String          key   = UUID.randomUUID().toString();
+    try
+    {
+      for ( int i = 0; ; i++ )
+      {
+        try
+        {
+          ev.attempts = i + 1;
+          T res = change.on( lookup(), key );
+          ev.ok();
+          return res;
+        } catch ( RemoteException e )
+        {
+          aR_StockRW = null;                        // Connect again
+          if ( i == RETRIES )
+          {
+            timer.error();
+            throw new StockException( "Net: " + e.getMessage() );
+          }
+          C_RETRIES.inc();
+          DEBUG.trace( "F_StockRW:%s retry %d %s", what, i + 1, e.getMessage() );
+        }
+        try
+        {
+          Thread.sleep( RETRY_MS << i );            // Back off
+        } catch ( InterruptedException e )
+        {
+          Thread.currentThread().interrupt();
+          throw new StockException( "Net: interrupted" );
+        }
+      }
+    } finally
+    {
+      timer.stop( start );
+      ev.commit();
     }
   }
 
@@ -59,54 +160,183 @@ public class F_StockRW extends F_StockR
          throws StockException
   {
     DEBUG.trace("F_StockRW:buyStock()" );
+    return change( "buyStock", number,
+                   (stub, key) -> stub.buyStock( key, number, amount ) );
+  }
+
+  /**
+   * Adds (Restocks) stock to the product list
+   * @param number Stock number
+   * @param amount of stock
+   * @throws StockException if remote exception
+   */
+
+  public void addStock( String number, int amount )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:addStock()" );
+    change( "addStock", number, (stub, key) ->
+    {
+      stub.addStock( key, number, amount );
+      return null;
+    } );
+  }
+
+  /**
+   * Modifies Stock details for a given product number.
+   * Information modified: Description, Price
+   * @param detail Stock details to be modified
+   * @throws StockException if remote exception
+   */
+
+  public void modifyStock( Product detail )
+              throws StockException
+  {
+    DEBUG.trace("F_StockRW:modifyStock()" );
+    change( "modifyStock", detail.getProductNum(), (stub, key) ->
+    {
+      stub.modifyStock( key, detail );
+      return null;
+    } );
+  }
+
+  /**
+   * Modifies Stock details only if the product is still at version
+   * @param detail Stock details to be modified
+   * @param version Version the product was read at
+   * @return true if changed, false if changed by someone else since
+   * @throws StockException if remote exception
+   */
+
+  public boolean modifyStock( Product detail, int version )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:modifyStock(%d)", version );
+    return change( "modifyStock", detail.getProductNum(),
+                   (stub, key) -> stub.modifyStock( key, detail, version ) );
+  }
+
+  /**
+   * Holds stock for a customer
+   * @return token for the hold, null if not enough stock free
+   * @throws StockException if remote exception
+   */
+
+  public String reserveStock( String number, int amount, long ttl )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:reserveStock()" );
+    return change( "reserveStock", number,
+                   (stub, key) -> stub.reserveStock( key, number, amount, ttl ) );
+  }
+
+  /**
+   * Buys the stock held
+   * @return true if bought, false if the hold has run out
+   * @throws StockException if remote exception
+   */
+
+  public boolean commitReservation( String token )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:commitReservation()" );
+    return change( "commitReservation", token,
+                   (stub, key) -> stub.commitReservation( key, token ) );
+  }
+
+  /**
+   * Gives back the stock held
+   * @throws StockException if remote exception
+   */
+
+  public void releaseReservation( String token )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:releaseReservation()" );
+    change( "releaseReservation", token, (stub, key) ->
+    {
+      stub.releaseReservation( key, token );
+      return null;
+    } );
+  }
+
+  /**
+   * Returns a copy of the stock list
+   * @return snapshot of the stock list
+   * @throws StockException if remote exception
+   */
+
+  public StockSnapshot snapshot()
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:snapshot()" );
+    long            start = T_SNAPSHOT.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "snapshot", null );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      return aR_StockRW.buyStock( number, amount );
+      StockSnapshot res = connect().snapshot();
+      ev.ok();
+      return res;
     } catch ( RemoteException e )
     {
+      T_SNAPSHOT.error();
       aR_StockRW = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_SNAPSHOT.stop( start );
+      ev.commit();
     }
   }
 
   /**
-   * Adds (Restocks) stock to the product list
-   * @param number Stock number
-   * @param amount of stock
+   * Returns the changes made after the change numbered seq
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @return changes in order, or null if no longer held
    * @throws StockException if remote exception
    */
 
-  public void addStock( String number, int amount )
+  public List<StockChange> changesSince( long seq, int max )
          throws StockException
   {
-    DEBUG.trace("F_StockRW:addStock()" );
+    DEBUG.trace("F_StockRW:changesSince()" );
+    long            start = T_CHANGES.start();
+    RemoteCallEvent ev    = RemoteCallEvent.begin( "stock", "changesSince", null );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      aR_StockRW.addStock( number, amount );
+      List<StockChange> res = connect().changesSince( seq, max );
+      ev.ok();
+      return res;
     } catch ( RemoteException e )
     {
+      T_CHANGES.error();
       aR_StockRW = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      T_CHANGES.stop( start );
+      ev.commit();
     }
   }
 
   /**
-   * Modifies Stock details for a given product number.
-   * Information modified: Description, Price
-   * @param detail Stock details to be modified
+   * Returns the changes made after the change numbered seq,
+   *  waiting on the server for one to be made if there are none
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @param timeout Longest time to wait in milliseconds
+   * @return changes in order, or null if no longer held
    * @throws StockException if remote exception
    */
 
-  public void modifyStock( Product detail )
-              throws StockException
+  public List<StockChange> awaitChanges( long seq, int max, long timeout )
+         throws StockException
   {
-    DEBUG.trace("F_StockRW:modifyStock()" );
+    DEBUG.trace("F_StockRW:awaitChanges()" );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      aR_StockRW.modifyStock( detail );
+      return connect().awaitChanges( seq, max, timeout );
     } catch ( RemoteException e )
     {
       aR_StockRW = null;
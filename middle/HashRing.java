@@ -0,0 +1,103 @@
+package middle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A consistent-hash ring used to decide which middle tier node
+ * holds a given product or order.
+ * Each node is placed on the ring many times (virtual nodes) so that
+ * keys spread evenly and only about 1/N of the keys move when a
+ * node joins or leaves.
+ * Nodes may join and leave while the ring is being used.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class HashRing
+{
+  private static final int VIRTUAL_NODES = 64;     // Points per node
+
+  private final ConcurrentSkipListMap<Integer,String> ring =
+                  new ConcurrentSkipListMap<>();
+  private final List<String> nodes = new CopyOnWriteArrayList<>();
+
+  /**
+   * Add a node to the ring
+   * @param node Name of the node, for example "localhost:1100"
+   */
+  public synchronized void addNode( String node )
+  {
+    if ( nodes.contains( node ) ) return;
+    for ( int i = 0; i < VIRTUAL_NODES; i++ )
+    {
+      ring.put( hash( node + "#" + i ), node );
+    }
+    nodes.add( node );
+  }
+
+  /**
+   * Remove a node from the ring,
+   *  its keys are now owned by the next node round the ring
+   * @param node Name of the node
+   */
+  public synchronized void removeNode( String node )
+  {
+    if ( !nodes.remove( node ) ) return;
+    for ( int i = 0; i < VIRTUAL_NODES; i++ )
+    {
+      ring.remove( hash( node + "#" + i ), node );
+    }
+  }
+
+  /**
+   * Return the node that owns the key
+   * @param key Product number or order number
+   * @return name of the node or null if the ring is empty
+   */
+  public String nodeFor( String key )
+  {
+    Map.Entry<Integer,String> e = ring.ceilingEntry( hash( key ) );
+    if ( e == null ) e = ring.firstEntry();        // Wrap round
+    return e == null ? null : e.getValue();
+  }
+
+  /**
+   * Return the nodes currently in the ring
+   * @return A copy of the list of nodes
+   */
+  public List<String> getNodes()
+  {
+    return new ArrayList<>( nodes );
+  }
+
+  public boolean isEmpty()
+  {
+    return nodes.isEmpty();
+  }
+
+  /**
+   * FNV-1a hash followed by the murmur3 finaliser,
+   *  String.hashCode() alone clusters short keys such as "0001"
+   * @param key Value to hash
+   * @return position on the ring
+   */
+  private static int hash( String key )
+  {
+    int h = 0x811c9dc5;
+    for ( int i = 0; i < key.length(); i++ )
+    {
+      h ^= key.charAt( i );
+      h *= 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -1,28 +1,30 @@
 /**
  * @author  Mike Smith University of Brighton
- * @version 2.1
+ * @version 2.5
  */
 
 package middle;
 
-import dbAccess.StockR;
-import dbAccess.StockRW;
 import orders.Order;
+import orders.OrderX;
+import orders.OrderXC;
 
+import java.util.concurrent.CompletableFuture;
 
 /**
   * Provide access to middle tier components.
-  * Now only one instance of each middle tier object is created
+  * Now only one instance of each middle tier object is created,
+  * held by the MiddleRuntime of the JVM.
+  * The order processing system used is chosen by the setting
+  * orders: Order (default), OrderX or OrderXC (see config.Config)
+  * Making the stock objects does not wait for the database, which
+  * is opened in the background (see warmUp).
   */
 
 // Pattern: Abstract Factory
 
 public class LocalMiddleFactory implements MiddleFactory
 {
-  private static StockR  aStockR  = null;
-  private static StockRW aStockRW = null;
-  private static Order   aOrder   = null;
-  
   /**
    * Return an object to access the database for read only access.
    * All users share this same object.
@@ -30,9 +32,7 @@ public class LocalMiddleFactory implements MiddleFactory
   
   public StockReader makeStockReader() throws StockException
   {
-    if ( aStockR == null )
-      aStockR = new StockR();
-    return aStockR;
+    return MiddleRuntime.getInstance().makeStockReader();
   }
 
   /**
@@ -42,9 +42,7 @@ public class LocalMiddleFactory implements MiddleFactory
   
   public StockReadWriter makeStockReadWriter() throws StockException
   {
-    if ( aStockRW == null )
-      aStockRW = new StockRW();
-    return aStockRW;
+    return MiddleRuntime.getInstance().makeStockReadWriter();
   }
   
   /**
@@ -54,9 +52,33 @@ public class LocalMiddleFactory implements MiddleFactory
    
   public OrderProcessing makeOrderProcessing() throws OrderException
   {
-    if ( aOrder == null )
-      aOrder = new Order();
-    return aOrder;
+    return MiddleRuntime.getInstance().makeOrderProcessing();
+  }
+
+  /**
+   * Start making the middle tier objects and opening the database
+   *  now, so they are ready by the time a client first uses them
+   * @return completes when all are ready
+   */
+  public static CompletableFuture<Void> warmUp()
+  {
+    return MiddleRuntime.getInstance().start();
   }
-}
 
+  /**
+   * Make an order processing system by the name of its class
+   * @param kind Order, OrderX or OrderXC
+   * @return the order processing system
+   */
+  static OrderProcessing makeOrder( String kind ) throws OrderException
+  {
+    switch ( kind )
+    {
+      case "Order"   : return new Order();
+      case "OrderX"  : return new OrderX();
+      case "OrderXC" : return new OrderXC();
+      default        :
+        throw new OrderException( "Unknown order processing: " + kind );
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package middle;
+
+import config.Config;
+import dbAccess.StockR;
+import dbAccess.StockRW;
+import debug.DEBUG;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The middle tier objects of this JVM, each made once however many
+ * clients ask for it at the same time, and the database they use.
+ * <PRE>
+ * start     makes the objects and opens the database, all at once
+ * make...   the object, made now (or waited for) if not started
+ * close     shuts the database down and forgets the objects,
+ *            a later make or start makes them again
+ * </PRE>
+ * The objects are made by Makers, for the runtime of the JVM the
+ * stock objects of dbAccess and the order processing system named by
+ * the setting orders (see LocalMiddleFactory.makeOrder, config.Config).
+ * Orders held in memory are lost when closed.
+ * The orders in each state of the order processing system made are
+ * counted by gauges (see OrderGauges), removed when closed.
+ * The runtime of the JVM is closed when the JVM exits, so the
+ * database is shut down cleanly.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+public class MiddleRuntime implements MiddleFactory, AutoCloseable
+{
+  private static MiddleRuntime theRuntime = null;
+
+  /**
+   * Makes a middle tier object
+   */
+  public interface Maker<T, E extends Exception>
+  {
+    T make() throws E;
+  }
+
+  /**
+   * Holds an object made once, on a virtual thread, when first asked for.
+   * If making it fails the next request tries again.
+   */
+  private static final class Holder<T, E extends Exception>
+  {
+    private final String                name;
+    private final Maker<T, E>           maker;
+    private       CompletableFuture<T>  made = null;
+
+    Holder( String name, Maker<T, E> maker )
+    {
+      this.name  = name;
+      this.maker = maker;
+    }
+
+    synchronized CompletableFuture<T> start()
+    {
+      if ( made == null || made.isCompletedExceptionally() )
+      {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        made = f;
+        Thread.ofVirtual().name( "make-" + name ).start( () ->
+        {
+          try
+          {
+            f.complete( maker.make() );
+          } catch ( Throwable e )
+          {
+            DEBUG.trace( "MiddleRuntime: can not make %s\n%s",
+                         name, e.getMessage() );
+            f.completeExceptionally( e );
+          }
+        } );
+      }
+      return made;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    T get() throws E
+    {
+      try
+      {
+        return start().join();
+      } catch ( CompletionException e )
+      {
+        Throwable t = e.getCause();
+        if ( t instanceof RuntimeException ) throw (RuntimeException) t;
+        if ( t instanceof Error )            throw (Error) t;
+        throw (E) t;
+      }
+    }
+
+    synchronized void forget()
+    {
+      made = null;
+    }
+  }
+
+  private final Holder<StockReader, StockException>     theStockR;
+  private final Holder<StockReadWriter, StockException> theStockRW;
+  private final Holder<OrderProcessing, OrderException> theOrder;
+  private final boolean                                 theDatabase;
+  private OrderGauges                                   theCounts = null;
+
+  /**
+   * The runtime of this JVM, using the stock database and the
+   *  order processing system named by the setting orders
+   * @return the runtime
+   */
+  public static synchronized MiddleRuntime getInstance()
+  {
+    if ( theRuntime == null )
+    {
+      theRuntime = new MiddleRuntime(
+        StockR::new, StockRW::new,
+        () -> LocalMiddleFactory.makeOrder( Config.get().orders() ), true );
+      MiddleRuntime rt = theRuntime;
+      Runtime.getRuntime().addShutdownHook(
+        new Thread( rt::close, "middle-close" ) );
+    }
+    return theRuntime;
+  }
+
+  /**
+   * A runtime making its objects with the makers given,
+   *  for a test or benchmark
+   * @param stockR Makes the read only stock object
+   * @param stockRW Makes the read/write stock object
+   * @param order Makes the order processing system
+   */
+  public MiddleRuntime( Maker<StockReader, StockException>     stockR,
+                        Maker<StockReadWriter, StockException> stockRW,
+                        Maker<OrderProcessing, OrderException> order )
+  {
+    this( stockR, stockRW, order, false );
+  }
+
+  private MiddleRuntime( Maker<StockReader, StockException>     stockR,
+                         Maker<StockReadWriter, StockException> stockRW,
+                         Maker<OrderProcessing, OrderException> order,
+                         boolean database )
+  {
+    theStockR   = new Holder<>( "StockR",  stockR );
+    theStockRW  = new Holder<>( "StockRW", stockRW );
+    theOrder    = new Holder<>( "Order",   () -> counted( order.make() ) );
+    theDatabase = database;
+  }
+
+  /**
+   * Make the objects and open the database, all at the same time
+   * @return completes when all are ready, or one has failed
+   */
+  public CompletableFuture<Void> start()
+  {
+    return CompletableFuture.allOf(
+      theDatabase ? StockR.opened() : CompletableFuture.completedFuture( null ),
+      theStockR.start(), theStockRW.start(), theOrder.start() );
+  }
+
+  public StockReader makeStockReader() throws StockException
+  {
+    return theStockR.get();
+  }
+
+  public StockReadWriter makeStockReadWriter() throws StockException
+  {
+    return theStockRW.get();
+  }
+
+  public OrderProcessing makeOrderProcessing() throws OrderException
+  {
+    return theOrder.get();
+  }
+
+  /**
+   * Count the orders of the order processing system made,
+   *  in place of the one made before
+   */
+  private synchronized OrderProcessing counted( OrderProcessing order )
+  {
+    if ( theCounts != null ) theCounts.close();
+    theCounts = new OrderGauges( order );
+    return order;
+  }
+
+  /**
+   * Forget the objects and shut the database down
+   */
+  public void close()
+  {
+    theStockR.forget();
+    theStockRW.forget();
+    theOrder.forget();
+    synchronized ( this )
+    {
+      if ( theCounts != null ) theCounts.close();
+      theCounts = null;
+    }
+    if ( theDatabase ) StockR.close();
+    DEBUG.trace( "MiddleRuntime: closed" );
+  }
+}
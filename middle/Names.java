@@ -1,14 +1,42 @@
 package middle;
 
+import config.Config;
+
 /**
  * Location of the various objects accessed remotely.
+ * The host and port of the rmiregistry are the settings rmi.host,
+ * rmi.port and rmi.replica.port, or a whole URL may be given by the
+ * settings rmi.stockRW, rmi.stockR, rmi.order and rmi.stockRReplica
+ * (see config.Config).
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.2
  */
 
 public class Names
 {
-  public static String STOCK_RW = "rmi://localhost/stock_rw";
-  public static String STOCK_R  = "rmi://localhost/stock_r";
-  public static String ORDER    = "rmi://localhost/order";
+  private static final Config C = Config.get();
+
+  public static String STOCK_RW = C.getString( "rmi.stockRW", stockRW( node( C.rmiPort() ) ) );
+  public static String STOCK_R  = C.getString( "rmi.stockR",  stockR ( node( C.rmiPort() ) ) );
+  public static String ORDER    = C.getString( "rmi.order",   order  ( node( C.rmiPort() ) ) );
+
+  // Read only replica of the stock list (see ReplicaServer)
+  public static String STOCK_R_REPLICA =
+    C.getString( "rmi.stockRReplica", stockR( node( C.rmiReplicaPort() ) ) );
+
+  /*
+   * host:port of the rmiregistry on the host set, no port if 0
+   */
+  private static String node( int port )
+  {
+    return port > 0 ? C.rmiHost() + ":" + port : C.rmiHost();
+  }
+
+  /*
+   * Location of the objects on one node of a sharded middle tier
+   *  node is host:port of the node's rmiregistry
+   */
+  public static String stockRW( String node ) { return "rmi://" + node + "/stock_rw"; }
+  public static String stockR ( String node ) { return "rmi://" + node + "/stock_r";  }
+  public static String order  ( String node ) { return "rmi://" + node + "/order";    }
 }
@@ -0,0 +1,54 @@
+package middle;
+
+import metrics.Gauge;
+import metrics.Metrics;
+
+/**
+ * The number of orders in each state of an order processing system,
+ * read as the gauges order.Waiting, order.BeingPacked and
+ * order.ToBeCollected.
+ * Made once by whatever owns the order processing system (MiddleRuntime
+ * or Server) and closed with it, so the metrics never hold on to an
+ * order processing system that is no longer used.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class OrderGauges implements AutoCloseable
+{
+  private static final String[] STATES =
+    { "Waiting", "BeingPacked", "ToBeCollected" };
+
+  private final Gauge[] gauges = new Gauge[ STATES.length ];
+
+  /**
+   * Count the orders of an order processing system
+   * @param order the order processing system
+   */
+  OrderGauges( OrderProcessing order )
+  {
+    for ( int s = 0; s < STATES.length; s++ )
+    {
+      int state = s;
+      gauges[ s ] = Metrics.gauge( "order." + STATES[ s ], () ->
+      {
+        try
+        {
+          return order.getOrderStateCounts()[ state ];
+        } catch ( OrderException e )
+        {
+          return -1;                              // Can not be read
+        }
+      } );
+    }
+  }
+
+  /**
+   * Remove the gauges
+   */
+  public void close()
+  {
+    for ( int s = 0; s < STATES.length; s++ )
+      Metrics.remove( "order." + STATES[ s ], gauges[ s ] );
+  }
+}
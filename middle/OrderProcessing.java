@@ -9,7 +9,7 @@ import java.util.Map;
 /**
   * Defines the interface for accessing the order processing system.
   * @author  Mike Smith University of Brighton
-  * @version 2.0
+  * @version 2.2
   */
 
 public interface OrderProcessing
@@ -24,7 +24,20 @@ public interface OrderProcessing
   public Basket getOrderToPack()                   // Packer
          throws OrderException;
 
-  public boolean informOrderPacked(int orderNum)   // Packer
+  // Packed by the packer holding its lease, null if taken without one
+  public boolean informOrderPacked(int orderNum,
+                                   String packerId) // Packer
+         throws OrderException;
+
+  // Take up to max orders, leased to the packer for leaseTime ms
+  public List<Basket> getOrdersToPack(String packerId, int max,
+                                      long leaseTime) // Packer
+         throws OrderException;
+
+  // Extend the packer's leases on the orders given, others run out,
+  //  returns the orders renewed
+  public int[] renewLeases(String packerId, int[] orderNums,
+                           long leaseTime) // Packer
          throws OrderException;
 
   // not being used in this version
@@ -35,5 +48,18 @@ public interface OrderProcessing
   public Map<String,List<Integer>> getOrderState() // Display
          throws OrderException;
 
+  // Order numbers in each state as primitive arrays
+  public OrderStateNumbers getOrderStateNumbers()  // Display
+         throws OrderException;
+
+  // Number of orders waiting, being packed, to be collected
+  public int[] getOrderStateCounts()               // Display
+         throws OrderException;
+
   public String generateOrderReport() throws RemoteException, OrderException;
+
+  // Report a page at a time, previous is null for the first page
+  public OrderReportPage getOrderReportPage(OrderReportPage previous,
+                                            int pageSize)
+         throws OrderException;
 }
@@ -0,0 +1,58 @@
+package middle;
+
+import java.io.Serializable;
+
+/**
+ * One page of the order processing report.
+ * Orders are reported grouped by state, in order number order within
+ * each state.  A page records where it finished so that it can be
+ * passed back to fetch the next page, and the report it is part of,
+ * so the next page is cut from the same copy of the orders.
+ * A sharded order system also records the node the page came from.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+public class OrderReportPage implements Serializable
+{
+  private static final long serialVersionUID = 2;
+
+  private final String  theText;          // Formatted part of report
+  private final int     theState;         // Last state reported, -1 none
+  private final int     theAfter;         // Last order number reported
+  private final boolean isLast;           // Report complete
+  private final String  theNode;          // Used by a sharded order system
+  private final long    theReport;        // Copy of orders, 0 if none
+  private final int     theNext;          // Where next page starts in it
+
+  public OrderReportPage( String text, int state, int after, boolean last )
+  {
+    this( text, state, after, last, null );
+  }
+
+  public OrderReportPage( String text, int state, int after, boolean last,
+                          String node )
+  {
+    this( text, state, after, last, node, 0, 0 );
+  }
+
+  public OrderReportPage( String text, int state, int after, boolean last,
+                          String node, long report, int next )
+  {
+    theText   = text;
+    theState  = state;
+    theAfter  = after;
+    isLast    = last;
+    theNode   = node;
+    theReport = report;
+    theNext   = next;
+  }
+
+  public String  getText()  { return theText; }
+  public int     getState() { return theState; }
+  public int     getAfter() { return theAfter; }
+  public boolean isLast()   { return isLast; }
+  public String  getNode()  { return theNode; }
+  public long    getReport(){ return theReport; }
+  public int     getNext()  { return theNext; }
+}
@@ -0,0 +1,55 @@
+package middle;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order numbers of the orders in each state,
+ * held as primitive arrays so that they are cheap to send over RMI.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class OrderStateNumbers implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final int[] theWaiting;
+  private final int[] theBeingPacked;
+  private final int[] theToBeCollected;
+
+  public OrderStateNumbers( int[] waiting, int[] beingPacked,
+                            int[] toBeCollected )
+  {
+    theWaiting       = waiting;
+    theBeingPacked   = beingPacked;
+    theToBeCollected = toBeCollected;
+  }
+
+  public int[] getWaiting()       { return theWaiting; }
+  public int[] getBeingPacked()   { return theBeingPacked; }
+  public int[] getToBeCollected() { return theToBeCollected; }
+
+  /**
+   * The same information in the form returned by getOrderState
+   * @return a Map with the keys: "Waiting", "BeingPacked", "ToBeCollected"
+   */
+  public Map<String, List<Integer>> toMap()
+  {
+    Map<String, List<Integer>> res = new HashMap<>();
+    res.put( "Waiting",       toList( theWaiting ) );
+    res.put( "BeingPacked",   toList( theBeingPacked ) );
+    res.put( "ToBeCollected", toList( theToBeCollected ) );
+    return res;
+  }
+
+  private static List<Integer> toList( int[] nums )
+  {
+    List<Integer> res = new ArrayList<>( nums.length );
+    for ( int n : nums ) res.add( n );
+    return res;
+  }
+}
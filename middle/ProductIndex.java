@@ -0,0 +1,352 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An index of the products by the words in their description,
+ * so a product can be found without knowing its product number.
+ * Each word of a search matches a word of a description that is
+ * <PRE>
+ * the same      (best)
+ * started by it "tel" matches "television"
+ * one typo off  "televsion" matches "television", only tried when
+ *               nothing is the same or started by it, and only with
+ *               words starting with the same letter, so a typo in
+ *               the first letter ("xelevision") is not found
+ * </PRE>
+ * A product is found only if every word of the search matches,
+ * the products matching best are returned first, and of those
+ * matching equally well the shortest descriptions.
+ * The work done by a search is bounded, a word matches at most
+ * MAX_TERMS words and at most MAX_SCAN products are looked at,
+ * so a search takes the same time however many products there are,
+ * at the cost of missing some products for a very common word.
+ * Searches may be made while the index is changed.
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+public class ProductIndex
+{
+  private static final int MAX_TERMS = 64;       // Words matched per word
+  private static final int MAX_SCAN  = 2000;     // Products looked at
+  private static final int MAX_FUZZY = 4096;     // Words tried for a typo
+  private static final int FUZZY_MIN = 4;        // Shortest word with typo
+
+  private static final int SAME   = 3;           // Scores of a match
+  private static final int PREFIX = 2;
+  private static final int TYPO   = 1;
+
+  /**
+   * A product indexed, with the words of its description and the
+   * number of the last change made to it
+   */
+  private static final class Entry
+  {
+    final Product  product;
+    final String[] terms;
+    final long     seq;
+
+    Entry( Product product, String[] terms, long seq )
+    {
+      this.product = product;
+      this.terms   = terms;
+      this.seq     = seq;
+    }
+  }
+
+  /**
+   * A product found and its score
+   */
+  private static final class Found
+  {
+    final Entry entry;
+    final int   score;
+
+    Found( Entry entry, int score )
+    {
+      this.entry = entry;
+      this.score = score;
+    }
+  }
+
+  private static final Comparator<Found> BEST_FIRST =
+    Comparator.<Found>comparingInt( f -> -f.score )
+              .thenComparingInt( f -> f.entry.product.getDescription().length() )
+              .thenComparing( f -> f.entry.product.getProductNum() );
+
+  private final Map<String,Entry> products = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<String,Set<String>> postings =
+                                          new ConcurrentSkipListMap<>();
+
+  /**
+   * Index the products of a stock list, products not in the list
+   * are removed.  Products changed after seq are left as they are.
+   * @param seq Number of the last change the list holds
+   * @param list The products
+   */
+  public synchronized void load( long seq, Collection<Product> list )
+  {
+    Set<String> seen = new HashSet<>();
+    for ( Product pr : list )
+    {
+      put( pr, seq );
+      seen.add( pr.getProductNum() );
+    }
+    for ( String pNum : new ArrayList<>( products.keySet() ) )
+      if ( !seen.contains( pNum ) ) remove( pNum );
+  }
+
+  /**
+   * Bring the index up to date with a change to the stock list,
+   *  a change older than the one already applied to the product
+   *  is ignored
+   * @param c The change
+   */
+  public synchronized void apply( StockChange c )
+  {
+    Entry e = products.get( c.getProductNum() );
+    switch ( c.getKind() )
+    {
+      case BUY :
+      case ADD :
+        if ( e != null && e.seq < c.getSeq() )
+        {
+          Product pr = e.product;
+          products.put( c.getProductNum(),
+            new Entry( new Product( pr.getProductNum(), pr.getDescription(),
+                                    pr.getPrice(), c.getQuantity() ),
+                       e.terms, c.getSeq() ) );
+        }
+        break;
+      case MODIFY :
+        put( new Product( c.getProductNum(), c.getDescription(),
+                          c.getPrice(), c.getQuantity() ), c.getSeq() );
+        break;
+    }
+  }
+
+  /**
+   * Add or replace a product
+   * @param pr The product
+   * @param seq Number of the last change made to it
+   */
+  public synchronized void put( Product pr, long seq )
+  {
+    String pNum = pr.getProductNum();
+    Entry  old  = products.get( pNum );
+    if ( old != null && old.seq > seq ) return;    // Have a later one
+    String[] terms = terms( pr.getDescription() );
+    products.put( pNum, new Entry( new Product( pNum, pr.getDescription(),
+                                                pr.getPrice(),
+                                                pr.getQuantity() ),
+                                   terms, seq ) );
+    if ( old != null )
+    {
+      Set<String> now = Set.of( terms );
+      for ( String t : old.terms )
+        if ( !now.contains( t ) ) unpost( t, pNum );
+    }
+    for ( String t : terms )
+      postings.computeIfAbsent( t, k -> ConcurrentHashMap.newKeySet() )
+              .add( pNum );
+  }
+
+  /**
+   * Remove a product
+   * @param pNum Product number
+   */
+  public synchronized void remove( String pNum )
+  {
+    Entry old = products.remove( pNum );
+    if ( old != null )
+      for ( String t : old.terms ) unpost( t, pNum );
+  }
+
+  private void unpost( String term, String pNum )
+  {
+    postings.computeIfPresent( term, (t, set) ->
+    {
+      set.remove( pNum );
+      return set.isEmpty() ? null : set;
+    } );
+  }
+
+  /**
+   * @return number of products indexed
+   */
+  public int size()
+  {
+    return products.size();
+  }
+
+  /**
+   * Find the products whose descriptions best match the text
+   * @param text Words to look for
+   * @param max Most products to return
+   * @return copies of the products, best match first
+   */
+  public List<Product> search( String text, int max )
+  {
+    String[] words = terms( text );
+    List<Product> res = new ArrayList<>();
+    if ( words.length == 0 || max <= 0 ) return res;
+
+    List<Map<String,Integer>> matches = new ArrayList<>( words.length );
+    int  driver  = 0;                              // Word fewest have
+    long fewest  = Long.MAX_VALUE;
+    for ( int i = 0; i < words.length; i++ )
+    {
+      Map<String,Integer> m = matching( words[i] );
+      if ( m.isEmpty() ) return res;                // Nothing has word
+      long n = 0;
+      for ( String t : m.keySet() )
+      {
+        Set<String> p = postings.get( t );
+        if ( p != null ) n += p.size();
+      }
+      if ( n < fewest ) { fewest = n; driver = i; }
+      matches.add( m );
+    }
+
+    PriorityQueue<Found> top =                     // Worst at head
+      new PriorityQueue<>( max + 1, BEST_FIRST.reversed() );
+    Map<String,Integer> driving = matches.get( driver );
+    Set<String> seen    = driving.size() > 1 ? new HashSet<>() : null;
+    int         scanned = 0;
+    scan:
+    for ( String t : driving.keySet() )
+    {
+      Set<String> p = postings.get( t );
+      if ( p == null ) continue;
+      for ( String pNum : p )
+      {
+        if ( seen != null && !seen.add( pNum ) ) continue;
+        if ( ++scanned > MAX_SCAN ) break scan;
+        Entry e = products.get( pNum );
+        if ( e == null ) continue;
+        int score = score( e.terms, matches );
+        if ( score == 0 ) continue;
+        if ( top.size() == max )
+        {
+          Found worst = top.peek();
+          if ( score < worst.score ) continue;     // Not good enough
+          Found f = new Found( e, score );
+          if ( BEST_FIRST.compare( f, worst ) >= 0 ) continue;
+          top.poll();                              // A product later on
+          top.offer( f );                          //  may still be better
+        } else {
+          top.offer( new Found( e, score ) );
+        }
+      }
+    }
+
+    List<Found> found = new ArrayList<>( top );
+    found.sort( BEST_FIRST );
+    for ( Found f : found )
+    {
+      Product pr = f.entry.product;
+      res.add( new Product( pr.getProductNum(), pr.getDescription(),
+                            pr.getPrice(), pr.getQuantity() ) );
+    }
+    return res;
+  }
+
+  /**
+   * How well the words of a description match the words searched for
+   * @return total of the best match of each word, 0 if a word is not matched
+   */
+  private static int score( String[] terms, List<Map<String,Integer>> matches )
+  {
+    int total = 0;
+    for ( Map<String,Integer> m : matches )
+    {
+      int best = 0;
+      for ( String t : terms )
+        best = Math.max( best, m.getOrDefault( t, 0 ) );
+      if ( best == 0 ) return 0;
+      total += best;
+    }
+    return total;
+  }
+
+  /**
+   * The words in the index a word of a search matches,
+   *  same and prefix matches first, in the order to scan them
+   * @param word Word searched for
+   * @return word matched -> score
+   */
+  private Map<String,Integer> matching( String word )
+  {
+    Map<String,Integer> res = new LinkedHashMap<>();
+    if ( postings.containsKey( word ) ) res.put( word, SAME );
+    for ( String t : postings.tailMap( word, false ).keySet() )
+    {
+      if ( !t.startsWith( word ) || res.size() >= MAX_TERMS ) break;
+      res.put( t, PREFIX );
+    }
+    if ( res.isEmpty() && word.length() >= FUZZY_MIN )
+    {
+      String first = word.substring( 0, 1 );
+      int    tried = 0;
+      for ( String t : postings.tailMap( first, true ).keySet() )
+      {
+        if ( !t.startsWith( first ) || ++tried > MAX_FUZZY ) break;
+        if ( oneEdit( word, t ) ) res.put( t, TYPO );
+        if ( res.size() >= MAX_TERMS ) break;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Are two words one letter changed, added, removed
+   *  or two letters swapped apart
+   */
+  private static boolean oneEdit( String a, String b )
+  {
+    int la = a.length(), lb = b.length();
+    if ( Math.abs( la - lb ) > 1 ) return false;
+    if ( la > lb ) return oneEdit( b, a );          // a the shorter
+    int i = 0;
+    while ( i < la && a.charAt( i ) == b.charAt( i ) ) i++;
+    if ( i == la ) return lb - la == 1;            // Added at end
+    if ( la == lb )
+    {
+      if ( a.regionMatches( i + 1, b, i + 1, la - i - 1 ) ) return true;
+      return i + 1 < la &&                         // Swapped
+             a.charAt( i ) == b.charAt( i + 1 ) &&
+             a.charAt( i + 1 ) == b.charAt( i ) &&
+             a.regionMatches( i + 2, b, i + 2, la - i - 2 );
+    }
+    return a.regionMatches( i, b, i + 1, la - i ); // Added
+  }
+
+  /**
+   * The distinct words of a text in lower case
+   * @param text The text
+   * @return words in the order first found
+   */
+  static String[] terms( String text )
+  {
+    Set<String> res = new LinkedHashSet<>();
+    if ( text != null )
+      for ( String w : text.toLowerCase( Locale.ROOT ).split( "[^\\p{L}\\p{N}]+" ) )
+        if ( !w.isEmpty() ) res.add( w );
+    return res.toArray( new String[0] );
+  }
+}
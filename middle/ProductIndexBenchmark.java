@@ -0,0 +1,116 @@
+package middle;
+
+import catalogue.Product;
+import metrics.LatencyHistogram;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken to search the description index.
+ * The index is filled with made up products, each described by
+ * a few words drawn from a vocabulary in which some words are far
+ * more common than others, as in a real catalogue.
+ * Searches are then timed for the words of a product, the start of
+ * its words (as typed) and its words with a typo.
+ * <PRE>
+ * java middle.ProductIndexBenchmark [products [vocabulary]]
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class ProductIndexBenchmark
+{
+  private static final int SEARCHES = 100000;      // Timed of each kind
+  private static final int WARMUP   = 20000;
+  private static final int RESULTS  = 10;           // Top k
+
+  public static void main( String[] args )
+  {
+    int products   = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+    int vocabulary = args.length > 1 ? Integer.parseInt( args[1] ) : 50000;
+
+    Random   rnd   = new Random( 1 );
+    String[] words = new String[ vocabulary ];
+    for ( int i = 0; i < vocabulary; i++ ) words[i] = word( rnd );
+
+    ProductIndex index = new ProductIndex();
+    String[]     descs = new String[ products ];
+    long t = System.nanoTime();
+    for ( int i = 0; i < products; i++ )
+    {
+      descs[i] = description( rnd, words );
+      index.put( new Product( String.format( "%07d", i ), descs[i], 9.99, 10 ), 0 );
+    }
+    System.out.printf( "Indexed %d products in %.1fs%n",
+                       index.size(), (System.nanoTime() - t) / 1e9 );
+
+    String[] kinds = { "words", "prefix", "typo" };
+    for ( int k = 0; k < kinds.length; k++ )
+    {
+      LatencyHistogram h     = new LatencyHistogram();
+      long             found = 0;
+      for ( int i = -WARMUP; i < SEARCHES; i++ )
+      {
+        String q = query( rnd, descs[ rnd.nextInt( products ) ], k );
+        long start = System.nanoTime();
+        int  n     = index.search( q, RESULTS ).size();
+        long took  = System.nanoTime() - start;
+        if ( i >= 0 ) { h.record( took ); found += n; }
+      }
+      System.out.printf( "%-7s %5.1f found  %s%n", kinds[k],
+                         (double) found / SEARCHES, h.summary() );
+    }
+  }
+
+  /**
+   * A search for a product, two of its words
+   * @param kind 0 as is, 1 first three letters of each, 2 typo in one
+   */
+  private static String query( Random rnd, String desc, int kind )
+  {
+    String[] w = desc.split( " " );
+    String   a = w[ rnd.nextInt( w.length ) ];
+    String   b = w[ rnd.nextInt( w.length ) ];
+    switch ( kind )
+    {
+      case 1  : return a.substring( 0, 3 ) + " " + b.substring( 0, 3 );
+      case 2  : int at = 1 + rnd.nextInt( a.length() - 2 );   // Swap two
+                return a.substring( 0, at ) + a.charAt( at + 1 ) +
+                       a.charAt( at ) + a.substring( at + 2 ) + " " + b;
+      default : return a + " " + b;
+    }
+  }
+
+  /**
+   * Three to six words, common words chosen more often (Zipf like)
+   */
+  private static String description( Random rnd, String[] words )
+  {
+    StringBuilder sb = new StringBuilder();
+    int n = 3 + rnd.nextInt( 4 );
+    for ( int i = 0; i < n; i++ )
+    {
+      int at = (int) Math.floor( Math.pow( words.length, rnd.nextDouble() ) ) - 1;
+      if ( i > 0 ) sb.append( ' ' );
+      sb.append( words[ at ] );
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A made up word of four to ten letters
+   */
+  private static String word( Random rnd )
+  {
+    String        cons = "bcdfghjklmnprstvwz", vows = "aeiou";
+    StringBuilder sb   = new StringBuilder();
+    int           len  = 4 + rnd.nextInt( 7 );
+    for ( int i = 0; i < len; i++ )
+    {
+      String from = i % 2 == 0 ? cons : vows;
+      sb.append( from.charAt( rnd.nextInt( from.length() ) ) );
+    }
+    return sb.toString();
+  }
+}
@@ -6,6 +6,8 @@ package middle;
 
 /**
   * Provide access to middle tier components.
+  * If nodes have been added the middle tier is sharded,
+  *  calls are then routed to a node using a consistent-hash ring.
   */
 
 public class RemoteMiddleFactory implements MiddleFactory
@@ -13,6 +15,7 @@ public class RemoteMiddleFactory implements MiddleFactory
   private String theStockR_URL   = "";
   private String theStockRW_URL  = "";
   private String theOrder_URL    = "";
+  private final HashRing theRing = new HashRing();
   
   public void setStockRInfo( String url )
   {
@@ -28,6 +31,25 @@ public class RemoteMiddleFactory implements MiddleFactory
   {
     theOrder_URL = url;
   }
+
+  /**
+   * Add a node to the sharded middle tier,
+   *  may be called at any time, existing objects see the new node
+   * @param node host:port of the node's rmiregistry
+   */
+  public void addNode( String node )
+  {
+    theRing.addNode( node );
+  }
+
+  /**
+   * Remove a node from the sharded middle tier
+   * @param node host:port of the node's rmiregistry
+   */
+  public void removeNode( String node )
+  {
+    theRing.removeNode( node );
+  }
  
   /**
    * Return an object to access the database for read only access.
@@ -36,6 +58,7 @@ public class RemoteMiddleFactory implements MiddleFactory
   
   public StockReader makeStockReader() throws StockException
   {
+    if ( !theRing.isEmpty() ) return new F_ShardedStockR( theRing );
     return new F_StockR( theStockR_URL );
   }
 
@@ -45,6 +68,7 @@ public class RemoteMiddleFactory implements MiddleFactory
    */
   public StockReadWriter makeStockReadWriter() throws StockException
   {
+    if ( !theRing.isEmpty() ) return new F_ShardedStockRW( theRing );
     return new F_StockRW( theStockRW_URL );
   }
   
@@ -54,6 +78,7 @@ public class RemoteMiddleFactory implements MiddleFactory
    */
   public OrderProcessing makeOrderProcessing() throws OrderException
   {
+    if ( !theRing.isEmpty() ) return new F_ShardedOrder( theRing );
     return new F_Order( theOrder_URL );
   }
 }
@@ -0,0 +1,52 @@
+package middle;
+
+import metrics.MetricsEndpoint;
+import remote.R_StockR;
+
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * A server holding a read only replica of the stock list.
+ * Customer clients can be pointed at a replica instead of the
+ * main server so that browsing does not load the database.
+ * <PRE>
+ *  ReplicaServer [source stockRW-url [replica stockR-url]]
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class ReplicaServer
+{
+  public static void main( String args[] )
+  {
+    String source  = args.length < 1        // URL of stock RW
+                   ? Names.STOCK_RW         //  default  location
+                   : args[0];               //  supplied location
+
+    String replica = args.length < 2        // URL of replica
+                   ? Names.STOCK_R_REPLICA  //  default  location
+                   : args[1];               //  supplied location
+
+    System.out.println( "ReplicaServer: " );
+    MetricsEndpoint.startIfWanted();                // If asked for
+    try
+    {
+      LocateRegistry.createRegistry( Server.registryPort( replica ) );
+
+      F_StockRW    upstream = new F_StockRW( source );
+      StockReplica copy     = new StockReplica( upstream, upstream );
+      copy.start();                                   // Load & follow
+      System.out.println( "Replica of " + source +
+                          " at change #" + copy.getLastSeq() );
+
+      Naming.rebind( replica, new R_StockR( copy ) ); // bind to url
+      System.out.println( "Replica bound to: " + replica );
+    }
+    catch ( Exception err )
+    {
+      System.out.println( "Fail ReplicaServer: " + err.getMessage() );
+    }
+  }
+}
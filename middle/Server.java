@@ -1,24 +1,56 @@
 package middle;
 
+import metrics.MetricsEndpoint;
+import orders.Order;
 import remote.R_Order;
 import remote.R_StockR;
 import remote.R_StockRW;
 
 import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.rmi.Naming;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
 
 
 /**
  * The server for the middle tier.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  */
 
 class Server
 {
+  static final int ORDER_RANGE = 1000000;          // Order numbers per shard
+
+  /**
+   * Start the server.
+   * <PRE>
+   *  Server [stockR-url [stockRW-url [order-url]]]
+   *  Server -node host:port [-shard n]    one node of a sharded middle tier
+   * </PRE>
+   * Several nodes can be run on the same machine by giving each its own
+   * port and its own Derby directory (-Dderby.system.home=...).
+   * The metrics are served on localhost if -Dcatshop.metrics.port=n
+   * is given, and are always available through JMX.
+   * @param args command line arguments
+   */
   public static void main( String args[] )
   {
+    MetricsEndpoint.startIfWanted();
+    if ( args.length >= 2 && args[0].equals( "-node" ) )
+    {
+      String node  = args[1];
+      int    shard = args.length >= 4 && args[2].equals( "-shard" )
+                     ? Integer.parseInt( args[3] )
+                     : 0;
+      Order.setFirstNumber( shard * ORDER_RANGE + 1 );  // Unique numbers
+      (new Server()).bind( Names.stockR( node ), Names.stockRW( node ),
+                           Names.order( node ) );
+      return;
+    }
+
     String stockR = args.length < 1      // URL of stock R
                    ? Names.STOCK_R       //  default  location
                    : args[0];            //  supplied location
@@ -34,6 +66,23 @@ class Server
     (new Server()).bind( stockR, stockRW, order );
   }
 
+  /**
+   * Port of the rmiregistry named in the url
+   * @param url rmi://host[:port]/name
+   * @return port number, 1099 if none given
+   */
+  static int registryPort( String url )
+  {
+    try
+    {
+      int port = new URI( url ).getPort();
+      return port < 0 ? Registry.REGISTRY_PORT : port;
+    } catch ( URISyntaxException e )
+    {
+      return Registry.REGISTRY_PORT;
+    }
+  }
+
   private void bind( String urlStockR, String urlStockRW,
                      String urlOrder )
   {
@@ -43,7 +92,7 @@ class Server
     System.out.println( "Server: " );   // Introduction
     try
     {
-      LocateRegistry.createRegistry(1099);
+      LocateRegistry.createRegistry( registryPort( urlStockR ) );
       String IPAddress = InetAddress.getLocalHost().getHostAddress();
       System.out.println("Server IP address " + IPAddress );
     } catch (Exception e)
@@ -64,7 +113,9 @@ class Server
       System.out.println( "StockRW bound to: " +      //  Inform world
                            urlStockRW );              // 
 
-      theOrder = new R_Order(urlOrder);               // Order
+      Order order = new Order();                      // Order
+      new OrderGauges( order );                       //  counted
+      theOrder = new R_Order(urlOrder, order);        //
       Naming.rebind( urlOrder, theOrder );            //  bind to url
       System.out.println( "Order   bound to: " +      //  Inform world
                          urlOrder ); 
@@ -0,0 +1,56 @@
+package middle;
+
+import java.io.Serializable;
+
+/**
+ * A record of one change made to the stock list.
+ * Changes are numbered in the order they were made so that a
+ * consumer (cache, replica, monitor) can ask for the changes
+ * made since the last one it saw.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class StockChange implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  public enum Kind { BUY, ADD, MODIFY }
+
+  private final long   theSeq;            // Sequence number
+  private final Kind   theKind;           // What happened
+  private final String theProductNum;     // Product changed
+  private final String theDescription;    // null unless MODIFY
+  private final double thePrice;          // 0.0  unless MODIFY
+  private final int    theQuantity;       // Stock level after change
+  private final int    theAmount;         // Amount bought / added
+
+  public StockChange( long aSeq, Kind aKind, String aProductNum,
+                      String aDescription, double aPrice,
+                      int aQuantity, int anAmount )
+  {
+    theSeq         = aSeq;
+    theKind        = aKind;
+    theProductNum  = aProductNum;
+    theDescription = aDescription;
+    thePrice       = aPrice;
+    theQuantity    = aQuantity;
+    theAmount      = anAmount;
+  }
+
+  public long   getSeq()         { return theSeq; }
+  public Kind   getKind()        { return theKind; }
+  public String getProductNum()  { return theProductNum; }
+  public String getDescription() { return theDescription; }
+  public double getPrice()       { return thePrice; }
+  public int    getQuantity()    { return theQuantity; }
+  public int    getAmount()      { return theAmount; }
+
+  @Override
+  public String toString()
+  {
+    return String.format( "#%d %s %s level=%d amount=%d",
+                          theSeq, theKind, theProductNum,
+                          theQuantity, theAmount );
+  }
+}
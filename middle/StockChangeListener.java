@@ -0,0 +1,27 @@
+package middle;
+
+import java.util.List;
+
+/**
+  * Receives the changes made to the stock list from a StockChangeTailer.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface StockChangeListener
+{
+  /**
+   * A batch of changes, in order.
+   * The next batch is not fetched until this returns.
+   * @param changes The changes made
+   */
+  void changesMade( List<StockChange> changes );
+
+  /**
+   * Changes have been missed as the feed no longer holds them,
+   *  the listener should rebuild its state from a snapshot
+   * @return sequence number to carry on from
+   * @throws StockException if the state can not be rebuilt
+   */
+  long changesLost() throws StockException;
+}
@@ -0,0 +1,97 @@
+package middle;
+
+import debug.DEBUG;
+
+import java.util.List;
+
+/**
+ * Follows the changes made to the stock list, passing them in
+ * batches to a listener as they are made.
+ * The tailer waits on the feed rather than polling it, and only
+ * asks for the next batch once the listener has dealt with the
+ * last one, so a slow listener is never sent more than it can take.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class StockChangeTailer
+{
+  private static final long WAIT_MS  = 5000;      // Longest single wait
+  private static final long RETRY_MS = 2000;      // After an error
+
+  private final StockFeed           theFeed;
+  private final StockChangeListener theListener;
+  private final int                 theBatch;
+  private volatile long             lastSeq;
+  private volatile boolean          running = false;
+
+  /**
+   * @param feed     Where the changes come from
+   * @param fromSeq  Last change already seen by the listener
+   * @param batch    Most changes passed to the listener at once
+   * @param listener Told about the changes
+   */
+  public StockChangeTailer( StockFeed feed, long fromSeq, int batch,
+                            StockChangeListener listener )
+  {
+    theFeed     = feed;
+    lastSeq     = fromSeq;
+    theBatch    = batch;
+    theListener = listener;
+  }
+
+  /**
+   * Start following the changes in a background thread
+   */
+  public synchronized void start()
+  {
+    if ( running ) return;
+    running = true;
+    Thread t = new Thread( this::follow, "StockChangeTailer" );
+    t.setDaemon( true );
+    t.start();
+  }
+
+  public void stop()
+  {
+    running = false;
+  }
+
+  /**
+   * @return sequence number of the last change passed on
+   */
+  public long getLastSeq()
+  {
+    return lastSeq;
+  }
+
+  private void follow()
+  {
+    while ( running )
+    {
+      try
+      {
+        List<StockChange> changes =
+          theFeed.awaitChanges( lastSeq, theBatch, WAIT_MS );
+        if ( changes == null )                     // Fallen too far behind
+        {
+          lastSeq = theListener.changesLost();
+        } else if ( !changes.isEmpty() )
+        {
+          theListener.changesMade( changes );
+          lastSeq = changes.get( changes.size() - 1 ).getSeq();
+        }
+      } catch ( StockException e )
+      {
+        DEBUG.trace( "StockChangeTailer: %s", e.getMessage() );
+        try
+        {
+          Thread.sleep( RETRY_MS );
+        } catch ( InterruptedException ie )
+        {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package middle;
+
+import java.util.List;
+
+/**
+  * Interface for observing the changes made to the stock list.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface StockFeed
+{
+  /**
+   * Returns a copy of the stock list and the sequence number
+   * of the last change it contains
+   * @return snapshot of the stock list
+   * @throws StockException if issue
+   */
+  StockSnapshot snapshot() throws StockException;
+
+  /**
+   * Returns the changes made after the change numbered seq
+   * @param seq Sequence number of the last change seen
+   * @param max Maximum number of changes to return
+   * @return the changes in order, empty if none,
+   *          null if changes after seq are no longer held
+   *          (the caller should take a new snapshot)
+   * @throws StockException if issue
+   */
+  List<StockChange> changesSince( long seq, int max ) throws StockException;
+
+  /**
+   * As changesSince, but if no changes have been made after seq
+   * wait up to timeout milliseconds for one to be made.
+   * Lets a consumer follow the stock list without polling.
+   * @param seq Sequence number of the last change seen
+   * @param max Maximum number of changes to return
+   * @param timeout Longest time to wait in milliseconds
+   * @return the changes in order, empty if none,
+   *          null if changes after seq are no longer held
+   * @throws StockException if issue
+   */
+  List<StockChange> awaitChanges( long seq, int max, long timeout )
+                    throws StockException;
+}
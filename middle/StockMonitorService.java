@@ -1,58 +1,174 @@
 package middle;
 
 import catalogue.Product;
+import debug.DEBUG;
+
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Service to monitor stock levels and track products that need attention
+ * Service to monitor stock levels and track products that need attention.
+ * When the stock object is also a StockFeed the monitor follows the
+ * changes made to the stock list once started, so stock levels are
+ * always live and a report needs no database access.
  */
-public class StockMonitorService {
+public class StockMonitorService implements StockChangeListener {
+    private static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+    private static final int BATCH = 500;
+    private static final int RECENT_RESTOCKS = 10;   // Shown in report
+    private static final long HOUR = 60L * 60 * 1000;
+    private static final long RETRY_MS = 5000;       // Between loads tried
+
     private final StockReadWriter stockReadWriter;
-    private static final int LOW_STOCK_THRESHOLD = 5;
+    private final StockFeed stockFeed;      // null if changes can not be followed
+    private volatile int defaultThreshold = DEFAULT_LOW_STOCK_THRESHOLD;
 
     // Map to store known products and their last known quantities
-    private final Map<String, ProductInfo> knownProducts;
-    // Map to store restock history
-    private final List<RestockRecord> restockHistory;
+    private final Map<String, ProductInfo> knownProducts = new ConcurrentHashMap<>();
+    // Per product low stock thresholds, others use the default
+    private final Map<String, Integer> thresholds = new ConcurrentHashMap<>();
+    // Known products below their threshold, lowest stock first
+    private final NavigableSet<ProductInfo> lowStock = new ConcurrentSkipListSet<>();
+    // Restock and sales history, bounded
+    private final StockTimeSeries history;
+    private final AtomicBoolean started = new AtomicBoolean();
 
     public StockMonitorService(StockReadWriter stockReadWriter) {
+        this(stockReadWriter, new StockTimeSeries());
+    }
+
+    /**
+     * @param stockReadWriter Stock list to monitor
+     * @param history Where to keep the restock and sales history
+     */
+    public StockMonitorService(StockReadWriter stockReadWriter, StockTimeSeries history) {
         this.stockReadWriter = stockReadWriter;
-        this.knownProducts = new HashMap<>();
-        this.restockHistory = new ArrayList<>();
+        this.history = history;
+        this.stockFeed = stockReadWriter instanceof StockFeed
+                ? (StockFeed) stockReadWriter : null;
+    }
+
+    /**
+     * Start following the changes made to the stock list, if they can
+     * be followed.  The stock list is loaded in the background, the
+     * database is asked till then, a load that fails is tried again
+     * every RETRY_MS.  Starting again does nothing.
+     */
+    public void start() {
+        if (stockFeed == null || !started.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("stock-monitor-load").start(this::follow);
+    }
+
+    /**
+     * Load the stock list and follow the changes made after it
+     */
+    private void follow() {
+        while (true) {
+            try {
+                long seq = changesLost();              // Initial load
+                new StockChangeTailer(stockFeed, seq, BATCH, this).start();
+                return;
+            } catch (StockException e) {
+                DEBUG.trace("StockMonitorService: %s, trying again", e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
     }
 
     /**
-     * Record of a restock operation
+     * Product information including monitoring status, never changed once made.
+     * Ordered by quantity then product number for the low stock index.
      */
-    private static class RestockRecord {
+    private static class ProductInfo implements Comparable<ProductInfo> {
         final String productNum;
         final String description;
-        final int quantity;
-        final Date timestamp;
+        final int lastKnownQuantity;
+        final Date lastChecked;
 
-        RestockRecord(String productNum, String description, int quantity) {
+        ProductInfo(String productNum, String description, int quantity) {
             this.productNum = productNum;
             this.description = description;
-            this.quantity = quantity;
-            this.timestamp = new Date();
+            this.lastKnownQuantity = quantity;
+            this.lastChecked = new Date();
+        }
+
+        @Override
+        public int compareTo(ProductInfo o) {
+            int c = Integer.compare(lastKnownQuantity, o.lastKnownQuantity);
+            return c != 0 ? c : productNum.compareTo(o.productNum);
         }
     }
 
     /**
-     * Product information including monitoring status
+     * Set the threshold below which a product is low on stock
+     * @param productNum Product number
+     * @param threshold Low stock threshold for this product
      */
-    private static class ProductInfo {
-        String description;
-        int lastKnownQuantity;
-        Date lastChecked;
+    public void setThreshold(String productNum, int threshold) {
+        thresholds.put(productNum, threshold);
+        knownProducts.computeIfPresent(productNum, (k, info) -> index(info, info));
+    }
 
-        ProductInfo(String description, int quantity) {
-            this.description = description;
-            this.lastKnownQuantity = quantity;
-            this.lastChecked = new Date();
+    /**
+     * Set the threshold used for products without their own threshold
+     * @param threshold Low stock threshold
+     */
+    public void setDefaultThreshold(int threshold) {
+        defaultThreshold = threshold;
+        knownProducts.replaceAll((k, info) -> index(info, info));
+    }
+
+    private int thresholdFor(String productNum) {
+        return thresholds.getOrDefault(productNum, defaultThreshold);
+    }
+
+    /**
+     * Record the latest information about a product,
+     * keeping the low stock index up to date
+     */
+    private void update(String productNum, String description, int quantity) {
+        knownProducts.compute(productNum, (k, old) -> index(old,
+                new ProductInfo(k,
+                        description != null ? description
+                                : old != null ? old.description : "",
+                        quantity)));
+    }
+
+    /**
+     * Move a product's entry in the low stock index,
+     * called while holding the product's entry in knownProducts
+     */
+    private ProductInfo index(ProductInfo old, ProductInfo info) {
+        if (old != null) lowStock.remove(old);
+        if (info.lastKnownQuantity < thresholdFor(info.productNum)) lowStock.add(info);
+        return info;
+    }
+
+    public void changesMade(List<StockChange> changes) {
+        for (StockChange c : changes) {
+            update(c.getProductNum(), c.getDescription(), c.getQuantity());
+            if (c.getKind() == StockChange.Kind.ADD) {
+                history.record(StockTimeSeries.RESTOCK, c.getProductNum(), c.getAmount());
+            } else if (c.getKind() == StockChange.Kind.BUY) {
+                history.record(StockTimeSeries.SALE, c.getProductNum(), c.getAmount());
+            }
         }
     }
 
+    public long changesLost() throws StockException {
+        StockSnapshot snap = stockFeed.snapshot();
+        for (Product product : snap.getProducts()) {
+            update(product.getProductNum(), product.getDescription(), product.getQuantity());
+        }
+        return snap.getSeq();
+    }
+
     /**
      * Check a product's stock level and record its information
      * @param productNum Product number to check
@@ -60,24 +176,26 @@ public class StockMonitorService {
      */
     public String checkProduct(String productNum) {
         try {
-            if (!stockReadWriter.exists(productNum)) {
-                return "Product " + productNum + " does not exist.";
+            ProductInfo info = stockFeed != null ? knownProducts.get(productNum) : null;
+            if (info == null) {                        // Not followed, ask database
+                if (!stockReadWriter.exists(productNum)) {
+                    return "Product " + productNum + " does not exist.";
+                }
+                Product product = stockReadWriter.getDetails(productNum);
+                update(productNum, product.getDescription(), product.getQuantity());
+                info = knownProducts.get(productNum);
             }
 
-            Product product = stockReadWriter.getDetails(productNum);
-            ProductInfo info = new ProductInfo(product.getDescription(), product.getQuantity());
-            knownProducts.put(productNum, info);
-
-            if (product.getQuantity() == 0) {
+            if (info.lastKnownQuantity == 0) {
                 return String.format("ALERT: %s (%s) is OUT OF STOCK!",
-                        product.getDescription(), productNum);
-            } else if (product.getQuantity() < LOW_STOCK_THRESHOLD) {
+                        info.description, productNum);
+            } else if (info.lastKnownQuantity < thresholdFor(productNum)) {
                 return String.format("WARNING: %s (%s) is LOW ON STOCK! Only %d remaining",
-                        product.getDescription(), productNum, product.getQuantity());
+                        info.description, productNum, info.lastKnownQuantity);
             }
 
             return String.format("%s (%s) stock level: %d",
-                    product.getDescription(), productNum, product.getQuantity());
+                    info.description, productNum, info.lastKnownQuantity);
 
         } catch (StockException e) {
             return "Error checking product " + productNum + ": " + e.getMessage();
@@ -85,19 +203,21 @@ public class StockMonitorService {
     }
 
     /**
-     * Record a restock operation
+     * Record a restock operation.
+     * When following the stock changes restocks are recorded as they
+     * happen, so this does nothing.
      * @param productNum Product number
      * @param quantity Amount restocked
      */
     public void recordRestock(String productNum, int quantity) {
+        if (stockFeed != null) return;
         try {
             if (stockReadWriter.exists(productNum)) {
                 Product product = stockReadWriter.getDetails(productNum);
-                restockHistory.add(new RestockRecord(productNum, product.getDescription(), quantity));
+                history.record(StockTimeSeries.RESTOCK, productNum, quantity);
 
                 // Update known products
-                ProductInfo info = new ProductInfo(product.getDescription(), product.getQuantity());
-                knownProducts.put(productNum, info);
+                update(productNum, product.getDescription(), product.getQuantity());
             }
         } catch (StockException e) {
             // Log error if needed
@@ -105,7 +225,8 @@ public class StockMonitorService {
     }
 
     /**
-     * Generate a complete stock report
+     * Generate a complete stock report.
+     * Only the products low on stock are visited, the database is not used.
      * @return Formatted report string
      */
     public String generateReport() {
@@ -117,25 +238,14 @@ public class StockMonitorService {
         report.append("----------------------\n");
         boolean hasCriticalItems = false;
 
-        for (Map.Entry<String, ProductInfo> entry : knownProducts.entrySet()) {
-            String productNum = entry.getKey();
-            try {
-                if (stockReadWriter.exists(productNum)) {
-                    Product product = stockReadWriter.getDetails(productNum);
-                    if (product.getQuantity() < LOW_STOCK_THRESHOLD) {
-                        hasCriticalItems = true;
-                        report.append(String.format("Product: %s\n", product.getDescription()));
-                        report.append(String.format("ID: %s\n", productNum));
-                        report.append(String.format("Current stock: %d %s\n",
-                                product.getQuantity(),
-                                product.getQuantity() == 0 ? "(OUT OF STOCK)" : "(LOW STOCK)"));
-                        report.append("----------------------\n");
-                    }
-                }
-            } catch (StockException e) {
-                // Skip problematic products
-                continue;
-            }
+        for (ProductInfo info : lowStock) {
+            hasCriticalItems = true;
+            report.append(String.format("Product: %s\n", info.description));
+            report.append(String.format("ID: %s\n", info.productNum));
+            report.append(String.format("Current stock: %d %s\n",
+                    info.lastKnownQuantity,
+                    info.lastKnownQuantity == 0 ? "(OUT OF STOCK)" : "(LOW STOCK)"));
+            report.append("----------------------\n");
         }
 
         if (!hasCriticalItems) {
@@ -143,24 +253,43 @@ public class StockMonitorService {
             report.append("----------------------\n");
         }
 
-        // Restock History Section
+        // Restock History Section, from the rollups
+        long now = System.currentTimeMillis();
         report.append("\nRESTOCK HISTORY:\n");
         report.append("----------------------\n");
-        if (restockHistory.isEmpty()) {
+        if (history.getEventCount() == 0) {
             report.append("No restocks recorded.\n");
         } else {
-            report.append(String.format("Total restocks: %d\n\n", restockHistory.size()));
-            for (RestockRecord record : restockHistory) {
-                report.append(String.format("Product: %s\n", record.description));
-                report.append(String.format("ID: %s\n", record.productNum));
-                report.append(String.format("Added: %d units\n", record.quantity));
-                report.append(String.format("Time: %s\n",
-                        new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm")
-                                .format(record.timestamp)));
+            report.append(String.format("Today: %d restocks (%d units), %d sales (%d units)\n\n",
+                    history.dayCount(StockTimeSeries.RESTOCK, now),
+                    history.dayUnits(StockTimeSeries.RESTOCK, now),
+                    history.dayCount(StockTimeSeries.SALE, now),
+                    history.dayUnits(StockTimeSeries.SALE, now)));
+
+            report.append("Last 24 hours (units restocked / sold):\n");
+            java.text.SimpleDateFormat hourFormat = new java.text.SimpleDateFormat("HH:00");
+            for (int h = 23; h >= 0; h--) {
+                long t = now - h * HOUR;
+                int restocked = history.hourUnits(StockTimeSeries.RESTOCK, t);
+                int sold = history.hourUnits(StockTimeSeries.SALE, t);
+                if (restocked != 0 || sold != 0) {
+                    report.append(String.format("%s  %5d / %5d\n",
+                            hourFormat.format(new Date(t)), restocked, sold));
+                }
+            }
+
+            report.append("\nMost recent restocks:\n");
+            java.text.SimpleDateFormat timeFormat = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm");
+            for (StockTimeSeries.Event event : history.recent(StockTimeSeries.RESTOCK, RECENT_RESTOCKS)) {
+                ProductInfo info = knownProducts.get(event.productNum);
+                report.append(String.format("Product: %s\n", info != null ? info.description : ""));
+                report.append(String.format("ID: %s\n", event.productNum));
+                report.append(String.format("Added: %d units\n", event.amount));
+                report.append(String.format("Time: %s\n", timeFormat.format(new Date(event.time))));
                 report.append("----------------------\n");
             }
         }
 
         return report.toString();
     }
-}
\ No newline at end of file
+}
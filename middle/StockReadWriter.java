@@ -5,7 +5,7 @@ import catalogue.Product;
 /**
   * Interface for read/write access to the stock list.
   * @author  Mike Smith University of Brighton
-  * @version 2.0
+  * @version 2.2
   */
  
 public interface StockReadWriter extends StockReader
@@ -29,11 +29,55 @@ public interface StockReadWriter extends StockReader
   void addStock(String pNum, int amount) throws StockException;
   
   /**
-   * Modifies Stock details for a given product number.
-   * Information modified: Description, Price
+   * Modifies Stock details for a given product number,
+   *  adding the product if it is not in the stock list.
+   * Information modified: Description, Price, Stock level
    * @param detail Replace with this version of product
    * @throws middle.StockException if issue
    */
   void modifyStock(Product detail) throws StockException;
 
+  /**
+   * Modifies Stock details for a given product number only if
+   *  the product is still at the version given, that is no one has
+   *  changed it (or bought or added stock) since it was read.
+   * Version 0 adds the product only if it is not in the stock list.
+   * Information modified: Description, Price, Stock level
+   * @param detail Replace with this version of product
+   * @param version Version the product was read at (Product.getVersion)
+   * @return true if changed, false if the product has been changed
+   *         since, read it again and retry
+   * @throws middle.StockException if issue
+   */
+  boolean modifyStock(Product detail, int version) throws StockException;
+
+  /**
+   * Holds stock for a customer so no one else can buy it,
+   *  until the hold is committed, released or runs out.
+   * @param pNum Product number
+   * @param amount Quantity of product
+   * @param ttl How long to hold it for, in milliseconds
+   * @return token for the hold, starting "pNum/",
+   *         or null if not enough stock is free
+   * @throws middle.StockException if issue
+   */
+  String reserveStock(String pNum, int amount, long ttl) throws StockException;
+
+  /**
+   * Buys the stock held, stock level is decremented.
+   * A hold that has run out is bought if the stock is still free.
+   * @param token Token for the hold
+   * @return true if bought, false if the hold has run out and the
+   *         stock has since been sold or held for another customer
+   * @throws middle.StockException if issue
+   */
+  boolean commitReservation(String token) throws StockException;
+
+  /**
+   * Gives back the stock held, without buying it.
+   * @param token Token for the hold
+   * @throws middle.StockException if issue
+   */
+  void releaseReservation(String token) throws StockException;
+
 }
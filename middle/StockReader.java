@@ -3,6 +3,7 @@ package middle;
 import catalogue.Product;
 
 import javax.swing.*;
+import java.util.List;
 
 /**
   * Interface for read access to the stock list.
@@ -39,4 +40,15 @@ public interface StockReader
    */
   
   ImageIcon getImage(String pNum) throws StockException;
+
+  /**
+   * Returns the products whose description best matches the text,
+   *  words may be the start of a word or have a typo
+   * @param text Words to look for
+   * @param max Most products to return
+   * @return products, best match first
+   * @throws StockException if issue
+   */
+
+  List<Product> search(String text, int max) throws StockException;
 }
@@ -0,0 +1,166 @@
+package middle;
+
+import catalogue.Product;
+import debug.DEBUG;
+
+import javax.swing.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read only copy of the stock list held in memory.
+ * The copy is started from a snapshot of the stock list and then
+ * kept up to date by applying the changes recorded by StockRW.
+ * Reads never touch the database, so browsing (customer kiosks)
+ * can be spread over as many replicas as needed.
+ * Pictures are not copied, getImage is passed on to the source.
+ * The descriptions are indexed so search is also answered from memory.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class StockReplica implements AsyncStockReader, StockChangeListener
+{
+  private static final int  BATCH   = 500;        // Changes per request
+
+  private final StockFeed   theFeed;
+  private final StockReader theSource;
+  private final Map<String,Product> products = new ConcurrentHashMap<>();
+  private final ProductIndex theIndex = new ProductIndex();
+  private volatile long lastSeq = 0;              // Last change applied
+
+  /**
+   * @param feed   Source of the snapshot and changes
+   * @param source Source of the product pictures
+   */
+  public StockReplica( StockFeed feed, StockReader source )
+  {
+    theFeed   = feed;
+    theSource = source;
+  }
+
+  /**
+   * Load the stock list and start following the changes made to it
+   * @throws StockException if the stock list can not be read
+   */
+  public void start() throws StockException
+  {
+    load();
+    new StockChangeTailer( theFeed, lastSeq, BATCH, this ).start();
+  }
+
+  /**
+   * Replace the copy with a new snapshot of the stock list
+   */
+  private synchronized void load() throws StockException
+  {
+    StockSnapshot snap = theFeed.snapshot();
+    Set<String> seen = new HashSet<>();
+    for ( Product pr : snap.getProducts() )
+    {
+      products.put( pr.getProductNum(), pr );
+      seen.add( pr.getProductNum() );
+    }
+    products.keySet().retainAll( seen );
+    theIndex.load( snap.getSeq(), snap.getProducts() );
+    lastSeq = snap.getSeq();
+    DEBUG.trace( "StockReplica: loaded %d products at #%d",
+                 products.size(), lastSeq );
+  }
+
+  public void changesMade( List<StockChange> changes )
+  {
+    for ( StockChange change : changes ) apply( change );
+  }
+
+  public long changesLost() throws StockException
+  {
+    load();
+    return lastSeq;
+  }
+
+  private synchronized void apply( StockChange c )
+  {
+    if ( c.getSeq() <= lastSeq ) return;           // Already in copy
+    switch ( c.getKind() )
+    {
+      case BUY :
+      case ADD :
+        products.computeIfPresent( c.getProductNum(),
+          (k, pr) -> new Product( k, pr.getDescription(),
+                                  pr.getPrice(), c.getQuantity() ) );
+        break;
+      case MODIFY :
+        products.put( c.getProductNum(),
+                      new Product( c.getProductNum(), c.getDescription(),
+                                   c.getPrice(), c.getQuantity() ) );
+        break;
+    }
+    theIndex.apply( c );
+    lastSeq = c.getSeq();
+  }
+
+  /**
+   * @return sequence number of the last change applied
+   */
+  public long getLastSeq()
+  {
+    return lastSeq;
+  }
+
+  public boolean exists( String pNum )
+  {
+    return products.containsKey( pNum );
+  }
+
+  /**
+   * Returns a copy of the product details, the caller may change it
+   * @param pNum Product number
+   * @return details, product number "0" if not known
+   */
+  public Product getDetails( String pNum )
+  {
+    Product pr = products.get( pNum );
+    if ( pr == null ) return new Product( "0", "", 0.00, 0 );
+    return new Product( pr.getProductNum(), pr.getDescription(),
+                        pr.getPrice(), pr.getQuantity() );
+  }
+
+  public ImageIcon getImage( String pNum ) throws StockException
+  {
+    return theSource.getImage( pNum );
+  }
+
+  public List<Product> search( String text, int max )
+  {
+    return theIndex.search( text, max );
+  }
+
+  /**
+   * Answered from the copy in memory, so the future is already complete
+   */
+  public CompletableFuture<Boolean> existsAsync( String pNum )
+  {
+    return CompletableFuture.completedFuture( exists( pNum ) );
+  }
+
+  /**
+   * Answered from the copy in memory, so the future is already complete
+   */
+  public CompletableFuture<Product> getDetailsAsync( String pNum )
+  {
+    return CompletableFuture.completedFuture( getDetails( pNum ) );
+  }
+
+  /**
+   * Answered from the index in memory, so the future is already complete
+   */
+  public CompletableFuture<List<Product>> searchAsync( String text, int max )
+  {
+    return CompletableFuture.completedFuture( search( text, max ) );
+  }
+}
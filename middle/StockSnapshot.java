@@ -0,0 +1,32 @@
+package middle;
+
+import catalogue.Product;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the whole stock list, together with the sequence number
+ * of the last change included in it.
+ * Changes after getSeq() can then be applied to bring the copy up to date.
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+public class StockSnapshot implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final long               theSeq;
+  private final ArrayList<Product> theProducts;   // Serializable copy
+
+  public StockSnapshot( long aSeq, List<Product> products )
+  {
+    theSeq      = aSeq;
+    theProducts = new ArrayList<>( products );
+  }
+
+  public long          getSeq()      { return theSeq; }
+  public List<Product> getProducts() { return theProducts; }
+}
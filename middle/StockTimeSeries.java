@@ -0,0 +1,327 @@
+package middle;
+
+import debug.DEBUG;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded store of restock and sales events.
+ * <PRE>
+ * Recent events   held in primitive column arrays, oldest overwritten
+ * Hourly rollups  units and count of restocks/sales for each hour
+ * Daily rollups   units and count of restocks/sales for each day
+ * </PRE>
+ * Rollups are kept in circular arrays of buckets, so memory use is
+ * fixed however long the shop runs and asking for a bucket's totals
+ * takes constant time.  An event older than the bucket now held for
+ * its time is left out of the rollup.
+ * The product numbers of recent events are each held once; those no
+ * longer used are dropped each time round the event columns, so no
+ * more are held than twice the number of recent events.
+ * If a directory is given, recent events are also written to one
+ * segment file per day before they are overwritten, files older than
+ * the daily retention are deleted.
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+public class StockTimeSeries
+{
+  public static final int RESTOCK = 0;
+  public static final int SALE    = 1;
+
+  private static final long HOUR = 60L * 60 * 1000;
+  private static final long DAY  = 24 * HOUR;
+
+  // Recent events, one column per field
+  private final long[]   evTime;
+  private final int[]    evProduct;               // Index into productNums
+  private final int[]    evAmount;
+  private final byte[]   evKind;
+  private long           evCount = 0;             // Events ever recorded
+
+  private final List<String>         productNums = new ArrayList<>();
+  private final Map<String,Integer>  productIdx  = new HashMap<>();
+
+  private final Rollup hourly;
+  private final Rollup daily;
+  private final File   segmentDir;                // null if not kept
+
+  /**
+   * Totals for fixed width time buckets held in a circular array
+   */
+  private static class Rollup
+  {
+    final long   width;                           // Bucket width ms
+    final long[] start;                           // Bucket number held
+    final int[][] units;                          // [kind][bucket]
+    final int[][] count;                          // [kind][bucket]
+
+    Rollup( long aWidth, int buckets )
+    {
+      width = aWidth;
+      start = new long[ buckets ];
+      units = new int[ 2 ][ buckets ];
+      count = new int[ 2 ][ buckets ];
+      java.util.Arrays.fill( start, -1 );
+    }
+
+    void add( long time, int kind, int amount )
+    {
+      long b  = time / width;
+      int  at = (int) (b % start.length);
+      if ( b < start[ at ] ) return;              // Bucket since reused
+      if ( start[ at ] != b )                     // Expired bucket
+      {
+        start[ at ] = b;
+        for ( int k = 0; k < 2; k++ ) { units[k][at] = 0; count[k][at] = 0; }
+      }
+      units[ kind ][ at ] += amount;
+      count[ kind ][ at ] += 1;
+    }
+
+    /** Index of bucket holding time, or -1 if not held */
+    int bucket( long time )
+    {
+      long b  = time / width;
+      int  at = (int) (b % start.length);
+      return start[ at ] == b ? at : -1;
+    }
+  }
+
+  /**
+   * A store holding a week of hourly and 90 days of daily totals,
+   *  the last 4096 events and no segment files
+   */
+  public StockTimeSeries()
+  {
+    this( 4096, 7 * 24, 90, null );
+  }
+
+  /**
+   * @param events     Recent events held in memory
+   * @param hours      Hourly buckets held
+   * @param days       Daily buckets held
+   * @param segmentDir Directory for segment files, null if none
+   */
+  public StockTimeSeries( int events, int hours, int days, File segmentDir )
+  {
+    evTime    = new long[ events ];
+    evProduct = new int [ events ];
+    evAmount  = new int [ events ];
+    evKind    = new byte[ events ];
+    hourly    = new Rollup( HOUR, hours );
+    daily     = new Rollup( DAY,  days );
+    this.segmentDir = segmentDir;
+    if ( segmentDir != null ) segmentDir.mkdirs();
+  }
+
+  /**
+   * Record an event happening now
+   * @param kind    RESTOCK or SALE
+   * @param pNum    Product number
+   * @param amount  Units restocked or sold
+   */
+  public void record( int kind, String pNum, int amount )
+  {
+    record( kind, pNum, amount, System.currentTimeMillis() );
+  }
+
+  public synchronized void record( int kind, String pNum, int amount,
+                                   long time )
+  {
+    int at = (int) (evCount % evTime.length);
+    if ( at == 0 && evCount > 0 )                 // About to overwrite
+    {
+      if ( segmentDir != null ) writeSegments();
+      compactProducts();
+    }
+    evTime[ at ]    = time;
+    evProduct[ at ] = productIdx.computeIfAbsent( pNum, p ->
+                      { productNums.add( p ); return productNums.size() - 1; } );
+    evAmount[ at ]  = amount;
+    evKind[ at ]    = (byte) kind;
+    evCount++;
+    hourly.add( time, kind, amount );
+    daily.add( time, kind, amount );
+  }
+
+  /**
+   * @return number of events ever recorded
+   */
+  public synchronized long getEventCount()
+  {
+    return evCount;
+  }
+
+  /** Units of kind in the hour containing time, 0 if not held */
+  public synchronized int hourUnits( int kind, long time )
+  {
+    int b = hourly.bucket( time );
+    return b < 0 ? 0 : hourly.units[ kind ][ b ];
+  }
+
+  /** Number of events of kind in the hour containing time */
+  public synchronized int hourCount( int kind, long time )
+  {
+    int b = hourly.bucket( time );
+    return b < 0 ? 0 : hourly.count[ kind ][ b ];
+  }
+
+  /** Units of kind on the day containing time, 0 if not held */
+  public synchronized int dayUnits( int kind, long time )
+  {
+    int b = daily.bucket( time );
+    return b < 0 ? 0 : daily.units[ kind ][ b ];
+  }
+
+  /** Number of events of kind on the day containing time */
+  public synchronized int dayCount( int kind, long time )
+  {
+    int b = daily.bucket( time );
+    return b < 0 ? 0 : daily.count[ kind ][ b ];
+  }
+
+  /**
+   * An event held in memory
+   */
+  public static class Event
+  {
+    public final long   time;
+    public final int    kind;
+    public final String productNum;
+    public final int    amount;
+
+    Event( long time, int kind, String productNum, int amount )
+    {
+      this.time       = time;
+      this.kind       = kind;
+      this.productNum = productNum;
+      this.amount     = amount;
+    }
+  }
+
+  /**
+   * The most recent events of one kind, newest first
+   * @param kind RESTOCK or SALE
+   * @param max  Most events to return
+   * @return list of events
+   */
+  public synchronized List<Event> recent( int kind, int max )
+  {
+    List<Event> res = new ArrayList<>( max );
+    long oldest = Math.max( 0, evCount - evTime.length );
+    for ( long n = evCount - 1; n >= oldest && res.size() < max; n-- )
+    {
+      int at = (int) (n % evTime.length);
+      if ( evKind[ at ] == kind )
+        res.add( new Event( evTime[ at ], kind,
+                            productNums.get( evProduct[ at ] ),
+                            evAmount[ at ] ) );
+    }
+    return res;
+  }
+
+  /**
+   * Keep only the product numbers of the events held, renumbering them.
+   * Called once each time round the event columns.
+   */
+  private void compactProducts()
+  {
+    List<String>        nums = new ArrayList<>();
+    Map<String,Integer> idx  = new HashMap<>();
+    for ( int at = 0; at < evProduct.length; at++ )
+    {
+      String  p = productNums.get( evProduct[ at ] );
+      Integer i = idx.get( p );
+      if ( i == null )
+      {
+        i = nums.size();
+        nums.add( p );
+        idx.put( p, i );
+      }
+      evProduct[ at ] = i;
+    }
+    productNums.clear();
+    productNums.addAll( nums );
+    productIdx.clear();
+    productIdx.putAll( idx );
+  }
+
+  /**
+   * Append the events held, which are about to be overwritten, to the
+   * segment file for their day, then remove segments past the daily
+   * retention.  Called once each time round the event columns.
+   */
+  private void writeSegments()
+  {
+    long             day = -1;
+    DataOutputStream out = null;
+    try
+    {
+      for ( int at = 0; at < evTime.length; at++ )
+      {
+        if ( evTime[ at ] / DAY != day )          // Next day's file
+        {
+          close( out );
+          day = evTime[ at ] / DAY;
+          out = new DataOutputStream( new BufferedOutputStream(
+                  new FileOutputStream( segment( day ), true ) ) );
+        }
+        out.writeLong( evTime[ at ] );
+        out.writeByte( evKind[ at ] );
+        out.writeUTF ( productNums.get( evProduct[ at ] ) );
+        out.writeInt ( evAmount[ at ] );
+      }
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "StockTimeSeries: segment day %d\n%s", day, e.getMessage() );
+    } finally
+    {
+      close( out );
+    }
+    expireSegments( System.currentTimeMillis() / DAY );
+  }
+
+  private static void close( DataOutputStream out )
+  {
+    try
+    {
+      if ( out != null ) out.close();
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "StockTimeSeries: close\n%s", e.getMessage() );
+    }
+  }
+
+  private File segment( long day )
+  {
+    return new File( segmentDir, "events-" + day + ".seg" );
+  }
+
+  private void expireSegments( long today )
+  {
+    File[] files = segmentDir.listFiles( (d, n) -> n.endsWith( ".seg" ) );
+    if ( files == null ) return;
+    for ( File f : files )
+    {
+      String n = f.getName();
+      try
+      {
+        long day = Long.parseLong( n.substring( 7, n.length() - 4 ) );
+        if ( day <= today - daily.start.length ) f.delete();
+      } catch ( NumberFormatException e )
+      {
+        // Not a segment file
+      }
+    }
+  }
+}
@@ -1,14 +1,17 @@
 package orders;
 
 import catalogue.Basket;
-import catalogue.Product;
 import debug.DEBUG;
+import metrics.Metrics;
+import metrics.OrderTransitionEvent;
+import metrics.Timer;
+import middle.AsyncOrderProcessing;
 import middle.OrderException;
-import middle.OrderProcessing;
-
-import java.util.stream.Collectors;
+import middle.OrderReportPage;
+import middle.OrderStateNumbers;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The order processing system.<BR>
@@ -18,11 +21,19 @@ import java.util.*;
  * <BR><B>Waiting to be processed<BR>
  * Currently being packed<BR>
  * Waiting to be collected<BR></B>
+ * A packer may take orders with a lease, if the lease is not renewed
+ * before it runs out the order goes back to waiting to be processed,
+ * so an order is not lost if a packing client stops.
+ * Waiting orders are packed most urgent first, see PackingQueue.
+ * Each call is timed (metrics order.*), as is the time spent waiting
+ * for the lock on the orders (order.lock.wait).
+ * Each change of state is a JFR event (catshop.OrderTransition)
+ * recorded when turned on by metrics/catshop.jfc
  * @author  Mike Smith University of Brighton
- * @version 3.0
+ * @version 3.8
  */
  
-public class Order implements OrderProcessing
+public class Order implements AsyncOrderProcessing
 {
   private enum State {Waiting, BeingPacked, ToBeCollected };
   /**
@@ -32,11 +43,16 @@ public class Order implements OrderProcessing
   {
     private State  stateIs;       // Order state
     private Basket basket;        // For this basket
+    private String packer;        // Holder of lease, null if none
+    private long   leaseEnds;     // Time lease runs out
+    private long   rank;          // Place in packing queue
+    private long   since;         // Time state entered
     
     public Folder( Basket anOrder )
     {
       stateIs = State.Waiting;
       basket  = anOrder;
+      since   = System.currentTimeMillis();
     }
 
     public State getState()                { return this.stateIs; }
@@ -48,25 +64,54 @@ public class Order implements OrderProcessing
   
   // Active orders in the Catshop system
   private final ArrayList<Folder>  folders = new ArrayList<>();
-  private static int theNextNumber = 1;          // Start at order 1
+  // Order numbers in each state, indexed by State.ordinal()
+  private final OrderNumbers[]     inState =
+    { new OrderNumbers(), new OrderNumbers(), new OrderNumbers() };
+  // Orders waiting to be packed, most urgent first
+  private final PackingQueue       waiting = new PackingQueue();
+  // Active orders by order number
+  private final HashMap<Integer,Folder> byNumber = new HashMap<>();
+  // Orders being packed under a lease, the first lease to run out first
+  private final TreeSet<Folder>    leases  = new TreeSet<>(
+    Comparator.<Folder>comparingLong( f -> f.leaseEnds )
+              .thenComparingInt( f -> f.getBasket().getOrderNum() ) );
+  // Next order number, also issued by OrderX and OrderXC
+  private static final AtomicInteger theNextNumber = new AtomicInteger( 1 );
+  // Paged reports being read
+  private final ReportSnapshots    reports = new ReportSnapshots();
+
+  private static final Timer T_NUMBER    = Metrics.timer( "order.uniqueNumber" );
+  private static final Timer T_NEW       = Metrics.timer( "order.newOrder" );
+  private static final Timer T_TAKE      = Metrics.timer( "order.getOrderToPack" );
+  private static final Timer T_TAKE_N    = Metrics.timer( "order.getOrdersToPack" );
+  private static final Timer T_PACKED    = Metrics.timer( "order.informOrderPacked" );
+  private static final Timer T_RENEW     = Metrics.timer( "order.renewLeases" );
+  private static final Timer T_COLLECTED = Metrics.timer( "order.informOrderCollected" );
+  private static final Timer T_STATE     = Metrics.timer( "order.getOrderStateNumbers" );
+  private static final Timer T_COUNTS    = Metrics.timer( "order.getOrderStateCounts" );
+  private static final Timer T_REPORT    = Metrics.timer( "order.generateOrderReport" );
+  private static final Timer T_PAGE      = Metrics.timer( "order.getOrderReportPage" );
+  private static final Timer T_LOCK      = Metrics.timer( "order.lock.wait" );
 
-  /**  
-   * Used to generate debug information
-   * @param  basket an instance of a basket
-   * @return Description of contents
+  /**
+   * Set the number of the next order to be created.
+   * Used when several order servers run side by side (sharded)
+   *  so that each issues order numbers from its own range.
+   *  The numbers of OrderX and OrderXC are set too.
+   * @param first Number of the next order
    */
-  private String asString( Basket basket )
+  public static void setFirstNumber( int first )
   {
-    StringBuilder sb = new StringBuilder(1024);
-    Formatter     fr = new Formatter(sb);
-    fr.format( "#%d (", basket.getOrderNum() );
-    for ( Product pr: basket )
-    {
-       fr.format( "%-15.15s: %3d ", pr.getDescription(), pr.getQuantity() );
-    }
-    fr.format( ")" );
-    fr.close();
-    return sb.toString();
+    theNextNumber.set( first );
+  }
+
+  /**
+   * The next order number, shared by all the order processing systems
+   *  of this JVM
+   */
+  static int nextNumber()
+  {
+    return theNextNumber.getAndIncrement();
   }
 
   /**
@@ -74,24 +119,45 @@ public class Order implements OrderProcessing
    *   would be good to recycle numbers after 999
    * @return A unique order number
    */
-  public synchronized int uniqueNumber()
+  public int uniqueNumber()
          throws OrderException
   {
-    return theNextNumber++;
+    long start = T_NUMBER.start();
+    try
+    {
+      return nextNumber();
+    } finally
+    {
+      T_NUMBER.stop( start );
+    }
   }
 
   /**
    * Add a new order to the order processing system
    * @param bought A new order that is to be processed
    */ 
-  public synchronized void newOrder( Basket bought )
+  public void newOrder( Basket bought )
          throws OrderException
   {
-    DEBUG.trace( "DEBUG: New order" );
-    folders.add( new Folder( bought ) );
-    for ( Folder bws : folders )
+    long start = T_NEW.start();
+    try
+    {
+      synchronized ( this )
+      {
+        T_LOCK.stop( start );
+        DEBUG.trace( "DEBUG: New order" );
+        Folder folder = new Folder( bought );
+        folders.add( folder );
+        byNumber.put( bought.getOrderNum(), folder );
+        folder.rank = waiting.add( bought );
+        inState[ State.Waiting.ordinal() ].add( bought.getOrderNum() );
+        OrderTransitionEvent.record( bought.getOrderNum(), "New",
+                                     State.Waiting.toString(), null, 0 );
+        DEBUG.trace( "Order: " + OrderReport.asString( bought ) );
+      }
+    } finally
     {
-       DEBUG.trace( "Order: " + asString( bws.getBasket() ) );
+      T_NEW.stop( start );
     }
   }
 
@@ -99,44 +165,163 @@ public class Order implements OrderProcessing
    * Returns an order to pack from the warehouse.
    * @return An order to pack or null if no order
    */
-  public synchronized Basket getOrderToPack()
+  public Basket getOrderToPack()
          throws OrderException
   {
-    DEBUG.trace( "DEBUG: Get order to pack" );
-    Basket foundWaiting = null;
-    for ( Folder bws : folders )
+    long start = T_TAKE.start();
+    try
     {
-      if ( bws.getState() == State.Waiting )
+      synchronized ( this )
       {
-        foundWaiting = bws.getBasket();
-        bws.newState( State.BeingPacked );
-        break;
+        T_LOCK.stop( start );
+        DEBUG.trace( "DEBUG: Get order to pack" );
+        reapLeases();
+        Basket foundWaiting = waiting.poll();
+        if ( foundWaiting != null )
+          move( byNumber.get( foundWaiting.getOrderNum() ), State.BeingPacked );
+        return foundWaiting;
       }
+    } finally
+    {
+      T_TAKE.stop( start );
     }
-    return foundWaiting;
   }
 
   /**
    * Informs the order processing system that the order has been
    * packed and the products are now being delivered to the
-   * collection desk
+   * collection desk.  A leased order can only be packed by the packer
+   * holding the lease.
    * @param  orderNum The order that has been packed
-   * @return true Order in system, false no such order
+   * @param  packerId Packer holding its lease, null if taken without one
+   * @return true Order packed, false no such order or lease not held
    */
-  public synchronized boolean informOrderPacked( int orderNum )
+  public boolean informOrderPacked( int orderNum, String packerId )
          throws OrderException
   {
-    DEBUG.trace( "DEBUG: Order packed [%d]", orderNum );
-    for ( int i=0; i < folders.size(); i++)
+    long start = T_PACKED.start();
+    try
     {
-      if ( folders.get(i).getBasket().getOrderNum() == orderNum && 
-           folders.get(i).getState()                == State.BeingPacked )
+      synchronized ( this )
       {
-        folders.get(i).newState( State.ToBeCollected );
-        return true;
+        T_LOCK.stop( start );
+        DEBUG.trace( "DEBUG: Order packed [%d]", orderNum );
+        reapLeases();
+        Folder folder = byNumber.get( orderNum );
+        if ( folder != null && folder.getState() == State.BeingPacked &&
+             Objects.equals( folder.packer, packerId ) )
+        {
+          if ( folder.packer != null ) leases.remove( folder );
+          move( folder, State.ToBeCollected );
+          folder.packer = null;
+          return true;
+        }
+        return false;
       }
+    } finally
+    {
+      T_PACKED.stop( start );
+    }
+  }
+
+  /**
+   * Take up to max orders to pack, each held under a lease by the packer.
+   * Taking more than one lets a packer have the next order ready.
+   * @param packerId  Identity of the packer
+   * @param max       Most orders to take
+   * @param leaseTime How long the lease lasts in milliseconds
+   * @return The orders taken, empty if none waiting
+   */
+  public List<Basket> getOrdersToPack( String packerId, int max,
+                                                    long leaseTime )
+         throws OrderException
+  {
+    long start = T_TAKE_N.start();
+    try
+    {
+      synchronized ( this )
+      {
+        T_LOCK.stop( start );
+        DEBUG.trace( "DEBUG: Get orders to pack [%s] %d", packerId, max );
+        reapLeases();
+        List<Basket> res  = new ArrayList<>();
+        long         ends = System.currentTimeMillis() + leaseTime;
+        Basket basket;
+        while ( res.size() < max && (basket = waiting.poll()) != null )
+        {
+          Folder bws = byNumber.get( basket.getOrderNum() );
+          bws.packer    = packerId;
+          move( bws, State.BeingPacked );
+          bws.leaseEnds = ends;
+          leases.add( bws );
+          res.add( basket );
+        }
+        return res;
+      }
+    } finally
+    {
+      T_TAKE_N.stop( start );
+    }
+  }
+
+  /**
+   * Renew the leases a packer holds on the orders given, the leases
+   * on any other orders it holds are left to run out
+   * @param packerId  Identity of the packer
+   * @param orderNums The orders the packer is still working on
+   * @param leaseTime How long the leases now last in milliseconds
+   * @return The orders whose leases were renewed
+   */
+  public int[] renewLeases( String packerId, int[] orderNums, long leaseTime )
+         throws OrderException
+  {
+    long start = T_RENEW.start();
+    try
+    {
+      synchronized ( this )
+      {
+        T_LOCK.stop( start );
+        reapLeases();
+        List<Folder> held = new ArrayList<>();
+        for ( int num : orderNums )
+        {
+          Folder f = byNumber.get( num );
+          if ( f != null && f.getState() == State.BeingPacked &&
+               packerId.equals( f.packer ) ) held.add( f );
+        }
+        long  ends    = System.currentTimeMillis() + leaseTime;
+        int[] renewed = new int[ held.size() ];
+        for ( int i = 0; i < renewed.length; i++ )
+        {
+          Folder f = held.get( i );
+          leases.remove( f );                          // Key is changing
+          f.leaseEnds = ends;
+          leases.add( f );
+          renewed[ i ] = f.getBasket().getOrderNum();
+        }
+        return renewed;
+      }
+    } finally
+    {
+      T_RENEW.stop( start );
+    }
+  }
+
+  /**
+   * Put orders whose lease has run out back to waiting to be processed
+   */
+  private void reapLeases()
+  {
+    long now = System.currentTimeMillis();
+    while ( !leases.isEmpty() && leases.first().leaseEnds <= now )
+    {
+      Folder f = leases.pollFirst();
+      DEBUG.trace( "DEBUG: Lease expired [%d] %s",
+                   f.getBasket().getOrderNum(), f.packer );
+      move( f, State.Waiting );
+      f.packer = null;
+      waiting.add( f.getBasket(), f.rank );        // Same place as before
     }
-    return false;
   }
 
   /**
@@ -144,20 +329,32 @@ public class Order implements OrderProcessing
    * collected by the customer
    * @return true If order is in the system, otherwise false
    */
-  public synchronized boolean informOrderCollected( int orderNum )
+  public boolean informOrderCollected( int orderNum )
          throws OrderException
   {
-    DEBUG.trace( "DEBUG: Order collected [%d]", orderNum );
-    for ( int i=0; i < folders.size(); i++)
+    long start = T_COLLECTED.start();
+    try
     {
-      if ( folders.get(i).getBasket().getOrderNum() == orderNum &&
-           folders.get(i).getState()                == State.ToBeCollected )
+      synchronized ( this )
       {
-        folders.remove(i);
-        return true;
+        T_LOCK.stop( start );
+        DEBUG.trace( "DEBUG: Order collected [%d]", orderNum );
+        Folder folder = byNumber.get( orderNum );
+        if ( folder != null && folder.getState() == State.ToBeCollected )
+        {
+          folders.remove( folder );
+          byNumber.remove( orderNum );
+          inState[ State.ToBeCollected.ordinal() ].remove( orderNum );
+          OrderTransitionEvent.record( orderNum, State.ToBeCollected.toString(),
+                                       "Collected", null, folder.since );
+          return true;
+        }
+        return false;
       }
+    } finally
+    {
+      T_COLLECTED.stop( start );
     }
-    return false;
   }
 
   /**
@@ -173,107 +370,142 @@ public class Order implements OrderProcessing
    * </PRE>
    * @return a Map with the keys: "Waiting", "BeingPacked", "ToBeCollected"
    */
-  public synchronized Map<String, List<Integer> > getOrderState()
+  public Map<String, List<Integer> > getOrderState()
          throws OrderException
   {
     //DEBUG.trace( "DEBUG: get state of order system" );
-    Map < String, List<Integer> > res = new HashMap<>();
-
-    res.put( "Waiting",       orderNums(State.Waiting) );
-    res.put( "BeingPacked",   orderNums(State.BeingPacked) );
-    res.put( "ToBeCollected", orderNums(State.ToBeCollected) );
-
-    return res;
+    return getOrderStateNumbers().toMap();
   }
 
   /**
-   * Return the list of order numbers in selected state
-   * @param inState The state to find order numbers in
-   * @return A list of order numbers
+   * Returns the order numbers of the orders in each state
+   * as primitive arrays.
+   * @return order numbers by state
    */
-  private List<Integer> orderNumsOldWay( State inState )
+  public OrderStateNumbers getOrderStateNumbers()
+         throws OrderException
   {
-    List <Integer> res = new ArrayList<>();
-    for ( Folder folder : folders )
+    long start = T_STATE.start();
+    try
     {
-      if ( folder.getState() == inState )
+      synchronized ( this )
       {
-       res.add( folder.getBasket().getOrderNum() );
+        T_LOCK.stop( start );
+        reapLeases();
+        return new OrderStateNumbers(
+                 inState[ State.Waiting.ordinal() ].toArray(),
+                 inState[ State.BeingPacked.ordinal() ].toArray(),
+                 inState[ State.ToBeCollected.ordinal() ].toArray() );
       }
+    } finally
+    {
+      T_STATE.stop( start );
     }
-    return res;
   }
 
   /**
-   * Return the list of order numbers in selected state
-   * @param inState The state to find order numbers in
-   * @return A list of order numbers
+   * Returns the number of orders in each state,
+   *  kept as orders change state so no orders are visited
+   * @return Counts of orders waiting, being packed, to be collected
    */
-  private List<Integer> orderNums( State inState )
+  public int[] getOrderStateCounts()
+         throws OrderException
   {
-    return folders.stream()
-            .filter( folder -> folder.getState() == inState ) 
-            .map( folder -> folder.getBasket().getOrderNum() )
-            .collect( Collectors.toList() );
+    long start = T_COUNTS.start();
+    try
+    {
+      synchronized ( this )
+      {
+        T_LOCK.stop( start );
+        reapLeases();
+        return new int[] { inState[ State.Waiting.ordinal() ].size(),
+                           inState[ State.BeingPacked.ordinal() ].size(),
+                           inState[ State.ToBeCollected.ordinal() ].size() };
+      }
+    } finally
+    {
+      T_COUNTS.stop( start );
+    }
   }
 
-  public synchronized String generateOrderReport() throws OrderException
+  /**
+   * Move an order to a new state, keeping the
+   * order numbers held for each state up to date
+   * @param folder The order
+   * @param to     Its new state
+   */
+  private void move( Folder folder, State to )
   {
-    StringBuilder report = new StringBuilder();
-    Formatter formatter = new Formatter(report);
-
-    // Header
-    formatter.format("ORDER PROCESSING SYSTEM REPORT%n");
-    formatter.format("==============================%n%n");
-
-    // Group orders by state
-    Map<State, List<Folder>> ordersByState = folders.stream()
-            .collect(Collectors.groupingBy(Folder::getState));
-
-    // Orders waiting to be processed
-    formatter.format("ORDERS WAITING TO BE PROCESSED:%n");
-    formatter.format("--------------------------------%n");
-    List<Folder> waitingOrders = ordersByState.getOrDefault(State.Waiting, new ArrayList<>());
-    if (waitingOrders.isEmpty()) {
-      formatter.format("No orders waiting%n");
-    } else {
-      waitingOrders.forEach(folder ->
-              formatter.format("%s%n", asString(folder.getBasket())));
-    }
-    formatter.format("%n");
+    int num = folder.getBasket().getOrderNum();
+    OrderTransitionEvent.record( num, folder.getState().toString(),
+                                 to.toString(), folder.packer, folder.since );
+    inState[ folder.getState().ordinal() ].remove( num );
+    inState[ to.ordinal() ].add( num );
+    folder.newState( to );
+    folder.since = System.currentTimeMillis();
+  }
 
-    // Orders being packed
-    formatter.format("ORDERS CURRENTLY BEING PACKED:%n");
-    formatter.format("-------------------------------%n");
-    List<Folder> packingOrders = ordersByState.getOrDefault(State.BeingPacked, new ArrayList<>());
-    if (packingOrders.isEmpty()) {
-      formatter.format("No orders being packed%n");
-    } else {
-      packingOrders.forEach(folder ->
-              formatter.format("%s%n", asString(folder.getBasket())));
+  /**
+   * Returns a report of all the orders in the system.
+   * The orders are copied while holding the lock,
+   * the report is formatted after the lock is released.
+   * @return the report
+   */
+  public String generateOrderReport() throws OrderException
+  {
+    long start = T_REPORT.start();
+    try
+    {
+      List<List<Basket>> byState = new ArrayList<>();
+      for ( int s = 0; s < OrderReport.STATES; s++ )
+        byState.add( new ArrayList<>() );
+      long locking = T_LOCK.start();
+      synchronized ( this )
+      {
+        T_LOCK.stop( locking );
+        for ( Folder folder : folders )
+          byState.get( folder.getState().ordinal() ).add( folder.getBasket() );
+      }
+      return OrderReport.full( byState );
+    } finally
+    {
+      T_REPORT.stop( start );
     }
-    formatter.format("%n");
+  }
 
-    // Orders to be collected
-    formatter.format("ORDERS WAITING TO BE COLLECTED:%n");
-    formatter.format("--------------------------------%n");
-    List<Folder> collectOrders = ordersByState.getOrDefault(State.ToBeCollected, new ArrayList<>());
-    if (collectOrders.isEmpty()) {
-      formatter.format("No orders waiting for collection%n");
-    } else {
-      collectOrders.forEach(folder ->
-              formatter.format("%s%n", asString(folder.getBasket())));
+  /**
+   * Returns the next page of the report of all the orders in the system.
+   * Orders are reported by state and then by order number, all the
+   * pages of a report are of the orders as they were when the first
+   * page was asked for (see ReportSnapshots).
+   * @param previous The page before, null for the first page
+   * @param pageSize Most orders to put on the page
+   * @return the page
+   */
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
+         throws OrderException
+  {
+    long start = T_PAGE.start();
+    try
+    {
+      return reports.page( previous, pageSize, () ->
+      {
+        List<List<Basket>> byState = new ArrayList<>();
+        for ( int s = 0; s < OrderReport.STATES; s++ )
+          byState.add( new ArrayList<>() );
+        long locking = T_LOCK.start();
+        synchronized ( this )
+        {
+          T_LOCK.stop( locking );
+          for ( Folder folder : folders )
+            byState.get( folder.getState().ordinal() ).add( folder.getBasket() );
+        }
+        return byState;
+      } );
+    } finally
+    {
+      T_PAGE.stop( start );
     }
-
-    // Summary statistics
-    formatter.format("%nSUMMARY:%n");
-    formatter.format("---------%n");
-    formatter.format("Total orders in system: %d%n", folders.size());
-    formatter.format("- Waiting to be processed: %d%n", waitingOrders.size());
-    formatter.format("- Currently being packed: %d%n", packingOrders.size());
-    formatter.format("- Waiting to be collected: %d%n", collectOrders.size());
-
-    formatter.close();
-    return report.toString();
   }
 }
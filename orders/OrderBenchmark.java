@@ -0,0 +1,95 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.Product;
+import middle.OrderProcessing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares Order, OrderX and OrderXC with many threads at once.
+ * Half the threads act as cashiers adding new orders, the other half
+ * as packers taking an order, packing it and having it collected.
+ * Each implementation is run for a warm up period then measured,
+ * the orders added and orders collected each second are reported.
+ * <PRE>
+ * java orders.OrderBenchmark [threads [seconds]]
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+public class OrderBenchmark
+{
+  private static final int WARMUP_SECONDS = 2;
+
+  public static void main( String[] args ) throws Exception
+  {
+    int threads = args.length > 0 ? Integer.parseInt( args[0] )
+                                  : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 1 ? Integer.parseInt( args[1] ) : 5;
+    threads = Math.max( 2, threads );
+
+    System.out.printf( "%d threads, %d seconds each%n", threads, seconds );
+    System.out.printf( "%-8s %14s %14s%n", "class", "added/s", "collected/s" );
+    run( "Order",   new Order(),   threads, seconds );
+    run( "OrderX",  new OrderX(),  threads, seconds );
+    run( "OrderXC", new OrderXC(), threads, seconds );
+  }
+
+  private static void run( String name, OrderProcessing orders,
+                           int threads, int seconds ) throws Exception
+  {
+    AtomicBoolean  measuring = new AtomicBoolean( false );
+    AtomicBoolean  stop      = new AtomicBoolean( false );
+    LongAdder      added     = new LongAdder();
+    LongAdder      collected = new LongAdder();
+    CountDownLatch done      = new CountDownLatch( threads );
+
+    for ( int t = 0; t < threads; t++ )
+    {
+      boolean cashier = t % 2 == 0;
+      new Thread( () ->
+      {
+        try
+        {
+          while ( !stop.get() )
+          {
+            if ( cashier )
+            {
+              Basket b = new Basket();
+              b.setOrderNum( orders.uniqueNumber() );
+              b.add( new Product( "0001", "40 inch LED HD TV", 269.00, 1 ) );
+              orders.newOrder( b );
+              if ( measuring.get() ) added.increment();
+            } else {
+              Basket b = orders.getOrderToPack();
+              if ( b == null ) { Thread.yield(); continue; }
+              orders.informOrderPacked( b.getOrderNum(), null );
+              orders.informOrderCollected( b.getOrderNum() );
+              if ( measuring.get() ) collected.increment();
+            }
+          }
+        } catch ( Exception e )
+        {
+          System.out.printf( "%s: %s%n", name, e.getMessage() );
+        } finally
+        {
+          done.countDown();
+        }
+      } ).start();
+    }
+
+    Thread.sleep( WARMUP_SECONDS * 1000L );
+    measuring.set( true );
+    Thread.sleep( seconds * 1000L );
+    measuring.set( false );
+    stop.set( true );
+    done.await();
+
+    System.out.printf( "%-8s %14d %14d%n", name,
+                       added.sum() / seconds, collected.sum() / seconds );
+  }
+}
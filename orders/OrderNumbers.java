@@ -0,0 +1,55 @@
+package orders;
+
+import java.util.Arrays;
+
+/**
+ * A set of order numbers held in a primitive int array,
+ * kept in the order they were added.
+ * Avoids boxing each order number when the state of the
+ * order system is asked for.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class OrderNumbers
+{
+  private int[] nums = new int[ 16 ];
+  private int   size = 0;
+
+  void add( int orderNum )
+  {
+    if ( size == nums.length )
+      nums = Arrays.copyOf( nums, size * 2 );
+    nums[ size++ ] = orderNum;
+  }
+
+  /**
+   * Remove an order number, searching from the oldest
+   * as that is the one most likely to be removed
+   * @param orderNum Order number
+   * @return true if it was held
+   */
+  boolean remove( int orderNum )
+  {
+    for ( int i = 0; i < size; i++ )
+    {
+      if ( nums[ i ] == orderNum )
+      {
+        System.arraycopy( nums, i + 1, nums, i, size - i - 1 );
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  int[] toArray()
+  {
+    return Arrays.copyOf( nums, size );
+  }
+}
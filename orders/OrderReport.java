@@ -0,0 +1,159 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.Product;
+import middle.OrderReportPage;
+
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * Formats the order processing report for Order and OrderX.
+ * The caller takes a copy of the orders while holding its lock,
+ * formatting is then done here without the lock held.
+ * States are numbered 0 waiting, 1 being packed, 2 to be collected.
+ * @author  Mike Smith University of Brighton
+ * @version 1.1
+ */
+
+class OrderReport
+{
+  static final int STATES = 3;
+
+  private static final String[] TITLES =
+  {
+    "ORDERS WAITING TO BE PROCESSED:%n--------------------------------%n",
+    "ORDERS CURRENTLY BEING PACKED:%n-------------------------------%n",
+    "ORDERS WAITING TO BE COLLECTED:%n--------------------------------%n"
+  };
+  private static final String[] NONE =
+  {
+    "No orders waiting%n",
+    "No orders being packed%n",
+    "No orders waiting for collection%n"
+  };
+
+  /**
+   * Description of an order
+   * @param  basket an instance of a basket
+   * @return Description of contents
+   */
+  static String asString( Basket basket )
+  {
+    StringBuilder sb = new StringBuilder(1024);
+    Formatter     fr = new Formatter(sb);
+    fr.format( "#%d (", basket.getOrderNum() );
+    for ( Product pr: basket )
+    {
+       fr.format( "%-15.15s: %3d ", pr.getDescription(), pr.getQuantity() );
+    }
+    fr.format( ")" );
+    fr.close();
+    return sb.toString();
+  }
+
+  /**
+   * The whole report
+   * @param byState Orders in each state
+   * @return the report
+   */
+  static String full( List<List<Basket>> byState )
+  {
+    StringBuilder report = new StringBuilder();
+    Formatter formatter = new Formatter(report);
+    header( formatter );
+    int[] counts = new int[ STATES ];
+    for ( int s = 0; s < STATES; s++ )
+    {
+      List<Basket> orders = byState.get( s );
+      counts[ s ] = orders.size();
+      formatter.format( TITLES[ s ] );
+      if ( orders.isEmpty() ) formatter.format( NONE[ s ] );
+      for ( Basket basket : orders )
+        formatter.format( "%s%n", asString( basket ) );
+      if ( s < STATES - 1 ) formatter.format( "%n" );
+    }
+    summary( formatter, counts );
+    formatter.close();
+    return report.toString();
+  }
+
+  /**
+   * One page of the report
+   * @param previous Page before, null for the first page
+   * @param states   State of each order on this page
+   * @param orders   Orders on this page, in report order
+   * @param last     True if this is the last page
+   * @param counts   Orders in each state, used on the last page
+   * @param report   Report the page is part of, 0 if none
+   * @param next     Where the next page starts in the report
+   * @return the page
+   */
+  static OrderReportPage page( OrderReportPage previous,
+                               int[] states, List<Basket> orders,
+                               boolean last, int[] counts,
+                               long report, int next )
+  {
+    StringBuilder text = new StringBuilder();
+    Formatter formatter = new Formatter(text);
+    int state = previous == null ? -1 : previous.getState();
+    int after = previous == null ?  0 : previous.getAfter();
+    if ( previous == null ) header( formatter );
+    for ( int i = 0; i < orders.size(); i++ )
+    {
+      while ( state < states[ i ] )             // Into next section
+      {
+        if ( state >= 0 && after == 0 ) formatter.format( NONE[ state ] );
+        if ( state >= 0 ) formatter.format( "%n" );
+        state++;
+        after = 0;
+        formatter.format( TITLES[ state ] );
+      }
+      formatter.format( "%s%n", asString( orders.get( i ) ) );
+      after = orders.get( i ).getOrderNum();
+    }
+    if ( last )
+    {
+      while ( state < STATES - 1 )             // Remaining sections
+      {
+        if ( state >= 0 && after == 0 ) formatter.format( NONE[ state ] );
+        if ( state >= 0 ) formatter.format( "%n" );
+        state++;
+        after = 0;
+        formatter.format( TITLES[ state ] );
+      }
+      if ( after == 0 ) formatter.format( NONE[ state ] );
+      summary( formatter, counts );
+    }
+    formatter.close();
+    return new OrderReportPage( text.toString(), state, after, last, null,
+                                report, next );
+  }
+
+  /**
+   * True if the order comes after the end of the previous page
+   */
+  static boolean after( OrderReportPage previous, int state, int orderNum )
+  {
+    return previous == null ||
+           state > previous.getState() ||
+           ( state == previous.getState() && orderNum > previous.getAfter() );
+  }
+
+  private static void header( Formatter formatter )
+  {
+    formatter.format("ORDER PROCESSING SYSTEM REPORT%n");
+    formatter.format("==============================%n%n");
+  }
+
+  private static void summary( Formatter formatter, int[] counts )
+  {
+    formatter.format("%nSUMMARY:%n");
+    formatter.format("---------%n");
+    formatter.format("Total orders in system: %d%n",
+                     counts[0] + counts[1] + counts[2]);
+    formatter.format("- Waiting to be processed: %d%n", counts[0]);
+    formatter.format("- Currently being packed: %d%n", counts[1]);
+    formatter.format("- Waiting to be collected: %d%n", counts[2]);
+  }
+}
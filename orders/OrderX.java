@@ -2,10 +2,11 @@
 package orders;
 
 import catalogue.Basket;
-import catalogue.Product;
 import debug.DEBUG;
+import middle.AsyncOrderProcessing;
 import middle.OrderException;
-import middle.OrderProcessing;
+import middle.OrderReportPage;
+import middle.OrderStateNumbers;
 
 import java.util.stream.Collectors;
 
@@ -13,7 +14,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Formatter;
+import java.util.Objects;
 
 /**
   * <BR>-----------------------------------------
@@ -28,15 +29,15 @@ import java.util.Formatter;
   * <BR><B>Waiting to be processed<BR>
   * Curently being picked<BR>
   * Waiting to be collected<BR></B>
+  * Orders waiting are picked most urgent first, see PackingQueue.
   * @author  Michael Alexander Smith
-  * @version 2.0
+  * @version 2.5
   */
  
-public class OrderX implements OrderProcessing
+public class OrderX implements AsyncOrderProcessing
 {
-  private static int theNextNumber = 1;          // Start at 1
   // Orders entered but waiting to be processed (picked)
-  private ArrayList<Basket>  theWaitingTray = new ArrayList<Basket>();
+  private PackingQueue       theWaitingTray = new PackingQueue();
 
   // Orders being processed (currently being picked)
   private ArrayList<Basket>  theBeingPickedTray = new ArrayList<Basket>();
@@ -44,33 +45,23 @@ public class OrderX implements OrderProcessing
   // Orders waiting to be collected by the customer
   private ArrayList<Basket>  theToBeCollectedTray = new ArrayList<Basket>();
 
-  /**
-   * Used to generate debug information
-   * @Param  basket an instance of a basket
-   * @Return Description of contents
-   */
-  private String asString( Basket basket )
-  {
-    StringBuilder sb = new StringBuilder(1024);
-    Formatter     fr = new Formatter(sb);
-    fr.format( "#%d (", basket.getOrderNum() );
-    for ( Product pr: basket )
-    {
-       fr.format( "%-15.15s: %3d ", pr.getDescription(), pr.getQuantity() );
-    }
-    fr.format( ")" );
-    fr.close();
-    return sb.toString();
-  }
+  // Time each leased order's lease runs out, by order number
+  private HashMap<Integer,Long> theLeaseEnds = new HashMap<Integer,Long>();
+  // Packer holding each leased order, by order number
+  private HashMap<Integer,String> theLeaseHolders = new HashMap<Integer,String>();
+  // Place in the waiting tray of each order, by order number
+  private HashMap<Integer,Long> theRanks = new HashMap<Integer,Long>();
+  // Paged reports being read
+  private final ReportSnapshots reports = new ReportSnapshots();
 
   /**
    * Generates a unique order number
    *   would be good to recycle numbers after 999
    * @return A unique order number
    */
-  public synchronized int uniqueNumber()
+  public int uniqueNumber()
   {
-    return theNextNumber++;
+    return Order.nextNumber();                    // Shared with Order
   }
 
   /**
@@ -82,11 +73,8 @@ public class OrderX implements OrderProcessing
   {
     // You need to modify and fill in the correct code
     DEBUG.trace( "DEBUG: New order" );
-    theWaitingTray.add( bought );
-    for ( Basket bl : theWaitingTray )
-    {
-      DEBUG.trace( "Order: " + asString( bl ) );
-    }
+    theRanks.put( bought.getOrderNum(), theWaitingTray.add( bought ) );
+    DEBUG.trace( "Order: " + OrderReport.asString( bought ) );
   }
 
   /**
@@ -100,40 +88,115 @@ public class OrderX implements OrderProcessing
   {
     // You need to modify and fill in the correct code
     DEBUG.trace( "DEBUG: Get order to pack" );
-    if ( theWaitingTray.size() > 0 )
+    reapLeases();
+    Basket process = theWaitingTray.poll();
+    if ( process != null )
     {
-      Basket process = theWaitingTray.remove(0);
        theBeingPickedTray.add( process );
-       return process;
     }
-     return null;
+    return process;
   }
 
   /**
    * Informs the order processing system that the order has been
    * picked and the products are now being delivered to the
-   * collection desk
+   * collection desk, by the packer holding its lease
    * @param  orderNum the order that has been picked
-   * @return true :: Order in system, false -:: no such order
+   * @param  packerId packer holding its lease, null if taken without one
+   * @return true :: Order picked, false -:: no such order or not its lease
    */
 
-  public synchronized boolean informOrderPacked( int orderNum )
+  public synchronized boolean informOrderPacked( int orderNum, String packerId )
          throws OrderException
   {
     // You need to modify and fill in the correct code
     DEBUG.trace( "DEBUG: Order picked [%d]", orderNum );
+    reapLeases();
+    if ( !Objects.equals( theLeaseHolders.get( orderNum ), packerId ) )
+      return false;
     for ( int i=0; i<theBeingPickedTray.size(); i++)
     {
       if ( theBeingPickedTray.get(i).getOrderNum() == orderNum )
       {
         Basket picked = theBeingPickedTray.remove(i);
         theToBeCollectedTray.add( picked );
+        theLeaseEnds.remove( orderNum );
+        theLeaseHolders.remove( orderNum );
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Take up to max orders to pick, each leased to the packer
+   * @param packerId  Identity of the packer
+   * @param max       Most orders to take
+   * @param leaseTime How long the lease lasts in milliseconds
+   * @return The orders taken, empty if none waiting
+   */
+  public synchronized List<Basket> getOrdersToPack( String packerId, int max,
+                                                    long leaseTime )
+         throws OrderException
+  {
+    reapLeases();
+    List<Basket> res  = new ArrayList<Basket>();
+    long         ends = System.currentTimeMillis() + leaseTime;
+    Basket process;
+    while ( res.size() < max && (process = theWaitingTray.poll()) != null )
+    {
+      theBeingPickedTray.add( process );
+      theLeaseEnds.put( process.getOrderNum(), ends );
+      theLeaseHolders.put( process.getOrderNum(), packerId );
+      res.add( process );
+    }
+    return res;
+  }
+
+  /**
+   * Renew the leases a packer holds on the orders given
+   * @param packerId  Identity of the packer
+   * @param orderNums The orders the packer is still working on
+   * @param leaseTime How long the leases now last in milliseconds
+   * @return The orders whose leases were renewed
+   */
+  public synchronized int[] renewLeases( String packerId, int[] orderNums,
+                                         long leaseTime )
+         throws OrderException
+  {
+    reapLeases();
+    List<Integer> renewed = new ArrayList<Integer>();
+    long ends    = System.currentTimeMillis() + leaseTime;
+    for ( int num : orderNums )
+    {
+      if ( packerId.equals( theLeaseHolders.get( num ) ) )
+      {
+        theLeaseEnds.put( num, ends );
+        renewed.add( num );
+      }
+    }
+    return renewed.stream().mapToInt( Integer::intValue ).toArray();
+  }
+
+  /**
+   * Put orders whose lease has run out back in their place in the waiting tray
+   */
+  private void reapLeases()
+  {
+    long now = System.currentTimeMillis();
+    for ( int i = theBeingPickedTray.size() - 1; i >= 0; i-- )
+    {
+      int  num  = theBeingPickedTray.get(i).getOrderNum();
+      Long ends = theLeaseEnds.get( num );
+      if ( ends != null && ends <= now )
+      {
+        theWaitingTray.add( theBeingPickedTray.remove(i), theRanks.get( num ) );
+        theLeaseEnds.remove( num );
+        theLeaseHolders.remove( num );
+      }
+    }
+  }
+
   /**
    * Informs the order processing system that the order has been
    * collected by the customer
@@ -150,6 +213,7 @@ public class OrderX implements OrderProcessing
       if ( theToBeCollectedTray.get(i).getOrderNum() == orderNum )
       {
         theToBeCollectedTray.remove(i);
+        theRanks.remove( orderNum );
         return true;
       }
     }
@@ -174,14 +238,47 @@ public class OrderX implements OrderProcessing
     DEBUG.trace( "DEBUG: get state of order system" );
     Map < String, List<Integer> > res = 
       new HashMap< String, List<Integer> >();
-    res.put( "Waiting",       orderNos(theWaitingTray) );
+    res.put( "Waiting",       orderNos(theWaitingTray.toList()) );
     res.put( "BeingPicked",   orderNos(theBeingPickedTray) );
     res.put( "ToBeCollected", orderNos(theToBeCollectedTray) );
 
     return res;
   }
   
-  private List< Integer > orderNos( ArrayList<Basket> queue )
+  /**
+   * Returns the order numbers of the orders in each tray
+   * as primitive arrays.
+   * @return order numbers by state
+   */
+  public synchronized OrderStateNumbers getOrderStateNumbers()
+         throws OrderException
+  {
+    return new OrderStateNumbers( orderNums( theWaitingTray.toList() ),
+                                  orderNums( theBeingPickedTray ),
+                                  orderNums( theToBeCollectedTray ) );
+  }
+
+  /**
+   * Returns the number of orders in each tray
+   * @return Counts of orders waiting, being picked, to be collected
+   */
+  public synchronized int[] getOrderStateCounts()
+         throws OrderException
+  {
+    return new int[] { theWaitingTray.size(),
+                       theBeingPickedTray.size(),
+                       theToBeCollectedTray.size() };
+  }
+
+  private int[] orderNums( List<Basket> queue )
+  {
+    int[] res = new int[ queue.size() ];
+    for ( int i = 0; i < res.length; i++ )
+      res[ i ] = queue.get( i ).getOrderNum();
+    return res;
+  }
+
+  private List< Integer > orderNos( List<Basket> queue )
   {
     List <Integer> res = new ArrayList<Integer>();
     for ( Basket sb: queue )
@@ -191,60 +288,45 @@ public class OrderX implements OrderProcessing
     return res;
   }
 
-  public synchronized String generateOrderReport() throws OrderException
+  /**
+   * Returns a report of all the orders in the system.
+   * The trays are copied while holding the lock,
+   * the report is formatted after the lock is released.
+   * @return the report
+   */
+  public String generateOrderReport() throws OrderException
   {
-    StringBuilder report = new StringBuilder();
-    Formatter formatter = new Formatter(report);
-
-    // Header
-    formatter.format("ORDER PROCESSING SYSTEM REPORT%n");
-    formatter.format("==============================%n%n");
-
-    // Orders waiting to be processed
-    formatter.format("ORDERS WAITING TO BE PROCESSED:%n");
-    formatter.format("--------------------------------%n");
-    if (theWaitingTray.isEmpty()) {
-      formatter.format("No orders waiting%n");
-    } else {
-      for (Basket basket : theWaitingTray) {
-        formatter.format("%s%n", asString(basket));
-      }
-    }
-    formatter.format("%n");
-
-    // Orders being picked
-    formatter.format("ORDERS CURRENTLY BEING PICKED:%n");
-    formatter.format("-------------------------------%n");
-    if (theBeingPickedTray.isEmpty()) {
-      formatter.format("No orders being picked%n");
-    } else {
-      for (Basket basket : theBeingPickedTray) {
-        formatter.format("%s%n", asString(basket));
-      }
-    }
-    formatter.format("%n");
-
-    // Orders waiting to be collected
-    formatter.format("ORDERS WAITING TO BE COLLECTED:%n");
-    formatter.format("--------------------------------%n");
-    if (theToBeCollectedTray.isEmpty()) {
-      formatter.format("No orders waiting for collection%n");
-    } else {
-      for (Basket basket : theToBeCollectedTray) {
-        formatter.format("%s%n", asString(basket));
-      }
+    List<List<Basket>> byState = new ArrayList<>();
+    synchronized ( this )
+    {
+      byState.add( theWaitingTray.toList() );
+      byState.add( new ArrayList<>( theBeingPickedTray ) );
+      byState.add( new ArrayList<>( theToBeCollectedTray ) );
     }
+    return OrderReport.full( byState );
+  }
 
-    // Summary statistics
-    formatter.format("%nSUMMARY:%n");
-    formatter.format("---------%n");
-    formatter.format("Total orders in system: %d%n",
-            theWaitingTray.size() + theBeingPickedTray.size() + theToBeCollectedTray.size());
-    formatter.format("- Waiting to be processed: %d%n", theWaitingTray.size());
-    formatter.format("- Currently being picked: %d%n", theBeingPickedTray.size());
-    formatter.format("- Waiting to be collected: %d%n", theToBeCollectedTray.size());
-
-    formatter.close();
-    return report.toString();
+  /**
+   * Returns the next page of the report of all the orders in the system,
+   * all its pages of the orders as they were at its first page.
+   * @param previous The page before, null for the first page
+   * @param pageSize Most orders to put on the page
+   * @return the page
+   */
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
+         throws OrderException
+  {
+    return reports.page( previous, pageSize, () ->
+    {
+      List<List<Basket>> byState = new ArrayList<>();
+      synchronized ( this )
+      {
+        byState.add( theWaitingTray.toList() );
+        byState.add( new ArrayList<>( theBeingPickedTray ) );
+        byState.add( new ArrayList<>( theToBeCollectedTray ) );
+      }
+      return byState;
+    } );
   }
 }
@@ -0,0 +1,311 @@
+package orders;
+
+import catalogue.Basket;
+import debug.DEBUG;
+import middle.AsyncOrderProcessing;
+import middle.OrderException;
+import middle.OrderReportPage;
+import middle.OrderStateNumbers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * <BR>-----------------------------------------
+  * <BR>CONCURRENT IMPLEMENTATION OF class Order
+  * <BR>-----------------------------------------
+  * <P>
+  * As OrderX the orders are held in 3 trays, but no lock is held on the
+  * whole object, so a packer finishing an order does not hold up a
+  * cashier adding a new one.
+  * <PRE>
+  * Waiting        PackingQueue (skip list), most urgent first
+  * Being picked   concurrent map, order number to lease
+  * To be collected concurrent map, order number to order
+  * </PRE>
+  * An order leaves a tray by an atomic remove (poll from the queue,
+  * remove from a map), so only one caller can move it on.
+  * The state of the trays is not taken at one instant, an order that is
+  * moving between trays may be missing from, or seen in two of, the
+  * numbers returned.
+  * @author  Mike Smith University of Brighton
+  * @version 1.4
+  */
+
+public class OrderXC implements AsyncOrderProcessing
+{
+  private static final long REAP_MS = 1000;       // Between lease checks
+
+  // Orders entered but waiting to be processed (picked)
+  private final PackingQueue theWaitingTray = new PackingQueue();
+
+  // Orders being processed, with the lease held on each
+  private final Map<Integer,Picking> theBeingPickedTray = new ConcurrentHashMap<>();
+
+  // Orders waiting to be collected by the customer
+  private final Map<Integer,Basket>  theToBeCollectedTray = new ConcurrentHashMap<>();
+
+  // Place in the waiting tray of each order, by order number
+  private final Map<Integer,Long>    theRanks = new ConcurrentHashMap<>();
+  // Paged reports being read
+  private final ReportSnapshots      reports = new ReportSnapshots();
+
+  private final AtomicLong nextReap = new AtomicLong();
+
+  /**
+   * An order being picked and the lease on it, never changed once made
+   */
+  private static class Picking
+  {
+    final Basket basket;
+    final String packer;                          // null if no lease
+    final long   leaseEnds;
+
+    Picking( Basket basket, String packer, long leaseEnds )
+    {
+      this.basket    = basket;
+      this.packer    = packer;
+      this.leaseEnds = leaseEnds;
+    }
+  }
+
+  /**
+   * Generates a unique order number
+   * @return A unique order number
+   */
+  public int uniqueNumber()
+  {
+    return Order.nextNumber();                    // Shared with Order
+  }
+
+  /**
+   * Add a new order to the order processing system
+   * @param bought a new order that is to be processed
+   */
+  public void newOrder( Basket bought )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: New order #%d", bought.getOrderNum() );
+    long rank = PackingQueue.rank( bought, System.currentTimeMillis() );
+    theRanks.put( bought.getOrderNum(), rank );   // Known before it
+    theWaitingTray.add( bought, rank );           //  can be taken
+  }
+
+  /**
+   * Returns an order to pick from the warehouse.
+   * @return An order to pick or null if none
+   */
+  public Basket getOrderToPack()
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Get order to pack" );
+    reapLeases();
+    Basket process = theWaitingTray.poll();
+    if ( process != null )
+      theBeingPickedTray.put( process.getOrderNum(),
+                              new Picking( process, null, 0 ) );
+    return process;
+  }
+
+  /**
+   * Take up to max orders to pick, each leased to the packer
+   * @param packerId  Identity of the packer
+   * @param max       Most orders to take
+   * @param leaseTime How long the lease lasts in milliseconds
+   * @return The orders taken, empty if none waiting
+   */
+  public List<Basket> getOrdersToPack( String packerId, int max,
+                                       long leaseTime )
+         throws OrderException
+  {
+    reapLeases();
+    List<Basket> res  = new ArrayList<>();
+    long         ends = System.currentTimeMillis() + leaseTime;
+    Basket process;
+    while ( res.size() < max && (process = theWaitingTray.poll()) != null )
+    {
+      theBeingPickedTray.put( process.getOrderNum(),
+                              new Picking( process, packerId, ends ) );
+      res.add( process );
+    }
+    return res;
+  }
+
+  /**
+   * Renew the leases a packer holds on the orders given
+   * @param packerId  Identity of the packer
+   * @param orderNums The orders the packer is still working on
+   * @param leaseTime How long the leases now last in milliseconds
+   * @return The orders whose leases were renewed
+   */
+  public int[] renewLeases( String packerId, int[] orderNums, long leaseTime )
+         throws OrderException
+  {
+    reapLeases();
+    long          ends    = System.currentTimeMillis() + leaseTime;
+    List<Integer> renewed = new ArrayList<>();
+    for ( int num : orderNums )
+    {
+      theBeingPickedTray.computeIfPresent( num, (k, old) ->
+      {
+        if ( !packerId.equals( old.packer ) ) return old;
+        renewed.add( k );
+        return new Picking( old.basket, packerId, ends );
+      } );
+    }
+    return renewed.stream().mapToInt( Integer::intValue ).toArray();
+  }
+
+  /**
+   * Put orders whose lease has run out back in their place in the
+   * waiting tray.  The tray is only looked at once every REAP_MS.
+   */
+  private void reapLeases()
+  {
+    long now  = System.currentTimeMillis();
+    long next = nextReap.get();
+    if ( now < next || !nextReap.compareAndSet( next, now + REAP_MS ) )
+      return;                                     // Not due, or being done
+    for ( Map.Entry<Integer,Picking> e : theBeingPickedTray.entrySet() )
+    {
+      Picking p = e.getValue();
+      if ( p.packer != null && p.leaseEnds <= now &&
+           theBeingPickedTray.remove( e.getKey(), p ) )
+      {
+        DEBUG.trace( "DEBUG: Lease expired [%d] %s", e.getKey(), p.packer );
+        theWaitingTray.add( p.basket, theRanks.get( e.getKey() ) );
+      }
+    }
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * picked and the products are now being delivered to the
+   * collection desk, by the packer holding its lease
+   * @param  orderNum the order that has been picked
+   * @param  packerId packer holding its lease, null if taken without one
+   * @return true :: Order picked, false -:: no such order or not its lease
+   */
+  public boolean informOrderPacked( int orderNum, String packerId )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Order picked [%d]", orderNum );
+    reapLeases();
+    Picking picked;
+    do                                            // Lease may be renewed
+    {                                             //  while looked at
+      picked = theBeingPickedTray.get( orderNum );
+      if ( picked == null || !Objects.equals( picked.packer, packerId ) )
+        return false;
+    } while ( !theBeingPickedTray.remove( orderNum, picked ) );
+    theToBeCollectedTray.put( orderNum, picked.basket );
+    return true;
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * collected by the customer
+   * @return true :: Order in system, false -:: no such order
+   */
+  public boolean informOrderCollected( int orderNum )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Order collected [%d]", orderNum );
+    if ( theToBeCollectedTray.remove( orderNum ) == null ) return false;
+    theRanks.remove( orderNum );
+    return true;
+  }
+
+  /**
+   * Returns information about all the orders (order number) in the order processing system
+   * @return a Map with the keys: Waiting, BeingPacked, ToBeCollected
+   */
+  public Map<String, List<Integer> > getOrderState()
+         throws OrderException
+  {
+    return getOrderStateNumbers().toMap();
+  }
+
+  /**
+   * Returns the order numbers of the orders in each tray
+   * as primitive arrays.
+   * @return order numbers by state
+   */
+  public OrderStateNumbers getOrderStateNumbers()
+         throws OrderException
+  {
+    reapLeases();
+    return new OrderStateNumbers( orderNums( theWaitingTray.toList() ),
+                                  orderNums( theBeingPickedTray.keySet() ),
+                                  orderNums( theToBeCollectedTray.keySet() ) );
+  }
+
+  /**
+   * Returns the number of orders in each tray
+   * @return Counts of orders waiting, being picked, to be collected
+   */
+  public int[] getOrderStateCounts()
+         throws OrderException
+  {
+    reapLeases();
+    return new int[] { theWaitingTray.size(),
+                       theBeingPickedTray.size(),
+                       theToBeCollectedTray.size() };
+  }
+
+  private static int[] orderNums( List<Basket> queue )
+  {
+    int[] res = new int[ queue.size() ];
+    for ( int i = 0; i < res.length; i++ )
+      res[ i ] = queue.get( i ).getOrderNum();
+    return res;
+  }
+
+  private static int[] orderNums( Iterable<Integer> nums )
+  {
+    OrderNumbers res = new OrderNumbers();
+    for ( int num : nums ) res.add( num );
+    return res.toArray();
+  }
+
+  /**
+   * Copy of the orders in each tray
+   */
+  private List<List<Basket>> trays()
+  {
+    List<List<Basket>> byState = new ArrayList<>();
+    byState.add( theWaitingTray.toList() );
+    List<Basket> picking = new ArrayList<>();
+    for ( Picking p : theBeingPickedTray.values() ) picking.add( p.basket );
+    byState.add( picking );
+    byState.add( new ArrayList<>( theToBeCollectedTray.values() ) );
+    return byState;
+  }
+
+  /**
+   * Returns a report of all the orders in the system.
+   * @return the report
+   */
+  public String generateOrderReport() throws OrderException
+  {
+    return OrderReport.full( trays() );
+  }
+
+  /**
+   * Returns the next page of the report of all the orders in the system,
+   * all its pages of the orders as they were at its first page.
+   * @param previous The page before, null for the first page
+   * @param pageSize Most orders to put on the page
+   * @return the page
+   */
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
+         throws OrderException
+  {
+    return reports.page( previous, pageSize, this::trays );
+  }
+}
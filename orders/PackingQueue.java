@@ -0,0 +1,127 @@
+package orders;
+
+import catalogue.Basket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The orders waiting to be packed, the most urgent first.
+ * Each order is given a rank when it is queued:
+ * <PRE>
+ * Standard   the time it was queued
+ * Express    the time it was queued less EXPRESS_BOOST
+ * Booked     SLOT_LEAD before its collection time, but never
+ *            later than a standard or earlier than an express order
+ * </PRE>
+ * As a rank is never more than EXPRESS_BOOST before the time the order
+ * was queued, an order waits at most EXPRESS_BOOST behind orders queued
+ * after it, so standard orders are not starved.
+ * Ranks do not change once given, so the queue is a skip list and
+ * taking the first order is O(log n).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class PackingQueue
+{
+  static final long EXPRESS_BOOST = 15 * 60 * 1000;  // 15 minutes
+  static final long SLOT_LEAD     = 30 * 60 * 1000;  // Before collection
+
+  private final ConcurrentSkipListSet<Ticket> queue = new ConcurrentSkipListSet<>();
+  private final AtomicLong    nextSeq = new AtomicLong();   // Ties in rank
+  private final AtomicInteger size    = new AtomicInteger();
+
+  /**
+   * A queued order, ordered by rank then by when queued
+   */
+  private static class Ticket implements Comparable<Ticket>
+  {
+    final long   rank;
+    final long   seq;
+    final Basket basket;
+
+    Ticket( long rank, long seq, Basket basket )
+    {
+      this.rank   = rank;
+      this.seq    = seq;
+      this.basket = basket;
+    }
+
+    public int compareTo( Ticket o )
+    {
+      int c = Long.compare( rank, o.rank );
+      return c != 0 ? c : Long.compare( seq, o.seq );
+    }
+  }
+
+  /**
+   * Rank of an order queued at a time, lower is packed first
+   * @param basket The order
+   * @param queued Time queued in milliseconds
+   * @return the rank
+   */
+  static long rank( Basket basket, long queued )
+  {
+    long rank = queued;
+    if ( basket.getPriority() == Basket.EXPRESS )
+      rank -= EXPRESS_BOOST;
+    if ( basket.getCollectBy() > 0 )
+      rank = Math.min( rank, Math.max( basket.getCollectBy() - SLOT_LEAD,
+                                       queued - EXPRESS_BOOST ) );
+    return rank;
+  }
+
+  /**
+   * Queue a new order
+   * @param basket The order
+   * @return the rank given, used to queue the order again in the same place
+   */
+  long add( Basket basket )
+  {
+    long rank = rank( basket, System.currentTimeMillis() );
+    add( basket, rank );
+    return rank;
+  }
+
+  /**
+   * Queue an order with a known rank
+   * @param basket The order
+   * @param rank   Its rank
+   */
+  void add( Basket basket, long rank )
+  {
+    queue.add( new Ticket( rank, nextSeq.getAndIncrement(), basket ) );
+    size.incrementAndGet();
+  }
+
+  /**
+   * Take the most urgent order
+   * @return the order or null if none
+   */
+  Basket poll()
+  {
+    Ticket t = queue.pollFirst();
+    if ( t == null ) return null;
+    size.decrementAndGet();
+    return t.basket;
+  }
+
+  int size()
+  {
+    return size.get();
+  }
+
+  /**
+   * @return the orders queued, most urgent first
+   */
+  List<Basket> toList()
+  {
+    List<Basket> res = new ArrayList<>( size() );
+    for ( Ticket t : queue ) res.add( t.basket );
+    return res;
+  }
+}
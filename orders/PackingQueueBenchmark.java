@@ -0,0 +1,111 @@
+package orders;
+
+import catalogue.Basket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the time taken to take the next order to pack
+ * with many orders waiting.
+ * At each queue depth the queue is filled with a mix of standard,
+ * express and booked orders, then orders are repeatedly taken and a
+ * new one queued, so the depth stays the same, timing each take.
+ * The list the orders were held in before (remove the first) is
+ * measured for comparison.
+ * <PRE>
+ * java orders.PackingQueueBenchmark [depth ...]
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class PackingQueueBenchmark
+{
+  private static final int   TAKES  = 200000;      // Timed at each depth
+  private static final int   WARMUP = 50000;
+  private static final int[] DEPTHS = { 1000, 10000, 100000, 1000000 };
+
+  public static void main( String[] args )
+  {
+    int[] depths = DEPTHS;
+    if ( args.length > 0 )
+      depths = Arrays.stream( args ).mapToInt( Integer::parseInt ).toArray();
+
+    System.out.printf( "%-12s %9s %9s %9s %9s %9s%n",
+                       "queue", "depth", "p50 ns", "p99 ns", "p99.9 ns", "max ns" );
+    for ( int depth : depths )
+    {
+      report( "PackingQueue", depth, queue( depth ) );
+      if ( depth <= 100000 )                      // Too slow beyond
+        report( "ArrayList",  depth, list( depth ) );
+    }
+  }
+
+  private static long[] queue( int depth )
+  {
+    Random       rnd = new Random( 1 );
+    PackingQueue q   = new PackingQueue();
+    int          num = 1;
+    for ( ; num <= depth; num++ ) q.add( order( rnd, num ) );
+    for ( int i = 0; i < WARMUP; i++ )
+    {
+      q.poll();
+      q.add( order( rnd, num++ ) );
+    }
+    long[] times = new long[ TAKES ];
+    for ( int i = 0; i < TAKES; i++ )
+    {
+      Basket next = order( rnd, num++ );
+      long   t    = System.nanoTime();
+      q.poll();
+      times[ i ]  = System.nanoTime() - t;
+      q.add( next );
+    }
+    return times;
+  }
+
+  private static long[] list( int depth )
+  {
+    Random            rnd = new Random( 1 );
+    ArrayList<Basket> q   = new ArrayList<>();
+    int               num = 1;
+    for ( ; num <= depth; num++ ) q.add( order( rnd, num ) );
+    int    takes = Math.min( TAKES, 20000 );
+    long[] times = new long[ takes ];
+    for ( int i = 0; i < takes; i++ )
+    {
+      Basket next = order( rnd, num++ );
+      long   t    = System.nanoTime();
+      q.remove( 0 );
+      times[ i ]  = System.nanoTime() - t;
+      q.add( next );
+    }
+    return times;
+  }
+
+  /**
+   * An order, 10% express and 10% booked for collection
+   */
+  private static Basket order( Random rnd, int num )
+  {
+    Basket b = new Basket();
+    b.setOrderNum( num );
+    int kind = rnd.nextInt( 10 );
+    if ( kind == 0 ) b.setPriority( Basket.EXPRESS );
+    if ( kind == 1 )
+      b.setCollectBy( System.currentTimeMillis() + rnd.nextInt( 4 * 60 * 60 * 1000 ) );
+    return b;
+  }
+
+  private static void report( String name, int depth, long[] times )
+  {
+    Arrays.sort( times );
+    System.out.printf( "%-12s %9d %9d %9d %9d %9d%n", name, depth,
+                       times[ times.length / 2 ],
+                       times[ (int) (times.length * 0.99) ],
+                       times[ (int) (times.length * 0.999) ],
+                       times[ times.length - 1 ] );
+  }
+}
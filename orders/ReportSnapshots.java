@@ -0,0 +1,145 @@
+package orders;
+
+import catalogue.Basket;
+import middle.OrderReportPage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * The paged reports being read from an order processing system.
+ * When the first page is asked for the orders are copied once and
+ * put in report order (by state, then order number), each page is then
+ * cut from that copy, so the report is of one moment however the
+ * orders change while it is read.  A page carries the number of its
+ * report and where the next page starts.
+ * A report is kept for KEEP_MS after its last page was read and at
+ * most MAX are kept; if the reader comes back after that, the orders
+ * after the last one reported are copied again.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class ReportSnapshots
+{
+  private static final long KEEP_MS = 60 * 1000;      // After last page
+  private static final int  MAX     = 32;             // Reports kept
+
+  /**
+   * The orders of one report, in report order
+   */
+  private static final class Snapshot
+  {
+    final long     id;
+    final int[]    states;
+    final Basket[] orders;
+    final int[]    counts;                            // Orders by state
+    long           expires;
+
+    Snapshot( long id, int[] states, Basket[] orders, int[] counts )
+    {
+      this.id     = id;
+      this.states = states;
+      this.orders = orders;
+      this.counts = counts;
+    }
+  }
+
+  private final Map<Long,Snapshot> reports = new LinkedHashMap<>();
+  private long nextId = ThreadLocalRandom.current().nextLong( 1, Long.MAX_VALUE / 2 );
+
+  /**
+   * The next page of a report
+   * @param previous The page before, null for the first page
+   * @param pageSize Most orders to put on the page
+   * @param copy     Copies the orders of each state, taking the lock
+   *                  of the order processing system if need be
+   * @return the page
+   */
+  OrderReportPage page( OrderReportPage previous, int pageSize,
+                        Supplier<List<List<Basket>>> copy )
+  {
+    Snapshot snap = previous == null ? null : find( previous.getReport() );
+    int      from = snap == null ? 0 : previous.getNext();
+    if ( snap == null ) snap = make( previous, copy.get() );
+
+    int          n      = Math.max( 0, Math.min( pageSize, snap.orders.length - from ) );
+    int[]        states = new int[ n ];
+    List<Basket> orders = new ArrayList<>( n );
+    for ( int i = 0; i < n; i++ )
+    {
+      states[ i ] = snap.states[ from + i ];
+      orders.add( snap.orders[ from + i ] );
+    }
+    boolean last = from + n >= snap.orders.length;
+    synchronized ( this )
+    {
+      if ( last ) reports.remove( snap.id );
+    }
+    return OrderReport.page( previous, states, orders, last, snap.counts,
+                             last ? 0 : snap.id, from + n );
+  }
+
+  /**
+   * The report of a page, kept for a while longer, null if not known
+   */
+  private synchronized Snapshot find( long id )
+  {
+    reap();
+    Snapshot snap = reports.get( id );
+    if ( snap != null ) snap.expires = System.currentTimeMillis() + KEEP_MS;
+    return snap;
+  }
+
+  /**
+   * Put the orders after the previous page in report order and keep them
+   */
+  private Snapshot make( OrderReportPage previous, List<List<Basket>> byState )
+  {
+    int[]        counts = new int[ OrderReport.STATES ];
+    List<Basket> rest   = new ArrayList<>();
+    List<Integer> stateOf = new ArrayList<>();
+    for ( int s = 0; s < OrderReport.STATES; s++ )
+    {
+      List<Basket> tray = new ArrayList<>( byState.get( s ) );
+      counts[ s ] = tray.size();
+      tray.sort( Comparator.comparingInt( Basket::getOrderNum ) );
+      for ( Basket basket : tray )
+      {
+        if ( !OrderReport.after( previous, s, basket.getOrderNum() ) ) continue;
+        rest.add( basket );
+        stateOf.add( s );
+      }
+    }
+    int[] states = new int[ rest.size() ];
+    for ( int i = 0; i < states.length; i++ ) states[ i ] = stateOf.get( i );
+
+    synchronized ( this )
+    {
+      reap();
+      while ( reports.size() >= MAX )                 // Oldest goes
+        reports.remove( reports.keySet().iterator().next() );
+      Snapshot snap = new Snapshot( nextId++, states,
+                                    rest.toArray( new Basket[0] ), counts );
+      snap.expires = System.currentTimeMillis() + KEEP_MS;
+      reports.put( snap.id, snap );
+      return snap;
+    }
+  }
+
+  /**
+   * Forget the reports not read for KEEP_MS
+   */
+  private void reap()
+  {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Snapshot> it = reports.values().iterator(); it.hasNext(); )
+      if ( it.next().expires <= now ) it.remove();
+  }
+}
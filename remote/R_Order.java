@@ -2,6 +2,8 @@ package remote;
 
 import catalogue.Basket;
 import middle.OrderException;
+import middle.OrderReportPage;
+import middle.OrderStateNumbers;
 import orders.Order;
 
 import java.rmi.RemoteException;
@@ -11,9 +13,11 @@ import java.util.Map;
 
 /**
  * The order processing handling.
- * This code is incomplete
+ * A change sent again with the same key is not made again,
+ * the reply to the first is returned (see ReplyCache).
+ * The order processing system is made, and counted, by the server.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.4
  */
 
 public class      R_Order
@@ -22,42 +26,66 @@ public class      R_Order
 {
   private static final long serialVersionUID = 1;
   private Order aOrder = null;
+  private final transient ReplyCache theReplies = new ReplyCache();
 
-  public R_Order( String url )
+  public R_Order( String url, Order order )
          throws RemoteException, OrderException
   {
-    aOrder = new Order();
+    aOrder = order;
   }
 
-  public void newOrder( Basket bought )
+  public void newOrder( String key, Basket bought )
          throws RemoteException, OrderException
   {
-     aOrder.newOrder( bought );
-    
+    theReplies.once( "newOrder", key, () ->
+    {
+      aOrder.newOrder( bought );
+      return null;
+    } );
   }
 
-  public int uniqueNumber()
+  public int uniqueNumber( String key )
          throws RemoteException, OrderException
   {
-    return aOrder.uniqueNumber();
+    return theReplies.once( "uniqueNumber", key,
+                            () -> aOrder.uniqueNumber() );
   }
   
-  public Basket getOrderToPack()
+  public Basket getOrderToPack( String key )
          throws RemoteException, OrderException
   {
-      return aOrder.getOrderToPack();
+    return theReplies.once( "getOrderToPack", key,
+                            () -> aOrder.getOrderToPack() );
   }
   
-  public boolean informOrderPacked( int orderNum )
+  public boolean informOrderPacked( String key, int orderNum,
+                                    String packerId )
          throws RemoteException, OrderException
   {
-     return aOrder.informOrderPacked(orderNum);
+    return theReplies.once( "informOrderPacked", key,
+                            () -> aOrder.informOrderPacked( orderNum, packerId ) );
   }
   
-  public boolean informOrderCollected( int orderNum )
+  public List<Basket> getOrdersToPack( String key, String packerId,
+                                       int max, long leaseTime )
          throws RemoteException, OrderException
   {
-      return aOrder.informOrderCollected(orderNum);
+    return theReplies.once( "getOrdersToPack", key,
+             () -> aOrder.getOrdersToPack( packerId, max, leaseTime ) );
+  }
+
+  public int[] renewLeases( String packerId, int[] orderNums,
+                            long leaseTime )
+         throws RemoteException, OrderException
+  {
+     return aOrder.renewLeases( packerId, orderNums, leaseTime );
+  }
+
+  public boolean informOrderCollected( String key, int orderNum )
+         throws RemoteException, OrderException
+  {
+    return theReplies.once( "informOrderCollected", key,
+                            () -> aOrder.informOrderCollected( orderNum ) );
   }
   
   
@@ -67,9 +95,28 @@ public class      R_Order
     return aOrder.getOrderState();
   }
 
+  public OrderStateNumbers getOrderStateNumbers()
+          throws RemoteException, OrderException
+  {
+    return aOrder.getOrderStateNumbers();
+  }
+
+  public int[] getOrderStateCounts()
+          throws RemoteException, OrderException
+  {
+    return aOrder.getOrderStateCounts();
+  }
+
   public String generateOrderReport()
           throws RemoteException, OrderException
   {
     return aOrder.generateOrderReport();
   }
+
+  public OrderReportPage getOrderReportPage( OrderReportPage previous,
+                                             int pageSize )
+          throws RemoteException, OrderException
+  {
+    return aOrder.getOrderReportPage( previous, pageSize );
+  }
 }
@@ -3,13 +3,14 @@ package remote;
 import catalogue.Product;
 import dbAccess.StockR;
 import middle.StockException;
+import middle.StockReader;
 
 import javax.swing.*;
 import java.rmi.RemoteException;
+import java.util.List;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Not synchronized, the stock objects are safe to call at the
+// same time and take a database connection from a pool per call
 
 /**
  * Implements Read access to the stock list,
@@ -22,7 +23,7 @@ public class      R_StockR
        implements RemoteStockR_I
 {
   private static final long serialVersionUID = 1;
-  private StockR aStockR = null;
+  private StockReader aStockR = null;
 
   public R_StockR( String url )
          throws RemoteException, StockException
@@ -30,12 +31,24 @@ public class      R_StockR
     aStockR = new StockR();
   }
 
+  /**
+   * Serve read access from another source of stock information,
+   *  for example a replica of the stock list
+   * @param aReader Where to read the stock list from
+   * @throws RemoteException if issue
+   */
+  public R_StockR( StockReader aReader )
+         throws RemoteException
+  {
+    aStockR = aReader;
+  }
+
   /**
    * Checks if the product exits in the stock list
    * @param pNum The product number
    * @return true if exists otherwise false
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.exists( pNum );
@@ -46,7 +59,7 @@ public class      R_StockR
    * @param pNum The product number
    * @return StockNumber, Description, Price, Quantity
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.getDetails( pNum );
@@ -59,10 +72,22 @@ public class      R_StockR
    * @param pNum The product number
    * @return Image
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.getImage( pNum );
   }
 
+  /**
+   * Returns the products whose description best matches the text
+   * @param text Words to look for
+   * @param max Most products to return
+   * @return products, best match first
+   */
+  public List<Product> search( String text, int max )
+         throws RemoteException, StockException
+  {
+    return aStockR.search( text, max );
+  }
+
 }
@@ -2,20 +2,24 @@ package remote;
 
 import catalogue.Product;
 import dbAccess.StockRW;
+import middle.StockChange;
 import middle.StockException;
+import middle.StockSnapshot;
 
 import javax.swing.*;
 import java.rmi.RemoteException;
+import java.util.List;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Not synchronized, the stock objects are safe to call at the
+// same time and take a database connection from a pool per call
 
 /**
  * Implements Read/Write access to the stock list,
  * the stock list is held in a relational DataBase.
+ * A change sent again with the same key is not made again,
+ * the reply to the first is returned (see ReplyCache).
  * @author  Mike Smith University of Brighton
- * @version 2.1
+ * @version 2.3
  */
 
 public class      R_StockRW
@@ -24,10 +28,11 @@ public class      R_StockRW
 {
   private static final long serialVersionUID = 1;
   private StockRW aStockRW = null;
+  private final transient ReplyCache theReplies = new ReplyCache();
 
   /**
-   * All transactions are done via StockRW to ensure
-   * that a single connection to the database is used for all transactions
+   * All transactions are done via StockRW, which takes
+   * a connection from the shared pool for each transaction
    * @param url of remote object
    * @throws java.rmi.RemoteException if issue
    * @throws middle.StockException if issue
@@ -44,7 +49,7 @@ public class      R_StockRW
    * @return true if product exists else false
    * @throws middle.StockException if underlying error
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws StockException
   {
     return aStockRW.exists( pNum );
@@ -56,7 +61,7 @@ public class      R_StockRW
    * @return StockNumber, Description, Price, Quantity
    * @throws middle.StockException if underlying error
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws StockException
   {
     return aStockRW.getDetails( pNum );
@@ -68,51 +73,167 @@ public class      R_StockRW
    * @return image
    * @throws middle.StockException if underlying error
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
          throws StockException
   {
     return aStockRW.getImage( pNum );
   }
 
+  /**
+   * Returns the products whose description best matches the text
+   * @param text Words to look for
+   * @param max Most products to return
+   * @return products, best match first
+   * @throws middle.StockException if underlying error
+   */
+  public List<Product> search( String text, int max )
+         throws StockException
+  {
+    return aStockRW.search( text, max );
+  }
+
 
   /**
    * Buys stock and hence decrements number in the stock list
+   * @param key Key of the request
    * @param pNum product number
    * @param amount amount required
    * @return StockNumber, Description, Price, Quantity
    * @throws middle.StockException if underlying error
    */
-  // Need to Fix
-  //  What happens if can not commit data
-  //
-  public synchronized boolean buyStock( String pNum, int amount )
+  public boolean buyStock( String key, String pNum, int amount )
          throws StockException
   {
-    return aStockRW.buyStock( pNum, amount );
+    return theReplies.once( "buyStock", key,
+                            () -> aStockRW.buyStock( pNum, amount ) );
   }
 
   /**
    * Adds (Restocks) stock to the product list
+   * @param key Key of the request
    * @param pNum The product number
    * @param amount Quantity
    * @throws middle.StockException if underlying error
    */
-  public synchronized void addStock( String pNum, int amount )
+  public void addStock( String key, String pNum, int amount )
          throws StockException
   {
-    aStockRW.addStock( pNum, amount );
+    theReplies.once( "addStock", key, () ->
+    {
+      aStockRW.addStock( pNum, amount );
+      return null;
+    } );
   }
 
 
   /**
    * Modifies Stock details for a given product number.
    * Information modified: Description, Price
+   * @param key Key of the request
    * @param product The product to be modified
    * @throws middle.StockException if underlying error
    */
-  public synchronized void modifyStock( Product product )
+  public void modifyStock( String key, Product product )
               throws StockException
   {
-    aStockRW.modifyStock( product );
+    theReplies.once( "modifyStock", key, () ->
+    {
+      aStockRW.modifyStock( product );
+      return null;
+    } );
+  }
+
+  /**
+   * Modifies Stock details only if the product is still at version
+   * @param key Key of the request
+   * @param product The product to be modified
+   * @param version Version the product was read at
+   * @return true if changed, false if changed by someone else since
+   * @throws middle.StockException if underlying error
+   */
+  public boolean modifyStock( String key, Product product, int version )
+         throws StockException
+  {
+    return theReplies.once( "modifyStock", key,
+                            () -> aStockRW.modifyStock( product, version ) );
+  }
+
+  /**
+   * Holds stock for a customer
+   * @param key Key of the request
+   * @param pNum The product number
+   * @param amount Quantity
+   * @param ttl How long to hold it for in ms
+   * @return token for the hold, null if not enough stock free
+   * @throws middle.StockException if underlying error
+   */
+  public String reserveStock( String key, String pNum, int amount, long ttl )
+         throws StockException
+  {
+    return theReplies.once( "reserveStock", key,
+                            () -> aStockRW.reserveStock( pNum, amount, ttl ) );
+  }
+
+  /**
+   * Buys the stock held
+   * @param key Key of the request
+   * @param token Token for the hold
+   * @return true if bought, false if the hold has run out
+   * @throws middle.StockException if underlying error
+   */
+  public boolean commitReservation( String key, String token )
+         throws StockException
+  {
+    return theReplies.once( "commitReservation", key,
+                            () -> aStockRW.commitReservation( token ) );
+  }
+
+  /**
+   * Gives back the stock held, giving it back twice does no harm
+   * @param key Key of the request, not needed
+   * @param token Token for the hold
+   */
+  public void releaseReservation( String key, String token )
+  {
+    aStockRW.releaseReservation( token );
+  }
+
+  /**
+   * Returns a copy of the stock list, used to start a replica
+   * @return snapshot of the stock list
+   * @throws middle.StockException if underlying error
+   */
+  public StockSnapshot snapshot()
+         throws StockException
+  {
+    return aStockRW.snapshot();
+  }
+
+  /**
+   * Returns the changes made after the change numbered seq
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @return changes in order, or null if no longer held
+   * @throws middle.StockException if underlying error
+   */
+  public List<StockChange> changesSince( long seq, int max )
+         throws StockException
+  {
+    return aStockRW.changesSince( seq, max );
+  }
+
+  /**
+   * Returns the changes made after the change numbered seq,
+   *  waiting for one to be made if there are none.
+   * @param seq Last change seen
+   * @param max Maximum number of changes to return
+   * @param timeout Longest time to wait in milliseconds
+   * @return changes in order, or null if no longer held
+   * @throws middle.StockException if underlying error
+   */
+  public List<StockChange> awaitChanges( long seq, int max, long timeout )
+         throws StockException
+  {
+    return aStockRW.awaitChanges( seq, max, timeout );
   }
 }
@@ -2,6 +2,8 @@ package remote;
 
 import catalogue.Basket;
 import middle.OrderException;
+import middle.OrderReportPage;
+import middle.OrderStateNumbers;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -10,25 +12,40 @@ import java.util.Map;
 
 /**
  * Defines the RMI interface for the Order object.
+ * Each call that changes the orders takes a key, made by the
+ * client for the call and sent again with each retry of it, so a
+ * call retried after a time out is only carried out once.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.3
  */
 
 public interface RemoteOrder_I extends Remote
 {
-  public void newOrder(Basket order)
+  public void newOrder(String key, Basket order)
          throws RemoteException, OrderException;
-  public int  uniqueNumber() 
+  public int  uniqueNumber(String key)
          throws RemoteException, OrderException;
-  public Basket getOrderToPack() 
+  public Basket getOrderToPack(String key)
          throws  RemoteException, OrderException;
-  public boolean informOrderPacked(int orderNum)
+  public boolean informOrderPacked(String key, int orderNum, String packerId)
          throws  RemoteException, OrderException;
-  public boolean informOrderCollected(int orderNum)
+  public List<Basket> getOrdersToPack(String key, String packerId,
+                                      int max, long leaseTime)
+         throws  RemoteException, OrderException;
+  public int[] renewLeases(String packerId, int[] orderNums, long leaseTime)
+         throws  RemoteException, OrderException;
+  public boolean informOrderCollected(String key, int orderNum)
          throws RemoteException, OrderException;
   public Map<String, List<Integer>> getOrderState() 
          throws  RemoteException, OrderException;
+  public OrderStateNumbers getOrderStateNumbers()
+         throws  RemoteException, OrderException;
+  public int[] getOrderStateCounts()
+         throws  RemoteException, OrderException;
   public String generateOrderReport()
           throws RemoteException, OrderException;
+  public OrderReportPage getOrderReportPage(OrderReportPage previous,
+                                            int pageSize)
+          throws RemoteException, OrderException;
 }
 
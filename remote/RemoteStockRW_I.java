@@ -6,25 +6,46 @@
 package remote;
 
 import catalogue.Product;
+import middle.StockChange;
 import middle.StockException;
+import middle.StockSnapshot;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Defines the RMI interface for read/write access to the stock object.
+ * Each call that changes the stock list takes a key, made by the
+ * client for the call and sent again with each retry of it, so a
+ * call retried after a time out is only carried out once.
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  */
 
 public interface RemoteStockRW_I
        extends   RemoteStockR_I, Remote
 {
-  boolean buyStock(String number, int amount)
+  boolean buyStock(String key, String number, int amount)
+          throws RemoteException, StockException;
+  void    addStock(String key, String number, int amount)
+          throws RemoteException, StockException;
+  void    modifyStock(String key, Product detail)
           throws RemoteException, StockException;
-  void    addStock(String number, int amount)
+  boolean modifyStock(String key, Product detail, int version)
           throws RemoteException, StockException;
-  void    modifyStock(Product detail)
+  String  reserveStock(String key, String number, int amount, long ttl)
           throws RemoteException, StockException;
+  boolean commitReservation(String key, String token)
+          throws RemoteException, StockException;
+  void    releaseReservation(String key, String token)
+          throws RemoteException, StockException;
+
+  StockSnapshot     snapshot()
+                    throws RemoteException, StockException;
+  List<StockChange> changesSince(long seq, int max)
+                    throws RemoteException, StockException;
+  List<StockChange> awaitChanges(long seq, int max, long timeout)
+                    throws RemoteException, StockException;
 }
 
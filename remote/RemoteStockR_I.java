@@ -6,6 +6,7 @@ import middle.StockException;
 import javax.swing.*;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Defines the RMI interface for read access to the stock object.
@@ -22,5 +23,7 @@ public interface RemoteStockR_I
             throws RemoteException, StockException;
   ImageIcon getImage(String number)
             throws RemoteException, StockException;
+  List<Product> search(String text, int max)
+            throws RemoteException, StockException;
 }
 
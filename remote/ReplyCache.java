@@ -0,0 +1,129 @@
+package remote;
+
+import config.Config;
+import debug.DEBUG;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Remembers the reply to each request that changes the stock list
+ * or the orders, by the key the client gave the request, so that a
+ * request sent again (after a time out, say) is not carried out twice.
+ * The client makes a new key for each request and sends the same key
+ * with each retry of it.
+ * <PRE>
+ * first time        carried out, reply remembered
+ * again, done       reply remembered is returned
+ * again, running    waits for the first to finish
+ * first failed      forgotten, so a retry is carried out
+ * </PRE>
+ * At most MAX replies are kept, each for at most KEEP_MS, the oldest
+ * is forgotten first (settings reply.cache.size and reply.cache.keepMs,
+ * see config.Config).  A request still being carried out is never
+ * forgotten, so a retry of it waits rather than carrying it out again.
+ * A client must give up retrying well within KEEP_MS.
+ * @author  Mike Smith University of Brighton
+ * @version 1.2
+ */
+
+class ReplyCache
+{
+  private static final int  MAX     = Config.get().replyCacheSize();   // Replies kept
+  private static final long KEEP_MS = Config.get().replyCacheKeepMs(); //  for
+
+  /**
+   * A request that may throw E
+   */
+  interface Request<T, E extends Exception>
+  {
+    T run() throws E;
+  }
+
+  /**
+   * The reply to a request, and when it may be forgotten
+   */
+  private static final class Reply
+  {
+    final String                    key;
+    final CompletableFuture<Object> value   = new CompletableFuture<>();
+    final long                      expires = System.currentTimeMillis() + KEEP_MS;
+
+    Reply( String key )
+    {
+      this.key = key;
+    }
+  }
+
+  private final Map<String,Reply> replies = new ConcurrentHashMap<>();
+  private final Queue<Reply>      order   = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Carry out a request once for a key
+   * @param name Name of the request, a key is only matched for the same name
+   * @param key Key the client gave the request, null to always carry it out
+   * @param request The request
+   * @return the reply to the request
+   * @throws E if the request failed
+   */
+  @SuppressWarnings( "unchecked" )
+  <T, E extends Exception> T once( String name, String key,
+                                   Request<T, E> request ) throws E
+  {
+    if ( key == null ) return request.run();
+    evict();
+    Reply mine = new Reply( name + ":" + key );
+    Reply seen = replies.putIfAbsent( mine.key, mine );
+    if ( seen != null )                               // Sent again
+    {
+      DEBUG.trace( "ReplyCache: %s again", seen.key );
+      try
+      {
+        return (T) seen.value.get();
+      } catch ( ExecutionException e )                // First failed
+      {
+        Throwable t = e.getCause();
+        if ( t instanceof RuntimeException ) throw (RuntimeException) t;
+        if ( t instanceof Error )            throw (Error) t;
+        throw (E) t;
+      } catch ( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException( "Interrupted waiting for " + seen.key );
+      }
+    }
+    order.add( mine );
+    try
+    {
+      T res = request.run();
+      mine.value.complete( res );
+      return res;
+    } catch ( Exception | Error e )
+    {
+      replies.remove( mine.key, mine );               // Let a retry run
+      mine.value.completeExceptionally( e );
+      throw e;
+    }
+  }
+
+  /**
+   * Forget the oldest replies, those expired and those over MAX,
+   *  passing over requests still being carried out
+   */
+  private void evict()
+  {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Reply> it = order.iterator(); it.hasNext(); )
+    {
+      Reply r = it.next();
+      if ( r.expires > now && replies.size() <= MAX ) break; // Rest newer
+      if ( !r.value.isDone() ) continue;              // Still running
+      if ( order.remove( r ) ) replies.remove( r.key, r );
+    }
+  }
+}